@@ -0,0 +1,27 @@
+package jcertdevtest;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link BookingService}, so a caller can have many
+ * requests outstanding at once. Failures complete the future exceptionally
+ * with {@link ServiceException}.
+ * 
+ */
+public interface AsyncBookingService {
+
+	public CompletableFuture<Room[]> search(SearchCriteria criteria);
+
+	public CompletableFuture<Void> book(Booking booking);
+
+	/**
+	 * See {@link BookingService#book(Booking[])}.
+	 */
+	public CompletableFuture<BookingResult[]> book(Booking[] bookings);
+
+	/**
+	 * See {@link BookingService#getRooms(int[])}.
+	 */
+	public CompletableFuture<Room[]> getRooms(int[] recNos);
+
+}
@@ -0,0 +1,50 @@
+package jcertdevtest;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one {@link Booking} of a batch, see 
+ * {@link BookingService#book(Booking[])}.
+ * 
+ */
+public class BookingResult implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private int recNo;
+	private boolean success;
+	private String message;
+
+	public BookingResult() {
+	}
+
+	public BookingResult(int recNo, boolean success, String message) {
+		this.recNo = recNo;
+		this.success = success;
+		this.message = message;
+	}
+
+	public int getRecNo() {
+		return recNo;
+	}
+	public void setRecNo(int recNo) {
+		this.recNo = recNo;
+	}
+	public boolean isSuccess() {
+		return success;
+	}
+	public void setSuccess(boolean success) {
+		this.success = success;
+	}
+	/**
+	 * Reason for failure, null on success.
+	 */
+	public String getMessage() {
+		return message;
+	}
+	public void setMessage(String message) {
+		this.message = message;
+	}
+	@Override
+	public String toString() {
+		return "RecNo:" + recNo + " Success:" + success + (message == null ? "" : " " + message);
+	}
+}
@@ -2,9 +2,38 @@ package jcertdevtest;
 
 public interface BookingService {
 
+	/**
+	 * Every call returns an array and rooms of its own, not shared with 
+	 * other callers of the same search, so the caller may modify them.
+	 */
 	public abstract Room[] search(SearchCriteria criteria)
 			throws ServiceException;
 
+	/**
+	 * Same result as {@link #search}, read a chunk at a time. The caller 
+	 * must read it to the end or close it.
+	 * 
+	 * @param chunkSize max rooms per chunk
+	 */
+	public abstract RoomCursor openSearch(SearchCriteria criteria, int chunkSize)
+			throws ServiceException;
+
 	public abstract void book(Booking booking) throws ServiceException;
 
-}
\ No newline at end of file
+	/**
+	 * Books all in one call, e.g. for an agent booking many rooms at once.
+	 * 
+	 * @return result of each booking, in the same order. A booking failing,
+	 * e.g. room already booked or a system error writing it, does not stop 
+	 * the others.
+	 * @throws ServiceException on system error before any booking was made.
+	 */
+	public abstract BookingResult[] book(Booking[] bookings) throws ServiceException;
+
+	/**
+	 * @return the rooms of the given record numbers, in the same order. Null
+	 * for a record number that does not exist.
+	 */
+	public abstract Room[] getRooms(int[] recNos) throws ServiceException;
+
+}
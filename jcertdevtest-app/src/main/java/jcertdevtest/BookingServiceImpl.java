@@ -2,13 +2,27 @@ package jcertdevtest;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jcertdevtest.db.DB;
 import jcertdevtest.db.DataPersistenceException;
+import jcertdevtest.db.Query;
+import jcertdevtest.db.QueryableDB;
 import jcertdevtest.db.RecordNotFoundException;
+import jcertdevtest.db.Snapshot;
+import jcertdevtest.db.VersionedDB;
+import jcertdevtest.metrics.Events;
+import jcertdevtest.metrics.LatencyRecorder;
+import jcertdevtest.metrics.Metrics;
 
 /**
  * The main server class for handling data requirements by the user interface:
@@ -24,21 +38,240 @@ import jcertdevtest.db.RecordNotFoundException;
  */
 public class BookingServiceImpl implements BookingService {
 	private static final Logger log = Logger.getLogger(BookingServiceImpl.class.getName());
+	private static final LatencyRecorder searchLatency = Metrics.latency("BookingService.search");
+	private static final LatencyRecorder bookLatency = Metrics.latency("BookingService.book");
 	private DB data;
+	/** Same as data if it supports {@link QueryableDB}, otherwise null */
+	private final QueryableDB queryableData;
+	/** Same as data if it supports {@link VersionedDB}, otherwise null */
+	private final VersionedDB versionedData;
+	/** Optimistic booking attempts before waiting for the lock instead */
+	static final int MAX_BOOK_ATTEMPTS = 8;
+	/** Longest random wait after the first lost race, doubled after each */
+	private static final long BOOK_BACKOFF_NANOS = 1000;
+	public static final int DEFAULT_SEARCH_CACHE_ROOMS = 100000;
+	/** Null if disabled, or data has no version to tell if results are current */
+	private final SearchCache cache;
 	
 	public BookingServiceImpl(DB data) {
+		this(data, DEFAULT_SEARCH_CACHE_ROOMS);
+	}
+	
+	/**
+	 * @param searchCacheRooms max total rooms of cached search results, 0 
+	 * to not cache. Only cached if data supports {@link QueryableDB}.
+	 */
+	public BookingServiceImpl(DB data, int searchCacheRooms) {
 		this.data = data;
+		this.queryableData = data instanceof QueryableDB ? (QueryableDB)data : null;
+		this.versionedData = data instanceof VersionedDB ? (VersionedDB)data : null;
+		this.cache = queryableData != null && searchCacheRooms > 0 ? new SearchCache(searchCacheRooms) : null;
 	}
 	
+	/**
+	 * Results are cached until any record changes, so the same search
+	 * repeated in between is not searched again. Every call returns its
+	 * own rooms, the caller may change them, so a cache hit still costs a
+	 * {@link Room#clone} per room.
+	 */
 	@Override
 	public Room[] search(SearchCriteria criteria) throws ServiceException {
+		long start = System.nanoTime();
+		Object event = Events.beginSearch();
+		try {
+			Room[] rooms = doSearch(criteria);
+			Events.search(event, criteria, rooms.length);
+			return rooms;
+		} finally {
+			searchLatency.recordSince(start);
+		}
+	}
+
+	private Room[] doSearch(SearchCriteria criteria) throws ServiceException {
+		if(criteria.getOffset() < 0 || criteria.getLimit() < 0)
+			throw new ServiceException("Invalid offset " + criteria.getOffset() + " or limit " + criteria.getLimit());
+		
+		if(queryableData != null) {
+			Room[] rooms = cache != null ? cache.get(criteria, queryableData.getVersion()) : null;
+			if(rooms != null)
+				return rooms;
+			try(Snapshot snapshot = queryableData.openSnapshot()) {
+				if(criteria.isPaged())
+					rooms = search(snapshot, toQuery(criteria), criteria);
+				else
+					rooms = search(snapshot, toQuery(criteria));
+				if(cache != null)
+					cache.put(criteria, snapshot.getSequence(), rooms);
+			}
+			return rooms;
+		}
 		
+		Room[] rooms;
+		if(criteria instanceof SearchCriteriaExactAnd) {
+			rooms = search((SearchCriteriaExactAnd)criteria);
+		} else if(criteria instanceof SearchCriteriaExactOr) {
+			rooms = search((SearchCriteriaExactOr)criteria);
+		} else if(criteria instanceof SearchCriteriaAll) {
+			rooms = search((SearchCriteriaAll)criteria);
+		} else {
+			throw new ServiceException("Unknown search type " + criteria);
+		}
+		return criteria.isPaged() ? page(rooms, criteria) : rooms;
+	}
+	
+	/**
+	 * The page is selected by {@link QueryableDB} while matching, so only 
+	 * the rooms on it are made.
+	 */
+	private static Room[] search(Snapshot snapshot, Query query, SearchCriteria criteria) {
+		Comparator<String[]> order = criteria.getSort() == null ? null : criteria.getSort().comparator();
+		return toRooms(snapshot.query(query, order, criteria.getOffset(), criteria.getLimit()));
+	}
+	
+	/**
+	 * Without {@link QueryableDB} all matches are already read, so they are
+	 * simply sorted.
+	 */
+	private static Room[] page(Room[] rooms, SearchCriteria criteria) {
+		if(criteria.getSort() != null) {
+			final Comparator<String[]> order = criteria.getSort().comparator();
+			Arrays.sort(rooms, new Comparator<Room>() {
+				@Override
+				public int compare(Room a, Room b) {
+					int result = order.compare(a.toRecord(), b.toRecord());
+					return result != 0 ? result : Integer.compare(a.getRecNo(), b.getRecNo());
+				}
+			});
+		}
+		int from = Math.min(criteria.getOffset(), rooms.length);
+		int to = criteria.getLimit() == 0 ? rooms.length : (int)Math.min((long)from + criteria.getLimit(), rooms.length);
+		return Arrays.copyOfRange(rooms, from, to);
+	}
+	
+	/**
+	 * Exact match and OR can be expressed directly with {@link QueryableDB},
+	 * so the search is a single pass with no need to filter the "begins with"
+	 * matches or read the matched records again. In a {@link Snapshot}, so 
+	 * all rooms are as of one commit however long the search takes.
+	 */
+	private static Room[] search(Snapshot snapshot, Query query) {
+		return toRooms(snapshot.query(query));
+	}
+
+	private static Room[] toRooms(Map<Integer, String[]> result) {
+		final Room[] rooms = new Room[result.size()];
+		int i = 0;
+		for(Map.Entry<Integer, String[]> entry : result.entrySet()) {
+			rooms[i++] = Room.fromRecord(entry.getKey(), entry.getValue());
+		}
+		return rooms;
+	}
+	
+	/**
+	 * With {@link QueryableDB}, each chunk is read as it is needed from the
+	 * matches of one {@link Snapshot}, open until the last chunk is read or
+	 * the cursor closed, so chunks are consistent with each other and the
+	 * index is only looked up once. {@link DB} alone
+	 * cannot resume a search, so it is done in full. As is a page or sorted
+	 * search, which is only known to be complete after all matches.
+	 */
+	@Override
+	public RoomCursor openSearch(SearchCriteria criteria, int chunkSize) throws ServiceException {
+		if(chunkSize < 1)
+			throw new ServiceException("Invalid chunk size " + chunkSize);
+		if(queryableData != null && !criteria.isPaged())
+			return new QueryCursor(toQuery(criteria), chunkSize);
+		return new ArrayCursor(search(criteria), chunkSize);
+	}
+
+	private final class QueryCursor implements RoomCursor {
+		private final Snapshot snapshot;
+		private final Iterator<Map.Entry<Integer, String[]>> matches;
+		private final int chunkSize;
+		private boolean done;
+
+		public QueryCursor(Query query, int chunkSize) {
+			this.snapshot = queryableData.openSnapshot();
+			try {
+				this.matches = snapshot.matches(query);
+			} catch (RuntimeException e) {
+				snapshot.close();
+				throw e;
+			}
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !done;
+		}
+
+		@Override
+		public Room[] next() {
+			if(done)
+				throw new NoSuchElementException();
+			Map<Integer, String[]> chunk = new LinkedHashMap<>();
+			while(chunk.size() < chunkSize && matches.hasNext()) {
+				Map.Entry<Integer, String[]> match = matches.next();
+				chunk.put(match.getKey(), match.getValue());
+			}
+			if(!matches.hasNext())
+				close();
+			return toRooms(chunk);
+		}
+
+		@Override
+		public void close() {
+			done = true;
+			snapshot.close();
+		}
+	}
+
+	private static final class ArrayCursor implements RoomCursor {
+		private final Room[] rooms;
+		private final int chunkSize;
+		private int pos;
+		private boolean done;
+
+		public ArrayCursor(Room[] rooms, int chunkSize) {
+			this.rooms = rooms;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !done;
+		}
+
+		@Override
+		public Room[] next() {
+			if(done)
+				throw new NoSuchElementException();
+			int end = Math.min(pos + chunkSize, rooms.length);
+			Room[] chunk = Arrays.copyOfRange(rooms, pos, end);
+			pos = end;
+			if(chunk.length < chunkSize)
+				done = true;
+			return chunk;
+		}
+
+		@Override
+		public void close() {
+			done = true;
+		}
+	}
+	
+	private static Query toQuery(SearchCriteria criteria) throws ServiceException {
 		if(criteria instanceof SearchCriteriaExactAnd) {
-			return search((SearchCriteriaExactAnd)criteria);
+			SearchCriteriaExact exact = (SearchCriteriaExact)criteria;
+			return Query.and(Query.exact(Room.NameFieldNum, exact.getName()),
+							Query.exact(Room.LocationFieldNum, exact.getLocation()));
 		} else if(criteria instanceof SearchCriteriaExactOr) {
-			return search((SearchCriteriaExactOr)criteria);
+			SearchCriteriaExact exact = (SearchCriteriaExact)criteria;
+			return Query.or(Query.exact(Room.NameFieldNum, exact.getName()),
+							Query.exact(Room.LocationFieldNum, exact.getLocation()));
 		} else if(criteria instanceof SearchCriteriaAll) {
-			return search((SearchCriteriaAll)criteria);
+			return Query.all();
 		}
 		throw new ServiceException("Unknown search type " + criteria);
 	}
@@ -135,23 +368,28 @@ public class BookingServiceImpl implements BookingService {
 		return matches.toArray(new Room[matches.size()]);
 	}
 	
+	/**
+	 * With {@link VersionedDB}, the room is booked optimistically without
+	 * its lock, so of many bookings of the same room only one waits for
+	 * the write and the others fail as soon as they see it booked.
+	 */
 	@Override
 	public void book(Booking booking) throws ServiceException {
+		long start = System.nanoTime();
+		try {
+			doBook(booking);
+		} finally {
+			bookLatency.recordSince(start);
+		}
+	}
+
+	private void doBook(Booking booking) throws ServiceException {
+		if(versionedData != null && bookOptimistic(booking))
+			return;
 		long cookie = -1;
 		try {
 			cookie = data.lock(booking.getRecNo());
-			
-			String[] rawData = data.read(booking.getRecNo());
-			// make copy since we must not modify the retrieved data directly
-			String[] roomData = Arrays.copyOf(rawData, rawData.length);
-			Room room = Room.fromRecord(booking.getRecNo(), roomData);
-			
-			if(room.getCustomer() != null && room.getCustomer().length() > 0) {
-				throw new ServiceException("Room already booked");
-			}
-			roomData[Room.FieldNums.CUSTOMER] = booking.getCustomer();
-			data.update(booking.getRecNo(), roomData, cookie);
-			
+			bookLocked(booking, cookie);
 		} catch (RecordNotFoundException e) {
 			throw new ServiceException("Room not found", e);
 		} catch(SecurityException | DataPersistenceException e) {
@@ -159,14 +397,161 @@ public class BookingServiceImpl implements BookingService {
 			throw new ServiceException("System error.", e);
 		} finally {
 			if(cookie != -1) {
+				unlock(booking.getRecNo(), cookie);
+			}
+		}
+		
+	}
+
+	/**
+	 * All rooms are locked first, in recNo order, so concurrent batches
+	 * with overlapping rooms cannot deadlock on each other. Then each is 
+	 * booked as a single {@link book} would.
+	 */
+	@Override
+	public BookingResult[] book(Booking[] bookings) throws ServiceException {
+		BookingResult[] results = new BookingResult[bookings.length];
+		int[] recNos = new int[bookings.length];
+		for(int i = 0; i < bookings.length; ++i)
+			recNos[i] = bookings[i].getRecNo();
+		Arrays.sort(recNos);
+		// cookie of each recNo, -1 where lock failed
+		long[] cookies = new long[recNos.length];
+		Arrays.fill(cookies, -1);
+		try {
+			for(int i = 0; i < recNos.length; ++i) {
+				if(i > 0 && recNos[i] == recNos[i - 1]) {
+					cookies[i] = cookies[i - 1];
+					continue;
+				}
 				try {
-					data.unlock(booking.getRecNo(), cookie);
-				} catch (SecurityException | RecordNotFoundException e) {
-					log.log(Level.SEVERE, "Error when unlocking for " + booking, e);
-					throw new ServiceException("System error.", e);
-				}				
+					cookies[i] = data.lock(recNos[i]);
+				} catch (RecordNotFoundException e) {
+					// reported per booking below
+				}
 			}
+		} catch(SecurityException | DataPersistenceException e) {
+			// nothing booked yet
+			log.log(Level.SEVERE, "Error when locking batch of " + bookings.length, e);
+			unlockAll(recNos, cookies);
+			throw new ServiceException("System error.", e);
 		}
+		try {
+			for(int i = 0; i < bookings.length; ++i) {
+				Booking booking = bookings[i];
+				long cookie = cookies[Arrays.binarySearch(recNos, booking.getRecNo())];
+				try {
+					if(cookie == -1)
+						throw new RecordNotFoundException();
+					bookLocked(booking, cookie);
+					results[i] = new BookingResult(booking.getRecNo(), true, null);
+				} catch (RecordNotFoundException e) {
+					results[i] = new BookingResult(booking.getRecNo(), false, "Room not found");
+				} catch (ServiceException e) {
+					results[i] = new BookingResult(booking.getRecNo(), false, e.getMessage());
+				} catch(SecurityException | DataPersistenceException e) {
+					// the ones before are committed, so reported with them
+					log.log(Level.SEVERE, "Error when processing " + booking, e);
+					results[i] = new BookingResult(booking.getRecNo(), false, "System error.");
+				}
+			}
+		} finally {
+			unlockAll(recNos, cookies);
+		}
+		return results;
+	}
+
+	/**
+	 * Unlocks all even if one fails. A failure is logged, not thrown, so 
+	 * the results of the bookings made are not lost.
+	 * 
+	 * @param cookies of each recNo, -1 where not locked
+	 */
+	private void unlockAll(int[] recNos, long[] cookies) {
+		for(int i = 0; i < recNos.length; ++i) {
+			if(cookies[i] == -1 || (i > 0 && recNos[i] == recNos[i - 1]))
+				continue;
+			try {
+				unlock(recNos[i], cookies[i]);
+			} catch (ServiceException e) {
+				// logged by unlock
+			}
+		}
+	}
+
+	/**
+	 * Read, check and update if unchanged. On losing to another change,
+	 * waits a random short time, growing with each attempt so racing 
+	 * bookings spread out, and reads again, up to 
+	 * {@link #MAX_BOOK_ATTEMPTS}. If it failed with the version unchanged, 
+	 * the room is locked, so retrying would only spin.
+	 * 
+	 * @return false if still not done, e.g. as the room is locked, for the
+	 * caller to wait for the lock.
+	 */
+	private boolean bookOptimistic(Booking booking) throws ServiceException {
+		try {
+			for(int attempt = 0; attempt < MAX_BOOK_ATTEMPTS; ++attempt) {
+				if(attempt > 0)
+					LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(BOOK_BACKOFF_NANOS << (attempt - 1)) + 1);
+				long version = versionedData.getRecordVersion(booking.getRecNo());
+				String[] roomData = toBooked(booking, data.read(booking.getRecNo()));
+				if(versionedData.updateIfVersion(booking.getRecNo(), version, roomData))
+					return true;
+				if(versionedData.getRecordVersion(booking.getRecNo()) == version)
+					return false;
+			}
+			return false;
+		} catch (RecordNotFoundException e) {
+			throw new ServiceException("Room not found", e);
+		} catch(DataPersistenceException e) {
+			log.log(Level.SEVERE, "Error when processing " + booking, e);
+			throw new ServiceException("System error.", e);
+		}
+	}
+
+	/**
+	 * Must hold the lock of the booking's room.
+	 */
+	private void bookLocked(Booking booking, long cookie) throws RecordNotFoundException, ServiceException {
+		data.update(booking.getRecNo(), toBooked(booking, data.read(booking.getRecNo())), cookie);
+	}
+
+	/**
+	 * @return copy of the room data with the booking's customer
+	 * @throws ServiceException if already booked
+	 */
+	private static String[] toBooked(Booking booking, String[] rawData) throws ServiceException {
+		// make copy since we must not modify the retrieved data directly
+		String[] roomData = Arrays.copyOf(rawData, rawData.length);
+		Room room = Room.fromRecord(booking.getRecNo(), roomData);
 		
+		if(room.getCustomer() != null && room.getCustomer().length() > 0) {
+			throw new ServiceException("Room already booked");
+		}
+		roomData[Room.FieldNums.CUSTOMER] = booking.getCustomer();
+		return roomData;
+	}
+
+	private void unlock(int recNo, long cookie) throws ServiceException {
+		try {
+			data.unlock(recNo, cookie);
+		} catch (SecurityException | RecordNotFoundException e) {
+			log.log(Level.SEVERE, "Error when unlocking " + recNo, e);
+			throw new ServiceException("System error.", e);
+		}
+	}
+
+	@Override
+	public Room[] getRooms(int[] recNos) {
+		Room[] rooms = new Room[recNos.length];
+		for(int i = 0; i < recNos.length; ++i) {
+			try {
+				rooms[i] = Room.fromRecord(recNos[i], data.read(recNos[i]));
+			} catch (RecordNotFoundException e) {
+				// null for not found
+			}
+		}
+		return rooms;
 	}
 }
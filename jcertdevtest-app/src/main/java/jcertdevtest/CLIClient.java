@@ -18,6 +18,7 @@ import java.io.OutputStreamWriter;
  */
 public class CLIClient {
 	
+	private static final int CHUNK_SIZE = 100;
 	private final BookingService service;
 	private BufferedWriter writer;
 
@@ -91,21 +92,24 @@ public class CLIClient {
 			throw new IllegalArgumentException("Invalid command");
 		}
 		
-		Room[] rooms = service.search(criteria);
 		String header = String.format("|%-5s|%-50s|%-30s|%-10s|\n",
 							"RecNo", "Name", "Location", "Customer");
 		writer.write(header);
-		for(Room room : rooms) {
-			String display = 
-					String.format("|%5d|%-50s|%-30s|%-10s|\n",
-							room.getRecNo(),
-							room.getName(),
-							room.getLocation(),
-							room.getCustomer());
-			writer.write(display);
+		// shown a chunk at a time as received, not after the whole search
+		try(RoomCursor cursor = service.openSearch(criteria, CHUNK_SIZE)) {
+			while(cursor.hasNext()) {
+				for(Room room : cursor.next()) {
+					String display = 
+							String.format("|%5d|%-50s|%-30s|%-10s|\n",
+									room.getRecNo(),
+									room.getName(),
+									room.getLocation(),
+									room.getCustomer());
+					writer.write(display);
+				}
+				writer.flush();
+			}
 		}
-
-		writer.flush();
 	}
 	
 	private void setNameOrLocation(SearchCriteriaExact criteria, String term) {
@@ -2,7 +2,7 @@ package jcertdevtest;
 
 import java.io.Serializable;
 
-public class Room implements Serializable {
+public class Room implements Serializable, Cloneable {
 	private static final long serialVersionUID = 1L;
 	
 	public static final int NumFields = 7;
@@ -31,6 +31,14 @@ public class Room implements Serializable {
 		room.customer = data[FieldNums.CUSTOMER];
 		return room;
 	}
+	@Override
+	public Room clone() {
+		try {
+			return (Room)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 	public String[] toRecord() {
 		String[] data = new String[NumFields];
 		data[FieldNums.NAME] = name;
@@ -0,0 +1,28 @@
+package jcertdevtest;
+
+/**
+ * Result of {@link BookingService#openSearch}, read a chunk at a time so
+ * the caller can show the first rooms before the search has finished, and
+ * the whole result is never held at once. Not thread safe.
+ * 
+ */
+public interface RoomCursor extends AutoCloseable {
+
+	/**
+	 * False once the last chunk has been returned.
+	 */
+	public boolean hasNext();
+
+	/**
+	 * @return the next rooms, at most the chunk size of the search. The 
+	 * last chunk can be empty.
+	 * @throws java.util.NoSuchElementException if there are no more chunks
+	 */
+	public Room[] next() throws ServiceException;
+
+	/**
+	 * Releases the search if not read to the end.
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,99 @@
+package jcertdevtest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of recent searches by {@link BookingServiceImpl}, keyed by their
+ * {@link SearchCriteria}, each with the {@link jcertdevtest.db.QueryableDB#getVersion}
+ * of the data it was searched in. A result is only returned while the data
+ * is still at that version, so a change to any record is seen by the next
+ * search.
+ *
+ * Bounded by the total number of rooms held, each result counting one more
+ * than its rooms so empty results are bounded too. Least recently used 
+ * results are evicted first. A result larger than that is not cached.
+ *
+ * Rooms are mutable, so results are copied in and out. Each caller gets
+ * its own array and rooms, and no caller can change what another gets.
+ *
+ */
+final class SearchCache {
+	private final int maxRooms;
+	/** In access order. Guarded by this, with size */
+	private final LinkedHashMap<SearchCriteria, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private int size;
+
+	private static final class Entry {
+		final long version;
+		final Room[] rooms;
+
+		Entry(long version, Room[] rooms) {
+			this.version = version;
+			this.rooms = rooms;
+		}
+	}
+
+	/**
+	 * @param maxRooms total rooms of all cached results
+	 */
+	public SearchCache(int maxRooms) {
+		this.maxRooms = maxRooms;
+	}
+
+	/**
+	 * @return null if not cached or cached for another version
+	 */
+	public synchronized Room[] get(SearchCriteria criteria, long version) {
+		Entry entry = entries.get(criteria);
+		if(entry == null)
+			return null;
+		if(entry.version != version) {
+			remove(criteria);
+			return null;
+		}
+		return copy(entry.rooms);
+	}
+
+	/**
+	 * @param version of the data read before searching
+	 */
+	public synchronized void put(SearchCriteria criteria, long version, Room[] result) {
+		if(result.length >= maxRooms)
+			return;
+		Entry existing = entries.get(criteria);
+		// a slower search may finish after a newer one
+		if(existing != null && existing.version > version)
+			return;
+		remove(criteria);
+		// keyed by a copy, the caller may change its criteria afterwards
+		entries.put(criteria.clone(), new Entry(version, copy(result)));
+		size += result.length + 1;
+		Iterator<Map.Entry<SearchCriteria, Entry>> eldest = entries.entrySet().iterator();
+		while(size > maxRooms) {
+			size -= eldest.next().getValue().rooms.length + 1;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Number of results cached.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static Room[] copy(Room[] rooms) {
+		Room[] copy = new Room[rooms.length];
+		for(int i = 0; i < rooms.length; ++i)
+			copy[i] = rooms[i] == null ? null : rooms[i].clone();
+		return copy;
+	}
+
+	private void remove(SearchCriteria criteria) {
+		Entry entry = entries.remove(criteria);
+		if(entry != null)
+			size -= entry.rooms.length + 1;
+	}
+}
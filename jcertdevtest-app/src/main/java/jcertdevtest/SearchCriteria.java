@@ -1,13 +1,73 @@
 package jcertdevtest;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Represents a search request to {@link BookingServiceImpl}.
  * Different search types are as defined in implementing classes.
  * 
+ * All types can also ask for a page of the matches: in {@link SortKey} 
+ * order, skipping offset and at most limit of them. By default all matches
+ * in recNo order.
+ * 
+ * Equal criteria are the same search, so they can key cached results.
+ * 
  * @author Ken Goh
  *
  */
-public interface SearchCriteria extends Serializable {
-}
\ No newline at end of file
+public abstract class SearchCriteria implements Serializable, Cloneable {
+	private static final long serialVersionUID = 1L;
+	private int offset;
+	private int limit;
+	private SortKey sort;
+	public int getOffset() {
+		return offset;
+	}
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+	/**
+	 * @return 0 for no limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+	/**
+	 * @return null for recNo order
+	 */
+	public SortKey getSort() {
+		return sort;
+	}
+	public void setSort(SortKey sort) {
+		this.sort = sort;
+	}
+	/**
+	 * True if only a page of the matches or another order is asked for.
+	 */
+	public boolean isPaged() {
+		return offset > 0 || limit > 0 || sort != null;
+	}
+	@Override
+	public SearchCriteria clone() {
+		try {
+			return (SearchCriteria)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == null || obj.getClass() != getClass())
+			return false;
+		SearchCriteria other = (SearchCriteria)obj;
+		return offset == other.offset && limit == other.limit && sort == other.sort;
+	}
+	@Override
+	public int hashCode() {
+		return Objects.hash(getClass(), offset, limit, sort);
+	}
+}
@@ -15,6 +15,6 @@ package jcertdevtest;
  * @author Ken Goh
  *
  */
-public class SearchCriteriaAll implements SearchCriteria {
+public class SearchCriteriaAll extends SearchCriteria {
 	private static final long serialVersionUID = 1L;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package jcertdevtest;
 
+import java.util.Objects;
+
 /**
  * Handles the requirement for search where "the name and/or location fields 
  * exactly match values specified"
@@ -7,7 +9,7 @@ package jcertdevtest;
  * @author Ken Goh
  *
  */
-public abstract class SearchCriteriaExact implements SearchCriteria {
+public abstract class SearchCriteriaExact extends SearchCriteria {
 	private static final long serialVersionUID = 1L;
 	private String name;
 	private String location;
@@ -23,4 +25,15 @@ public abstract class SearchCriteriaExact implements SearchCriteria {
 	public void setLocation(String location) {
 		this.location = location;
 	}
+	@Override
+	public boolean equals(Object obj) {
+		if(!super.equals(obj))
+			return false;
+		SearchCriteriaExact other = (SearchCriteriaExact)obj;
+		return Objects.equals(name, other.name) && Objects.equals(location, other.location);
+	}
+	@Override
+	public int hashCode() {
+		return Objects.hash(super.hashCode(), name, location);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package jcertdevtest;
+
+import java.util.Comparator;
+
+/**
+ * Orders of search results, see {@link SearchCriteria#setSort}. Compares
+ * record data as stored, so the database can order matches without making
+ * {@link Room}s of them. Values that cannot be parsed go last.
+ *
+ */
+public enum SortKey {
+	/** Cheapest first, e.g. "$150.00" */
+	PRICE(Room.FieldNums.PRICE) {
+		@Override
+		int compareValues(String a, String b) {
+			return Double.compare(parsePrice(a), parsePrice(b));
+		}
+	},
+	/** Earliest first, "yyyy/MM/dd" so in string order */
+	DATE(Room.FieldNums.DATE) {
+		@Override
+		int compareValues(String a, String b) {
+			return a.trim().compareTo(b.trim());
+		}
+	},
+	/** Fewest first */
+	OCCUPANCY(Room.FieldNums.OCCUPANCY) {
+		@Override
+		int compareValues(String a, String b) {
+			return Double.compare(parseNumber(a), parseNumber(b));
+		}
+	};
+
+	private final int fieldNum;
+	private final Comparator<String[]> comparator = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] a, String[] b) {
+			String valueA = a[fieldNum];
+			String valueB = b[fieldNum];
+			if(valueA == null || valueB == null)
+				return valueA == null ? (valueB == null ? 0 : 1) : -1;
+			return compareValues(valueA, valueB);
+		}
+	};
+
+	private SortKey(int fieldNum) {
+		this.fieldNum = fieldNum;
+	}
+
+	/**
+	 * Record data in this order.
+	 */
+	public Comparator<String[]> comparator() {
+		return comparator;
+	}
+
+	abstract int compareValues(String a, String b);
+
+	private static double parsePrice(String value) {
+		value = value.trim();
+		int start = 0;
+		while(start < value.length() && !Character.isDigit(value.charAt(start)) && value.charAt(start) != '.')
+			++start;
+		return parseNumber(value.substring(start).replace(",", ""));
+	}
+
+	/**
+	 * @return NaN if not a number, which {@link Double#compare} puts last
+	 */
+	private static double parseNumber(String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
@@ -3,10 +3,13 @@ package jcertdevtest;
 import java.io.IOException;
 
 import jcertdevtest.db.Data;
-import jcertdevtest.db.DataFile;
-import jcertdevtest.db.DataPersistenceFileAdapter;
+import jcertdevtest.db.DataFactory;
+import jcertdevtest.net.NetworkClient;
 import jcertdevtest.net.NetworkServer;
+import jcertdevtest.net.RemoteAsyncBookingServiceClient;
 import jcertdevtest.net.RemoteBookingServiceClient;
+import jcertdevtest.net.ThreadMode;
+import jcertdevtest.net.WireProtocol;
 
 /**
  * Application entry point.
@@ -19,6 +22,9 @@ import jcertdevtest.net.RemoteBookingServiceClient;
  * E.g. a CLI client is used instead of a Swing GUI client; we get config
  * parameters from command line properties etc.
  * 
+ * Persistence implementation can be selected by properties, see 
+ * {@link DataFactory}.
+ * 
  * @author Ken Goh
  *
  */
@@ -29,30 +35,42 @@ public class TestAppMain
     	String mode = args[0];
     	switch(mode) {
     	case "server": {
+    		Data data = DataFactory.open(System.getProperty("filePath"), System.getProperties());
         	NetworkServer server = new NetworkServer(
-					System.getProperty("filePath"),
-					Integer.parseInt(System.getProperty("port")));
+					new BookingServiceImpl(
+						data,
+						Integer.getInteger("searchCache", BookingServiceImpl.DEFAULT_SEARCH_CACHE_ROOMS)),
+					Integer.parseInt(System.getProperty("port")),
+					Integer.getInteger("ioThreads", Runtime.getRuntime().availableProcessors()),
+					Integer.getInteger("workerThreads", 4 * Runtime.getRuntime().availableProcessors()),
+					Integer.getInteger("requestQueue", NetworkServer.DEFAULT_QUEUE_CAPACITY),
+					ThreadMode.valueOf(System.getProperty("threads", "PLATFORM")));
 			server.start();
 			System.in.read();
-			server.stop();    		
+			server.stop();
+			data.close();
     	}
 			break;
     	case "client": {
-    		CLIClient client = new CLIClient(
-					new RemoteBookingServiceClient(
-							System.getProperty("host"),
-							Integer.parseInt(System.getProperty("port"))));
+    		RemoteAsyncBookingServiceClient async = new RemoteAsyncBookingServiceClient(
+					System.getProperty("host"),
+					Integer.parseInt(System.getProperty("port")),
+					WireProtocol.valueOf(System.getProperty("protocol", "BINARY")),
+					Integer.getInteger("connections", 1));
+    		async.setTimeouts(Long.getLong("readTimeoutMillis", NetworkClient.DEFAULT_READ_TIMEOUT_MILLIS),
+    				Long.getLong("writeTimeoutMillis", 0));
+    		CLIClient client = new CLIClient(new RemoteBookingServiceClient(async));
     		client.start();
     	}
     		break;
     	case "standalone": {
+    		Data data = DataFactory.open(System.getProperty("filePath"), System.getProperties());
     		CLIClient client = new CLIClient(
 					new BookingServiceImpl(
-						new Data(
-							new DataPersistenceFileAdapter(
-								new DataFile(
-									System.getProperty("filePath"))))));
+						data,
+						Integer.getInteger("searchCache", BookingServiceImpl.DEFAULT_SEARCH_CACHE_ROOMS)));
     		client.start();
+    		data.close();
     	}
     		break;
     	}
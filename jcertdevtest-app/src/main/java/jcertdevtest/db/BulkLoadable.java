@@ -0,0 +1,14 @@
+package jcertdevtest.db;
+
+/**
+ * Optional for a {@link DataPersistence}, loading records into a
+ * {@link RecordSink} instead of returning them as a map.
+ *
+ */
+interface BulkLoadable {
+
+	/**
+	 * Used instead of {@link DataPersistence#load()}, same requirements.
+	 */
+	void load(RecordSink sink);
+}
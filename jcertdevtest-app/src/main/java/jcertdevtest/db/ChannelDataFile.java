@@ -0,0 +1,207 @@
+package jcertdevtest.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jcertdevtest.metrics.Events;
+
+/**
+ * Alternative to {@link DataFile} allowing concurrent writes of different
+ * records, same file format.
+ *
+ * {@link DataFile} is synchronized on the whole file because of the shared
+ * file pointer of {@link RandomAccessFile}. Here every record is written
+ * with one positional {@link FileChannel#write(ByteBuffer, long)} at its
+ * fixed offset, which does not touch the file pointer, so only writes to
+ * the same record need to be serialized. That is done with a fixed number
+ * of lock stripes keyed by recNo, rather than a lock object per record.
+ *
+ * Appends get their recNo (slot) from an atomic counter and then write in
+ * parallel like updates. A crash in the middle of concurrent appends can
+ * leave a slot that was never written. It reads back as all zero bytes,
+ * which no writer produces (fields are space padded), so {@link load}
+ * treats such a slot as a deleted record.
+ *
+ * Each positional read and write, and force, is a {@link Events#fileIo}
+ * event.
+ *
+ */
+public class ChannelDataFile implements DataPersistence, BulkLoadable {
+
+	private final String path;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final DataFileSchema schema;
+	private final ReentrantLock[] stripes;
+	private final int stripeMask;
+	private final AtomicInteger newRecNo = new AtomicInteger(1);
+	private final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(schema.RecordLength);
+		}
+	};
+
+	public ChannelDataFile(String filePath) throws IOException {
+		this(filePath, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numStripes rounded up to a power of 2
+	 */
+	public ChannelDataFile(String filePath, int numStripes) throws IOException {
+		path = filePath;
+		raf = new RandomAccessFile(new File(filePath), "rw");
+		schema = new DataFileSchema(raf);
+		channel = raf.getChannel();
+		int size = Integer.highestOneBit(Math.max(numStripes, 1) * 2 - 1);
+		stripes = new ReentrantLock[size];
+		for(int i = 0; i < size; ++i)
+			stripes[i] = new ReentrantLock();
+		stripeMask = size - 1;
+	}
+
+	public Map<Integer, Record> load() {
+		try {
+			long length = channel.size();
+			long dataLength = length - schema.DataStartPos;
+			if(dataLength % schema.RecordLength != 0)
+				throw new IOException("Unexpected file format, partial record at end of file");
+			int numRecords = (int)(dataLength / schema.RecordLength);
+			HashMap<Integer, Record> records = new HashMap<>(numRecords * 4 / 3 + 1);
+
+			// read many records at a time instead of per record
+			int recordsPerRead = Math.max(1, (1 << 20) / schema.RecordLength);
+			ByteBuffer buffer = ByteBuffer.allocate(recordsPerRead * schema.RecordLength);
+			int recNo = 1;
+			long pos = schema.DataStartPos;
+			while(recNo <= numRecords) {
+				buffer.clear();
+				buffer.limit(Math.min(numRecords - recNo + 1, recordsPerRead) * schema.RecordLength);
+				readFully(buffer, pos);
+				pos += buffer.limit();
+				for(int offset = 0; offset < buffer.limit(); offset += schema.RecordLength) {
+					boolean deleted = buffer.array()[offset] != 0 || isBlank(buffer.array(), offset);
+					records.put(recNo++, new Record(RecordCodec.decode(schema, buffer.array(), offset), deleted));
+				}
+			}
+			newRecNo.set(recNo);
+			return records;
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	public void load(RecordSink sink) {
+		try {
+			newRecNo.set(ParallelRecordLoader.load(channel, schema, sink) + 1);
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	private boolean isBlank(byte[] bytes, int offset) {
+		for(int i = offset; i < offset + schema.RecordLength; ++i) {
+			if(bytes[i] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	public int create(String[] data) {
+		RecordCodec.validate(schema, data);
+		int recNo = newRecNo.getAndIncrement();
+		write(recNo, data);
+		return recNo;
+	}
+
+	/**
+	 * Update data for the given recNo. If record for that recNo has deleted
+	 * flag set, it will be reset to not deleted.
+	 */
+	public void update(int recNo, String[] data) {
+		RecordCodec.validate(schema, data);
+		write(recNo, data);
+	}
+
+	public void delete(int recNo) {
+		ByteBuffer buffer = writeBuffer.get();
+		buffer.clear();
+		buffer.put(0, (byte)1);
+		buffer.limit(1);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			writeFully(buffer, getFilePos(recNo));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void sync() {
+		try {
+			Object event = Events.beginFileIo();
+			channel.force(false);
+			Events.fileIo(event, path, "sync", 0);
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	private void write(int recNo, String[] data) {
+		ByteBuffer buffer = writeBuffer.get();
+		buffer.clear();
+		RecordCodec.encode(schema, data, buffer, 0);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			writeFully(buffer, getFilePos(recNo));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long pos) {
+		try {
+			Object event = Events.beginFileIo();
+			int bytes = buffer.remaining();
+			while(buffer.hasRemaining()) {
+				pos += channel.write(buffer, pos);
+			}
+			Events.fileIo(event, path, "write", bytes);
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long pos) throws IOException {
+		Object event = Events.beginFileIo();
+		int bytes = buffer.remaining();
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, pos);
+			if(read == -1)
+				throw new IOException("Unexpected end of file at " + pos);
+			pos += read;
+		}
+		Events.fileIo(event, path, "read", bytes);
+	}
+
+	private long getFilePos(int recNo) {
+		return schema.DataStartPos + (long)schema.RecordLength * (recNo - 1);
+	}
+}
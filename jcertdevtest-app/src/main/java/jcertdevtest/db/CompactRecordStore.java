@@ -0,0 +1,219 @@
+package jcertdevtest.db;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link RecordStore} keeping records off heap in their file layout, as
+ * given by {@link DataFileSchema}, instead of a String per field.
+ *
+ * Records are in direct buffers of a fixed number of records each, indexed
+ * by recNo, added as needed. Data is decoded only when read, matching for
+ * {@link matches} is done on the bytes. So the heap holds no data per
+ * record, only what the caller keeps, e.g. the field indexes of
+ * {@link Data} (index only the fields needed to keep it small).
+ *
+ * The flag byte of a record is used as empty (0), not deleted or deleted.
+ * Reads and writes of a record hold one of a fixed number of lock stripes
+ * keyed by recNo, like {@link ChannelDataFile}, so a read never sees a
+ * half written record.
+ *
+ */
+final class CompactRecordStore implements RecordStore {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final byte FLAG_EMPTY = 0;
+	private static final byte FLAG_VALID = 1;
+	private static final byte FLAG_DELETED = 2;
+
+	private final DataFileSchema schema;
+	private final ReentrantLock[] stripes;
+	private final int stripeMask;
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+	private final AtomicInteger maxRecNo = new AtomicInteger();
+	private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[schema.RecordLength];
+		}
+	};
+
+	public CompactRecordStore(DataFileSchema schema) {
+		this.schema = schema;
+		int size = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() * 2 - 1);
+		stripes = new ReentrantLock[size];
+		for(int i = 0; i < size; ++i)
+			stripes[i] = new ReentrantLock();
+		stripeMask = size - 1;
+	}
+
+	/**
+	 * Locks only to grow, see {@link HeapRecordStore#ensureCapacity}.
+	 */
+	public void ensureCapacity(int recNo) {
+		int numChunks = ((recNo - 1) >>> CHUNK_BITS) + 1;
+		if(numChunks > chunks.length)
+			grow(numChunks);
+	}
+
+	private synchronized void grow(int numChunks) {
+		if(numChunks <= chunks.length)
+			return;
+		ByteBuffer[] grown = new ByteBuffer[numChunks];
+		System.arraycopy(chunks, 0, grown, 0, chunks.length);
+		for(int i = chunks.length; i < numChunks; ++i)
+			grown[i] = ByteBuffer.allocateDirect(CHUNK_SIZE * schema.RecordLength);
+		chunks = grown;
+	}
+
+	private ByteBuffer getChunk(int recNo) {
+		ByteBuffer[] chunks = this.chunks;
+		int chunk = (recNo - 1) >>> CHUNK_BITS;
+		if(recNo < 1 || chunk >= chunks.length)
+			return null;
+		return chunks[chunk];
+	}
+
+	private static int getPos(int recNo, DataFileSchema schema) {
+		return ((recNo - 1) & (CHUNK_SIZE - 1)) * schema.RecordLength;
+	}
+
+	public void put(int recNo, Record record) {
+		RecordCodec.validate(schema, record.getData());
+		ensureCapacity(recNo);
+		write(recNo, record.getData(), record.isDeleted() ? FLAG_DELETED : FLAG_VALID);
+		updateMaxRecNo(recNo);
+	}
+
+	private void updateMaxRecNo(int recNo) {
+		int max;
+		while((max = maxRecNo.get()) < recNo) {
+			if(maxRecNo.compareAndSet(max, recNo))
+				break;
+		}
+	}
+
+	public int getMaxRecNo() {
+		return maxRecNo.get();
+	}
+
+	public void setData(int recNo, String[] data) {
+		RecordCodec.validate(schema, data);
+		write(recNo, data, (byte)-1);
+	}
+
+	/**
+	 * @param flag -1 to keep the current flag
+	 */
+	private void write(int recNo, String[] data, byte flag) {
+		ByteBuffer chunk = getChunk(recNo);
+		int pos = getPos(recNo, schema);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			if(flag == -1)
+				flag = chunk.get(pos);
+			RecordCodec.encode(schema, data, chunk, pos);
+			chunk.put(pos, flag);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the record into the thread's read buffer.
+	 * @return false if no record
+	 */
+	private boolean read(int recNo, byte[] bytes) {
+		ByteBuffer chunk = getChunk(recNo);
+		if(chunk == null)
+			return false;
+		int pos = getPos(recNo, schema);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			for(int i = 0; i < bytes.length; ++i)
+				bytes[i] = chunk.get(pos + i);
+		} finally {
+			lock.unlock();
+		}
+		return bytes[0] != FLAG_EMPTY;
+	}
+
+	public String[] getData(int recNo) {
+		byte[] bytes = readBuffer.get();
+		if(!read(recNo, bytes))
+			return null;
+		return RecordCodec.decode(schema, bytes, 0);
+	}
+
+	private byte getFlag(int recNo) {
+		ByteBuffer chunk = getChunk(recNo);
+		if(chunk == null)
+			return FLAG_EMPTY;
+		int pos = getPos(recNo, schema);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			return chunk.get(pos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean contains(int recNo) {
+		return getFlag(recNo) != FLAG_EMPTY;
+	}
+
+	public boolean isDeleted(int recNo) {
+		return getFlag(recNo) != FLAG_VALID;
+	}
+
+	public void setDeleted(int recNo, boolean deleted) {
+		ByteBuffer chunk = getChunk(recNo);
+		int pos = getPos(recNo, schema);
+		ReentrantLock lock = stripes[recNo & stripeMask];
+		lock.lock();
+		try {
+			chunk.put(pos, deleted ? FLAG_DELETED : FLAG_VALID);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean matches(int recNo, String[] criteria) {
+		byte[] bytes = readBuffer.get();
+		if(!read(recNo, bytes) || bytes[0] != FLAG_VALID)
+			return false;
+		int fieldPos = 1;
+		for(int fieldNum = 0; fieldNum < criteria.length && fieldNum < schema.NumFields; ++fieldNum) {
+			if(criteria[fieldNum] != null
+					&& !startsWith(bytes, fieldPos, schema.FieldLengths[fieldNum], criteria[fieldNum])) {
+				return false;
+			}
+			fieldPos += schema.FieldLengths[fieldNum];
+		}
+		return true;
+	}
+
+	/**
+	 * Same as startsWith on the field decoded by
+	 * {@link RecordCodec#decodeField}.
+	 */
+	private static boolean startsWith(byte[] bytes, int offset, int length, String prefix) {
+		int start = offset;
+		int end = offset + length;
+		while(start < end && (bytes[start] & 0xff) <= RecordCodec.SPACE)
+			++start;
+		while(end > start && (bytes[end - 1] & 0xff) <= RecordCodec.SPACE)
+			--end;
+		if(prefix.length() > end - start)
+			return false;
+		for(int i = 0; i < prefix.length(); ++i) {
+			if(prefix.charAt(i) != (char)(bytes[start + i] & 0xff))
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,42 +1,132 @@
 package jcertdevtest.db;
 
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.metrics.Events;
+import jcertdevtest.metrics.LatencyRecorder;
+import jcertdevtest.metrics.Metrics;
 
 /**
- * Implementation of the mandatory interface {@link DB}.
+ * Implementation of the mandatory interface {@link DB}, and the richer
+ * {@link QueryableDB} and {@link VersionedDB}.
  * Methods can throw runtime {@link DataPersistenceException}.
  * 
  * @author Ken Goh
  *
  */
-public class Data implements DB {
+public class Data implements DB, QueryableDB, VersionedDB {
+	/** Time waiting for a record lock, whether it is got or not */
+	private static final LatencyRecorder lockWait = Metrics.latency("Data.lockWait");
+	/** Time writing a change to the {@link DataPersistence} */
+	private static final LatencyRecorder persistWrite = Metrics.latency("Data.persist");
 
-	private final Set<RecordInfo.Number> deleted = Collections.newSetFromMap(new ConcurrentHashMap<RecordInfo.Number, Boolean>());
-	private final ConcurrentHashMap<RecordInfo.Number, RecordInfo> cache;
+	private final Set<Integer> deleted = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 	private final DataPersistence persistence;
+	/** Record table, indexed by recNo */
+	private final RecordStore store;
+	private final LockManager locks = new LockManager();
+	/** Indexed by field number, null for fields without index */
+	private final FieldIndex[] indexes;
+	private final RecordVersions recordVersions = new RecordVersions();
+	/** Commits every change of record data, see {@link commit} */
+	private final SnapshotHistory history = new SnapshotHistory(recordVersions);
+	/** Snapshot sequence of the latest data, not of a snapshot */
+	private static final long CURRENT = Long.MAX_VALUE;
 	
 	public Data(String filePath) throws IOException {
 		this(new DataPersistenceFileAdapter(new DataFile(filePath)));
 	}
 	
+	/**
+	 * Index all fields of the loaded records.
+	 */
 	public Data(DataPersistence persistence) throws IOException  {
+		this(persistence, null);
+	}
+
+	/**
+	 * @param indexedFields field numbers to maintain a {@link FieldIndex} for,
+	 * so {@link find} with criteria on those fields does not need to scan all
+	 * records. Null to index all fields of the loaded records.
+	 */
+	public Data(DataPersistence persistence, int[] indexedFields) throws IOException  {
+		this(persistence, indexedFields, new HeapRecordStore());
+	}
+
+	/**
+	 * @param store where to keep the record data, e.g. 
+	 * {@link CompactRecordStore} for a smaller heap.
+	 */
+	Data(DataPersistence persistence, int[] indexedFields, RecordStore store) throws IOException  {
 		this.persistence = persistence;
+		this.store = store;
 
-		Map<Integer, Record> data = persistence.load();
-		this.cache = new ConcurrentHashMap<>(data.size());
-		for(Map.Entry<Integer, Record> entry : data.entrySet()) {
-			RecordInfo.Number recNo = RecordInfo.Number.fromValue(entry.getKey());
-			cache.put(recNo,
-						new RecordInfo(recNo, entry.getValue()));
-			if(entry.getValue().isDeleted()) {
-				deleted.add(recNo);
+		Loader loader = new Loader(indexedFields);
+		if(persistence instanceof BulkLoadable) {
+			// decoded in parallel straight into the store, without the map
+			((BulkLoadable)persistence).load(loader);
+		} else {
+			Map<Integer, Record> data = persistence.load();
+			int numFields = 0;
+			for(Record record : data.values())
+				numFields = Math.max(numFields, record.getData().length);
+			loader.start(data.size(), numFields);
+			for(Map.Entry<Integer, Record> entry : data.entrySet())
+				loader.add(entry.getKey(), entry.getValue());
+		}
+		this.indexes = loader.indexes;
+	}
+
+	/**
+	 * Builds the store and indexes as records are loaded. Thread safe for
+	 * {@link RecordSink#add} as all structures are concurrent.
+	 */
+	private final class Loader implements RecordSink {
+		private final int[] indexedFields;
+		private FieldIndex[] indexes;
+
+		public Loader(int[] indexedFields) {
+			this.indexedFields = indexedFields;
+		}
+
+		@Override
+		public void start(int numRecords, int numFields) {
+			store.ensureCapacity(numRecords);
+			int[] fields = indexedFields;
+			if(fields == null) {
+				fields = new int[numFields];
+				for(int fieldNum = 0; fieldNum < numFields; ++fieldNum)
+					fields[fieldNum] = fieldNum;
 			}
+			int maxField = -1;
+			for(int fieldNum : fields)
+				maxField = Math.max(maxField, fieldNum);
+			indexes = new FieldIndex[maxField + 1];
+			for(int fieldNum : fields)
+				indexes[fieldNum] = new FieldIndex();
+		}
+
+		@Override
+		public void add(int recNo, Record record) {
+			store.put(recNo, record);
+			if(record.isDeleted())
+				deleted.add(recNo);
+			else
+				addToIndexes(indexes, recNo, record.getData());
 		}
 	}
 
@@ -52,38 +142,109 @@ public class Data implements DB {
 	 * Details see {@link find}.
 	 */
 	public String[] read(int recNo) throws RecordNotFoundException {
-		RecordInfo record = cache.get(RecordInfo.Number.fromValue(recNo));
-		if(record == null || record.isDeleted())
+		// a record is never removed from the store, only marked deleted
+		if(store.isDeleted(recNo))
 			throw new RecordNotFoundException();
-		return record.getData();
+		return store.getData(recNo);
 	}
 
 	public void update(int recNo, String[] data, long lockCookie)
 			throws RecordNotFoundException, SecurityException {
-		RecordInfo record = cache.get(RecordInfo.Number.fromValue(recNo));
-		if(record == null || record.isDeleted())
+		if(store.isDeleted(recNo))
 			throw new RecordNotFoundException();
-		if(!record.getLock().checkCookie(lockCookie))
+		if(!locks.isLockedBy(recNo, lockCookie))
 			throw new SecurityException();
-		
+		write(recNo, data);
+	}
+
+	/**
+	 * The record lock is taken only if free, to keep out lock holders and
+	 * other updates while writing, so this never waits.
+	 */
+	public boolean updateIfVersion(int recNo, long expectedVersion, String[] data)
+			throws RecordNotFoundException {
+		if(store.isDeleted(recNo))
+			throw new RecordNotFoundException();
+		// fail fast on a stale version without touching the lock
+		if(recordVersions.get(recNo) != expectedVersion)
+			return false;
+		long cookie = locks.tryLock(recNo);
+		if(cookie == -1)
+			return false;
+		try {
+			if(store.isDeleted(recNo))
+				throw new RecordNotFoundException();
+			if(recordVersions.get(recNo) != expectedVersion)
+				return false;
+			write(recNo, data);
+			return true;
+		} finally {
+			locks.unlock(recNo, cookie);
+		}
+	}
+
+	public long getRecordVersion(int recNo) throws RecordNotFoundException {
+		if(store.isDeleted(recNo))
+			throw new RecordNotFoundException();
+		return recordVersions.get(recNo);
+	}
+
+	/**
+	 * Caller must hold the record lock.
+	 */
+	private void write(int recNo, String[] data) {
 		// store with a copy to avoid caller modifying the array afterwards
 		String[] copy = Arrays.copyOf(data, data.length);
+		long start = System.nanoTime();
 		persistence.update(recNo, copy);
-		record.setData(copy);
+		persistWrite.recordSince(start);
+		String[] old = store.getData(recNo);
+		addToIndexes(recNo, copy);
+		commit(recNo, copy, false);
+		removeFromIndexes(recNo, old, copy);
+	}
+
+	/**
+	 * Installs a change of the record as the next commit sequence. Caller
+	 * holds the record lock, or is creating the record.
+	 * 
+	 * For any open snapshot, the version being replaced is kept first. 
+	 * While the data is set, the record's version is the negated sequence,
+	 * so a reader seeing the version change around reading the data knows
+	 * it may be torn, see {@link readAt}. The record's version is the 
+	 * sequence after the data is set, so data read after a version is at
+	 * least as new. The sequence is published last.
+	 */
+	private void commit(int recNo, String[] data, boolean deleted) {
+		synchronized(history) {
+			long sequence = history.getSequence() + 1;
+			if(history.hasOpen())
+				history.keep(recNo, recordVersions.get(recNo), store.getData(recNo), store.isDeleted(recNo));
+			recordVersions.set(recNo, -sequence);
+			if(store.contains(recNo)) {
+				store.setData(recNo, data);
+				store.setDeleted(recNo, deleted);
+			} else {
+				store.put(recNo, new Record(data, deleted));
+			}
+			recordVersions.set(recNo, sequence);
+			history.committed(sequence);
+		}
 	}
 
 	public void delete(int recNo, long lockCookie)
 			throws RecordNotFoundException, SecurityException {
-		RecordInfo.Number recNum = RecordInfo.Number.fromValue(recNo);
-		RecordInfo record = cache.get(recNum);
-		if(record == null || record.isDeleted())
+		if(store.isDeleted(recNo))
 			throw new RecordNotFoundException();
-		if(!record.getLock().checkCookie(lockCookie))
+		if(!locks.isLockedBy(recNo, lockCookie))
 			throw new SecurityException();
 		
-		persistence.delete(recNum.getValue());
-		deleted.add(recNum);
-		record.setDeleted(true);
+		long start = System.nanoTime();
+		persistence.delete(recNo);
+		persistWrite.recordSince(start);
+		deleted.add(recNo);
+		commit(recNo, store.getData(recNo), true);
+		removeFromIndexes(recNo, store.getData(recNo), null);
 	}
 
 	/**
@@ -102,44 +263,369 @@ public class Data implements DB {
 	 * per record, so if caller really need to guarantee consistency, it has
 	 * to call {@link lock} on all records first, do this find, perform any
 	 * other action, then unlock all. This is too pessimistic for the general
-	 * use case.
+	 * use case. Instead, {@link openSnapshot} gives a consistent view for
+	 * reading without locks.
 	 */
 	public int[] find(String[] criteria) {
-		ArrayList<RecordInfo.Number> matches = new ArrayList<RecordInfo.Number>(); 
-		for(RecordInfo record : cache.values()) {
-			if(record.isDeleted())
-				continue;
-			boolean matched = true;
-			for(int fieldNum = 0; fieldNum < criteria.length; ++fieldNum) {
-				if(criteria[fieldNum] == null
-						|| record.getData()[fieldNum].startsWith(criteria[fieldNum])) {
-					continue;
+		int indexField = -1;
+		for(int fieldNum = 0; fieldNum < criteria.length && fieldNum < indexes.length; ++fieldNum) {
+			// longest prefix is most likely to be the most selective
+			if(criteria[fieldNum] != null && criteria[fieldNum].length() > 0
+					&& indexes[fieldNum] != null
+					&& (indexField == -1 || criteria[fieldNum].length() > criteria[indexField].length())) {
+				indexField = fieldNum;
+			}
+		}
+		
+		RecNoList matches = new RecNoList();
+		if(indexField != -1) {
+			for(FieldIndex.Entry entry : indexes[indexField].findPrefix(criteria[indexField])) {
+				if(store.matches(entry.getRecNo(), criteria))
+					matches.add(entry.getRecNo());
+			}
+			// a record being updated can have both its old and new entry
+			matches.sortDistinct();
+		} else {
+			int maxRecNo = store.getMaxRecNo();
+			for(int recNo = 1; recNo <= maxRecNo; ++recNo) {
+				if(store.matches(recNo, criteria)) {
+					matches.add(recNo);
 				}
-				matched = false;
-				break;
 			}
-			if(matched) {
-				matches.add(record.getRecNo());
+		}
+		return matches.toArray();
+	}
+	
+	public Map<Integer, String[]> query(Query query) {
+		return query(query, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * The last commit sequence.
+	 */
+	public long getVersion() {
+		return history.getSequence();
+	}
+
+	/**
+	 * Costs a short lock to open and close, reads are then as cheap as
+	 * without a snapshot, apart from records changed since it was opened.
+	 */
+	public Snapshot openSnapshot() {
+		final long sequence = history.open();
+		return new Snapshot() {
+			private boolean closed;
+
+			@Override
+			public long getSequence() {
+				return sequence;
+			}
+
+			@Override
+			public String[] read(int recNo) throws RecordNotFoundException {
+				String[] data = readAt(recNo, sequence);
+				if(data == null)
+					throw new RecordNotFoundException();
+				return data;
+			}
+
+			@Override
+			public Map<Integer, String[]> query(Query query) {
+				return Data.this.query(query, null, 0, 0, sequence);
 			}
+
+			@Override
+			public Map<Integer, String[]> query(Query query, Comparator<String[]> order, int offset, int limit) {
+				return Data.this.query(query, order, offset, limit, sequence);
+			}
+
+			@Override
+			public Iterator<Map.Entry<Integer, String[]>> matches(Query query) {
+				return new MatchIterator(query, sequence);
+			}
+
+			@Override
+			public synchronized void close() {
+				if(closed)
+					return;
+				closed = true;
+				history.close(sequence);
+			}
+		};
+	}
+
+	/**
+	 * @return data of the record as of the snapshot sequence, null if 
+	 * deleted or not created yet then
+	 */
+	private String[] readAt(int recNo, long snapshot) {
+		long sequence = recordVersions.get(recNo);
+		if(sequence >= 0 && sequence <= snapshot) {
+			boolean isDeleted = store.isDeleted(recNo);
+			String[] data = store.getData(recNo);
+			// unchanged while reading, see commit
+			if(recordVersions.get(recNo) == sequence)
+				return isDeleted ? null : data;
 		}
-		int[] result = new int[matches.size()];
-		for(int i = 0; i < result.length; ++i) {
-			result[i] = matches.get(i).getValue();
+		return history.get(recNo, snapshot);
+	}
+
+	/**
+	 * Without an index for the query, each part scans only from afterRecNo
+	 * until it has max matches. With one, the candidates are looked up
+	 * again for each part.
+	 */
+	public Map<Integer, String[]> query(Query query, int afterRecNo, final int max) {
+		final LinkedHashMap<Integer, String[]> result = new LinkedHashMap<>();
+		if(max <= 0)
+			return result;
+		forEachMatch(query, afterRecNo, CURRENT, new MatchVisitor() {
+			@Override
+			public boolean visit(int recNo, String[] data) {
+				result.put(recNo, data);
+				return result.size() < max;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Without an order, matches are skipped and taken in recNo order, 
+	 * stopping at the last one needed. With an order, only the best 
+	 * offset + limit matches seen so far are kept, in a heap with the
+	 * worst on top, so the cost is O(N log K) for K = offset + limit 
+	 * instead of sorting all N matches.
+	 */
+	public Map<Integer, String[]> query(Query query, Comparator<String[]> order, int offset, int limit) {
+		return query(query, order, offset, limit, CURRENT);
+	}
+
+	/**
+	 * @param snapshot sequence, or {@link #CURRENT}
+	 */
+	private Map<Integer, String[]> query(Query query, Comparator<String[]> order, 
+			final int offset, final int limit, long snapshot) {
+		final LinkedHashMap<Integer, String[]> result = new LinkedHashMap<>();
+		if(order == null) {
+			forEachMatch(query, 0, snapshot, new MatchVisitor() {
+				private int skipped;
+				@Override
+				public boolean visit(int recNo, String[] data) {
+					if(skipped < offset) {
+						++skipped;
+						return true;
+					}
+					result.put(recNo, data);
+					return limit <= 0 || result.size() < limit;
+				}
+			});
+			return result;
 		}
+
+		final Comparator<Map.Entry<Integer, String[]>> byOrder = byOrderThenRecNo(order);
+		final int keep = limit <= 0 ? Integer.MAX_VALUE : (int)Math.min((long)offset + limit, Integer.MAX_VALUE);
+		final PriorityQueue<Map.Entry<Integer, String[]>> best = 
+				new PriorityQueue<>(11, Collections.reverseOrder(byOrder));
+		forEachMatch(query, 0, snapshot, new MatchVisitor() {
+			@Override
+			public boolean visit(int recNo, String[] data) {
+				Map.Entry<Integer, String[]> entry = new AbstractMap.SimpleImmutableEntry<>(recNo, data);
+				if(best.size() < keep) {
+					best.add(entry);
+				} else if(byOrder.compare(entry, best.peek()) < 0) {
+					best.poll();
+					best.add(entry);
+				}
+				return true;
+			}
+		});
+		List<Map.Entry<Integer, String[]>> sorted = new ArrayList<>(best);
+		Collections.sort(sorted, byOrder);
+		for(int i = offset; i < sorted.size(); ++i)
+			result.put(sorted.get(i).getKey(), sorted.get(i).getValue());
 		return result;
 	}
 
+	/**
+	 * Ties in order by recNo, so pages of the same query do not overlap.
+	 */
+	private static Comparator<Map.Entry<Integer, String[]>> byOrderThenRecNo(final Comparator<String[]> order) {
+		return new Comparator<Map.Entry<Integer, String[]>>() {
+			@Override
+			public int compare(Map.Entry<Integer, String[]> a, Map.Entry<Integer, String[]> b) {
+				int result = order.compare(a.getValue(), b.getValue());
+				return result != 0 ? result : Integer.compare(a.getKey(), b.getKey());
+			}
+		};
+	}
+
+	/**
+	 * Called by {@link forEachMatch} with the data that was matched.
+	 */
+	private interface MatchVisitor {
+		/**
+		 * @return false to stop
+		 */
+		boolean visit(int recNo, String[] data);
+	}
+
+	/**
+	 * Matches with recNo greater than afterRecNo, in recNo order.
+	 * 
+	 * @param snapshot sequence, or {@link #CURRENT}
+	 */
+	private void forEachMatch(Query query, int afterRecNo, long snapshot, MatchVisitor visitor) {
+		RecNoList candidates = findCandidates(query, snapshot);
+		if(candidates != null) {
+			for(int i = 0; i < candidates.size(); ++i) {
+				if(candidates.get(i) > afterRecNo && !visitIfMatches(candidates.get(i), query, snapshot, visitor))
+					return;
+			}
+			return;
+		}
+		
+		int maxRecNo = store.getMaxRecNo();
+		for(int recNo = Math.max(afterRecNo, 0) + 1; recNo <= maxRecNo; ++recNo) {
+			if(!visitIfMatches(recNo, query, snapshot, visitor))
+				return;
+		}
+	}
+
+	/**
+	 * @return recNos from the indexes in recNo order, null if the query
+	 * cannot use them
+	 */
+	private RecNoList findCandidates(Query query, long snapshot) {
+		RecNoList candidates = new RecNoList();
+		if(!query.findCandidates(indexes, candidates))
+			return null;
+		// indexes are current, old values of records changed since the
+		// snapshot may no longer be in them
+		if(snapshot != CURRENT) {
+			for(Integer recNo : history.getChanged())
+				candidates.add(recNo);
+		}
+		candidates.sortDistinct();
+		return candidates;
+	}
+
+	/**
+	 * Same matches as {@link forEachMatch} as of a snapshot, found one at a
+	 * time, for {@link Snapshot#matches}.
+	 */
+	private final class MatchIterator implements Iterator<Map.Entry<Integer, String[]>> {
+		private final Query query;
+		private final long snapshot;
+		/** Null to go through all recNos */
+		private final RecNoList candidates;
+		private final int maxRecNo;
+		/** Index into candidates, or the last recNo tried */
+		private int pos;
+		private Map.Entry<Integer, String[]> next;
+
+		public MatchIterator(Query query, long snapshot) {
+			this.query = query;
+			this.snapshot = snapshot;
+			this.candidates = findCandidates(query, snapshot);
+			this.maxRecNo = store.getMaxRecNo();
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while(next == null) {
+				int recNo;
+				if(candidates != null) {
+					if(pos >= candidates.size())
+						return;
+					recNo = candidates.get(pos++);
+				} else {
+					if(pos >= maxRecNo)
+						return;
+					recNo = ++pos;
+				}
+				String[] data = readAt(recNo, snapshot);
+				if(data != null && query.matches(data))
+					next = new AbstractMap.SimpleImmutableEntry<>(recNo, data);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<Integer, String[]> next() {
+			if(next == null)
+				throw new NoSuchElementException();
+			Map.Entry<Integer, String[]> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private boolean visitIfMatches(int recNo, Query query, long snapshot, MatchVisitor visitor) {
+		String[] data;
+		if(snapshot == CURRENT) {
+			if(store.isDeleted(recNo))
+				return true;
+			// match and return the same copy of data
+			data = store.getData(recNo);
+		} else {
+			data = readAt(recNo, snapshot);
+			if(data == null)
+				return true;
+		}
+		return !query.matches(data) || visitor.visit(recNo, data);
+	}
+	
+	private void addToIndexes(int recNo, String[] data) {
+		addToIndexes(indexes, recNo, data);
+	}
+
+	private static void addToIndexes(FieldIndex[] indexes, int recNo, String[] data) {
+		for(int fieldNum = 0; fieldNum < indexes.length && fieldNum < data.length; ++fieldNum) {
+			if(indexes[fieldNum] != null)
+				indexes[fieldNum].add(data[fieldNum], recNo);
+		}
+	}
+	
+	/**
+	 * Remove entries of the old data, except those still valid for the 
+	 * current data (if any).
+	 */
+	private void removeFromIndexes(int recNo, String[] old, String[] current) {
+		for(int fieldNum = 0; fieldNum < indexes.length && fieldNum < old.length; ++fieldNum) {
+			if(indexes[fieldNum] == null)
+				continue;
+			if(current != null && fieldNum < current.length 
+					&& old[fieldNum] != null && old[fieldNum].equals(current[fieldNum]))
+				continue;
+			indexes[fieldNum].remove(old[fieldNum], recNo);
+		}
+	}
+
 
 	public int create(String[] data) throws DuplicateKeyException {
 		// work and store using a copy to avoid caller modifying the array content
 		String[] copy = Arrays.copyOf(data, data.length);
 
-		RecordInfo.Number recNo = tryCreateReuseDeleted(copy);
+		Integer recNo = tryCreateReuseDeleted(copy);
 		if(recNo == null) {
-			recNo = RecordInfo.Number.fromValue(persistence.create(copy));
-			cache.put(recNo, new RecordInfo(recNo, new Record(copy, false)));
+			long start = System.nanoTime();
+			recNo = persistence.create(copy);
+			persistWrite.recordSince(start);
+			// indexed first, a query finding it before the commit skips it
+			addToIndexes(recNo, copy);
+			commit(recNo, copy, false);
 		}
-		return recNo.getValue();
+		return recNo;
 	}
 
 	/**
@@ -154,50 +640,101 @@ public class Data implements DB {
 	 * 
 	 * But {@link lock} cannot be called ahead of {@link create}, so we must 
 	 * check internally whether a lock is held on the record we are trying to 
-	 * reuse.
+	 * reuse. Locked ones are skipped rather than waited for, waiting could
+	 * block forever if the lock is held by the thread calling create.
 	 * 
 	 * @return recNo of new data added using a reused entry; null if no reuse 
 	 * could be done.
 	 */
-	private synchronized RecordInfo.Number tryCreateReuseDeleted(String[] data) {
-		RecordInfo.Number recNo = null;
+	private synchronized Integer tryCreateReuseDeleted(String[] data) {
 		// no need to lock on the deleted collection. the delete() method
 		// only adds to it, the only place that removes is this method, which
 		// is already synchronized
-		if(!deleted.isEmpty()) {
-			recNo = deleted.iterator().next();
-			RecordInfo record = cache.get(recNo);
-			long cookie = -1;
+		for(Integer recNo : deleted) {
+			long cookie = locks.tryLock(recNo);
+			if(cookie == -1)
+				continue;
 			try {
-				cookie = record.getLock().lock();
 				// this is expected as record is indicated by the deleted
 				// collection, and this is the only method that resets it.
-				if(record.isDeleted()) {
-					persistence.update(recNo.getValue(), data);
+				if(store.isDeleted(recNo)) {
+					long start = System.nanoTime();
+					persistence.update(recNo, data);
+					persistWrite.recordSince(start);
 					deleted.remove(recNo);
-					record.setDeleted(false);
+					addToIndexes(recNo, data);
+					commit(recNo, data, false);
+					return recNo;
 				}
 			} finally {
-				record.getLock().unlock(cookie);
+				locks.unlock(recNo, cookie);
 			}
 		}
-		return recNo;
+		return null;
 	}
 
 	public long lock(int recNo) throws RecordNotFoundException {
-		RecordInfo record = cache.get(RecordInfo.Number.fromValue(recNo));
-		if(record == null || record.isDeleted())
+		if(store.isDeleted(recNo))
 			throw new RecordNotFoundException();
-		return record.getLock().lock();
+		long start = System.nanoTime();
+		Object event = Events.beginRecordLock();
+		long cookie = locks.lock(recNo);
+		lockWaited(recNo, start, event, true);
+		return checkLocked(recNo, cookie);
+	}
+
+	/**
+	 * Same as {@link lock}, but waits at most the given time for another
+	 * client to unlock the record.
+	 */
+	public long lock(int recNo, long timeout, TimeUnit unit)
+			throws RecordNotFoundException, LockTimeoutException {
+		if(store.isDeleted(recNo))
+			throw new RecordNotFoundException();
+		long start = System.nanoTime();
+		Object event = Events.beginRecordLock();
+		long cookie;
+		try {
+			cookie = locks.lock(recNo, timeout, unit);
+		} catch (LockTimeoutException e) {
+			lockWaited(recNo, start, event, false);
+			throw e;
+		}
+		lockWaited(recNo, start, event, true);
+		return checkLocked(recNo, cookie);
+	}
+
+	private static void lockWaited(int recNo, long start, Object event, boolean acquired) {
+		lockWait.recordSince(start);
+		Events.recordLock(event, recNo, acquired);
+	}
+
+	/**
+	 * Record may have been deleted by the client holding the lock while
+	 * waiting for it.
+	 */
+	private long checkLocked(int recNo, long cookie) throws RecordNotFoundException {
+		if(store.isDeleted(recNo)) {
+			locks.unlock(recNo, cookie);
+			throw new RecordNotFoundException();
+		}
+		return cookie;
 	}
 
 	public void unlock(int recNo, long cookie) throws RecordNotFoundException,
 			SecurityException {
-		RecordInfo record = cache.get(RecordInfo.Number.fromValue(recNo));
 		// should NOT check for isDeleted status here because it is valid 
 		// action that a record is locked, deleted, then unlocked.
-		if(record == null)
+		if(!store.contains(recNo))
 			throw new RecordNotFoundException();
-		record.getLock().unlock(cookie);
+		locks.unlock(recNo, cookie);
+		Events.recordUnlock(recNo);
+	}
+
+	/**
+	 * Closes the persistence, when no more calls are made.
+	 */
+	public void close() {
+		persistence.close();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package jcertdevtest.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+/**
+ * Creates {@link Data} with the persistence implementation chosen by config,
+ * so all the startup modes can select it the same way.
+ *
+ * Config keys, all optional:
+ * <ul>
+ * <li>persistence: "file" (default) for {@link DataFile}, "mapped" for
+ * {@link MappedDataFile}, "striped" for {@link ChannelDataFile}</li>
+ * <li>forcePolicy: for mapped, one of {@link MappedDataFile.ForcePolicy},
+ * default NEVER</li>
+ * <li>forceIntervalMillis: for mapped with PERIODIC force policy, default
+ * 1000</li>
+ * <li>stripes: for striped, number of lock stripes, default 4 per 
+ * processor</li>
+ * <li>journal: path of a journal file, a second one is the same path
+ * with ".1" appended. If set, changes are made durable through
+ * {@link JournaledDataPersistence} in front of the chosen persistence</li>
+ * <li>checkpointBytes: for journal, size of a journal file to checkpoint
+ * at, default 4MB</li>
+ * <li>store: "heap" (default) to keep records as strings, "compact" to
+ * keep them off heap with {@link CompactRecordStore}</li>
+ * <li>indexedFields: comma separated field numbers to index for find,
+ * default all fields</li>
+ * </ul>
+ *
+ */
+public final class DataFactory {
+	public static final String PERSISTENCE = "persistence";
+	public static final String FORCE_POLICY = "forcePolicy";
+	public static final String FORCE_INTERVAL_MILLIS = "forceIntervalMillis";
+	public static final String STRIPES = "stripes";
+	public static final String JOURNAL = "journal";
+	public static final String CHECKPOINT_BYTES = "checkpointBytes";
+	public static final String STORE = "store";
+	public static final String INDEXED_FIELDS = "indexedFields";
+
+	private DataFactory() {
+	}
+
+	public static Data open(String filePath, Properties config) throws IOException {
+		DataPersistence persistence = openPersistence(filePath, config);
+		int[] indexedFields = null;
+		String fields = config.getProperty(INDEXED_FIELDS);
+		if(fields != null) {
+			String[] values = fields.trim().isEmpty() ? new String[0] : fields.split(",");
+			indexedFields = new int[values.length];
+			for(int i = 0; i < values.length; ++i)
+				indexedFields[i] = Integer.parseInt(values[i].trim());
+		}
+		String store = config.getProperty(STORE, "heap");
+		switch(store) {
+		case "heap":
+			return new Data(persistence, indexedFields);
+		case "compact":
+			DataFileSchema schema;
+			try(RandomAccessFile file = new RandomAccessFile(new File(filePath), "r")) {
+				schema = new DataFileSchema(file);
+			}
+			return new Data(persistence, indexedFields, new CompactRecordStore(schema));
+		default:
+			throw new IllegalArgumentException("Unknown store " + store);
+		}
+	}
+
+	public static DataPersistence openPersistence(String filePath, Properties config)
+			throws IOException {
+		DataPersistence persistence = openFilePersistence(filePath, config);
+		String journal = config.getProperty(JOURNAL);
+		if(journal != null) {
+			persistence = new JournaledDataPersistence(persistence, filePath, journal,
+					Long.parseLong(config.getProperty(CHECKPOINT_BYTES, Integer.toString(4 << 20))));
+		}
+		return persistence;
+	}
+
+	private static DataPersistence openFilePersistence(String filePath, Properties config)
+			throws IOException {
+		String persistence = config.getProperty(PERSISTENCE, "file");
+		switch(persistence) {
+		case "file":
+			return new DataPersistenceFileAdapter(new DataFile(filePath));
+		case "mapped":
+			return new MappedDataFile(filePath,
+					MappedDataFile.ForcePolicy.valueOf(config.getProperty(FORCE_POLICY, "NEVER")),
+					Long.parseLong(config.getProperty(FORCE_INTERVAL_MILLIS, "1000")));
+		case "striped":
+			return new ChannelDataFile(filePath,
+					Integer.parseInt(config.getProperty(STRIPES,
+							Integer.toString(4 * Runtime.getRuntime().availableProcessors()))));
+		default:
+			throw new IllegalArgumentException("Unknown persistence " + persistence);
+		}
+	}
+}
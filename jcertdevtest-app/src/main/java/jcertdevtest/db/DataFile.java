@@ -9,10 +9,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import jcertdevtest.metrics.Events;
+
 /**
  * Handles all the persistence actions to the data file.
  * Access to this class is synchronized as access to the underlying file 
  * resource can only be one at a time. 
+ * Each file operation is a {@link Events#fileIo} event.
  * 
  * @author Ken Goh
  *
@@ -32,6 +35,7 @@ public class DataFile {
 	}
 
 	public synchronized Map<Integer, Record> load() throws IOException {
+		Object event = Events.beginFileIo();
 		raf.seek(schema.DataStartPos);
 		byte[] recordBytes = new byte[schema.RecordLength];
 		HashMap<Integer, Record> records = new HashMap<>();
@@ -57,16 +61,29 @@ public class DataFile {
 			}
 			records.put(newRecNo++, record);
 		}
+		Events.fileIo(event, file.getPath(), "load", (long)records.size() * schema.RecordLength);
 		return records;
 	}
 
+	/**
+	 * Same as {@link #load()}, but mapping the file and decoding in 
+	 * parallel into the sink, see {@link ParallelRecordLoader}.
+	 */
+	public synchronized void load(RecordSink sink) throws IOException {
+		Object event = Events.beginFileIo();
+		newRecNo = ParallelRecordLoader.load(raf.getChannel(), schema, sink) + 1;
+		Events.fileIo(event, file.getPath(), "load", (long)(newRecNo - 1) * schema.RecordLength);
+	}
+
 	public synchronized int create(String[] data) throws IOException {
 		if(data.length != schema.NumFields)
 			throw new IOException("input data array does not match fields in file");
 		
+		Object event = Events.beginFileIo();
 		raf.seek(raf.length());
 		raf.writeBoolean(false);
 		writeData(data);
+		Events.fileIo(event, file.getPath(), "create", schema.RecordLength);
 		return newRecNo++;
 	}
 
@@ -78,9 +95,11 @@ public class DataFile {
 		if(data.length != schema.NumFields)
 			throw new IOException("input data array does not match fields in file");
 		
+		Object event = Events.beginFileIo();
 		raf.seek(getFilePos(recNo));
 		raf.writeBoolean(false); 
 		writeData(data);
+		Events.fileIo(event, file.getPath(), "update", schema.RecordLength);
 	}
 	
 	private void writeData(String[] data) throws IOException {
@@ -102,12 +121,24 @@ public class DataFile {
 	}
 
 	public synchronized void delete(int recNo) throws IOException {
+		Object event = Events.beginFileIo();
 		raf.seek(getFilePos(recNo));
 		raf.writeBoolean(true);
+		Events.fileIo(event, file.getPath(), "delete", 1);
 	}
 	
+	public synchronized void sync() throws IOException {
+		Object event = Events.beginFileIo();
+		raf.getFD().sync();
+		Events.fileIo(event, file.getPath(), "sync", 0);
+	}
+	
+	public synchronized void close() throws IOException {
+		raf.close();
+	}
+
 	private long getFilePos(int recNo) {
-		return schema.DataStartPos + schema.RecordLength * (recNo - 1);
+		return schema.DataStartPos + (long)schema.RecordLength * (recNo - 1);
 	}
 
 }
\ No newline at end of file
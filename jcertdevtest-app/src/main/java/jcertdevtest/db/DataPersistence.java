@@ -21,4 +21,16 @@ public interface DataPersistence {
 
 	public abstract void delete(int recNo);
 
+	/**
+	 * Forces all changes made so far to the storage device. Changes are not
+	 * guaranteed to survive a crash before this is called.
+	 */
+	public abstract void sync();
+
+	/**
+	 * Releases the storage, after making sure every change reached it. No
+	 * other methods may be called after.
+	 */
+	public abstract void close();
+
 }
\ No newline at end of file
@@ -15,6 +15,10 @@ public class DataPersistenceException extends RuntimeException {
 		super();
 	}
 	
+	public DataPersistenceException(String message) {
+		super(message);
+	}
+	
 	public DataPersistenceException(Throwable e) {
 		super(e);
 	}
@@ -8,7 +8,7 @@ import java.util.Map;
  * @author Ken Goh
  *
  */
-public class DataPersistenceFileAdapter implements DataPersistence {
+public class DataPersistenceFileAdapter implements DataPersistence, BulkLoadable {
 
 	private final DataFile file;
 	
@@ -24,6 +24,14 @@ public class DataPersistenceFileAdapter implements DataPersistence {
 		}
 	}
 
+	public void load(RecordSink sink) {
+		try {
+			file.load(sink);
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
 	public int create(String[] data) {
 		try {
 			return file.create(data);
@@ -47,4 +55,20 @@ public class DataPersistenceFileAdapter implements DataPersistence {
 			throw new DataPersistenceException(e);
 		}
 	}
+
+	public void sync() {
+		try {
+			file.sync();
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
 }
\ No newline at end of file
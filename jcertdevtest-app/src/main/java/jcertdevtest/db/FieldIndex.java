@@ -0,0 +1,88 @@
+package jcertdevtest.db;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary index on a single field, kept sorted by field value so that
+ * "begins with" lookups as required by {@link DB#find} only visit the
+ * matching entries instead of every record.
+ *
+ * Each entry is a (value, recNo) pair, so there are no per-value posting
+ * lists to copy or resize when a popular value (e.g. a location shared by
+ * many rooms) gains or loses a record.
+ *
+ * Like the rest of the cache, the index is maintained optimistically.
+ * {@link Data} adds the new entry before and removes the old entry after
+ * changing a record, so a lookup may return extra candidates but never
+ * misses one. Callers must check candidates against the record data, and
+ * only take the entry equal to the current value of the record, as a 
+ * record being updated can briefly have both old and new entries.
+ *
+ */
+final class FieldIndex {
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+
+	public void add(String value, int recNo) {
+		if(value != null)
+			entries.add(new Entry(value, recNo));
+	}
+
+	public void remove(String value, int recNo) {
+		if(value != null)
+			entries.remove(new Entry(value, recNo));
+	}
+
+	/**
+	 * Entries whose value begins with the prefix, in value order. Cost is a 
+	 * single seek plus the number of matches.
+	 * 
+	 * Values are ASCII from the data file, so {@link Character#MAX_VALUE} 
+	 * after the prefix is an upper bound for all values that begin with it.
+	 */
+	public NavigableSet<Entry> findPrefix(String prefix) {
+		return entries.subSet(new Entry(prefix, Integer.MIN_VALUE), true,
+				new Entry(prefix + Character.MAX_VALUE, Integer.MIN_VALUE), false);
+	}
+
+	/**
+	 * Entries whose value equals the given value, in recNo order.
+	 */
+	public NavigableSet<Entry> findExact(String value) {
+		return entries.subSet(new Entry(value, Integer.MIN_VALUE), true,
+				new Entry(value, Integer.MAX_VALUE), true);
+	}
+
+	public static final class Entry implements Comparable<Entry> {
+		private final String value;
+		private final int recNo;
+		public Entry(String value, int recNo) {
+			this.value = value;
+			this.recNo = recNo;
+		}
+		public String getValue() {
+			return value;
+		}
+		public int getRecNo() {
+			return recNo;
+		}
+		@Override
+		public int compareTo(Entry o) {
+			int result = value.compareTo(o.value);
+			if(result != 0)
+				return result;
+			return recNo < o.recNo ? -1 : (recNo == o.recNo ? 0 : 1);
+		}
+		@Override
+		public boolean equals(Object o) {
+			if(o != null && o instanceof Entry) {
+				return compareTo((Entry)o) == 0;
+			}
+			return false;
+		}
+		@Override
+		public int hashCode() {
+			return value.hashCode() * 31 + recNo;
+		}
+	}
+}
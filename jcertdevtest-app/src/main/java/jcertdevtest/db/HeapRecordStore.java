@@ -0,0 +1,106 @@
+package jcertdevtest.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link RecordStore} keeping the loaded {@link Record} objects as they are,
+ * so {@link getData} returns the same array until the record is changed.
+ *
+ * Records are kept in fixed size chunks indexed by recNo, added as needed.
+ *
+ */
+final class HeapRecordStore implements RecordStore {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private volatile AtomicReferenceArray<Record>[] chunks = newChunks(0);
+	private final AtomicInteger maxRecNo = new AtomicInteger();
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static AtomicReferenceArray<Record>[] newChunks(int length) {
+		return new AtomicReferenceArray[length];
+	}
+
+	/**
+	 * Only locks to grow, so adding records within capacity from many
+	 * threads, e.g. when loading in parallel, does not contend.
+	 */
+	public void ensureCapacity(int recNo) {
+		int numChunks = ((recNo - 1) >>> CHUNK_BITS) + 1;
+		if(numChunks > chunks.length)
+			grow(numChunks);
+	}
+
+	private synchronized void grow(int numChunks) {
+		if(numChunks <= chunks.length)
+			return;
+		AtomicReferenceArray<Record>[] grown = newChunks(numChunks);
+		System.arraycopy(chunks, 0, grown, 0, chunks.length);
+		for(int i = chunks.length; i < numChunks; ++i)
+			grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+		chunks = grown;
+	}
+
+	public void put(int recNo, Record record) {
+		ensureCapacity(recNo);
+		chunks[(recNo - 1) >>> CHUNK_BITS].set((recNo - 1) & (CHUNK_SIZE - 1), record);
+		updateMaxRecNo(recNo);
+	}
+
+	private void updateMaxRecNo(int recNo) {
+		int max;
+		while((max = maxRecNo.get()) < recNo) {
+			if(maxRecNo.compareAndSet(max, recNo))
+				break;
+		}
+	}
+
+	public int getMaxRecNo() {
+		return maxRecNo.get();
+	}
+
+	private Record get(int recNo) {
+		AtomicReferenceArray<Record>[] chunks = this.chunks;
+		int chunk = (recNo - 1) >>> CHUNK_BITS;
+		if(recNo < 1 || chunk >= chunks.length)
+			return null;
+		return chunks[chunk].get((recNo - 1) & (CHUNK_SIZE - 1));
+	}
+
+	public boolean contains(int recNo) {
+		return get(recNo) != null;
+	}
+
+	public String[] getData(int recNo) {
+		Record record = get(recNo);
+		return record == null ? null : record.getData();
+	}
+
+	public void setData(int recNo, String[] data) {
+		get(recNo).setData(data);
+	}
+
+	public boolean isDeleted(int recNo) {
+		Record record = get(recNo);
+		return record == null || record.isDeleted();
+	}
+
+	public void setDeleted(int recNo, boolean deleted) {
+		get(recNo).setDeleted(deleted);
+	}
+
+	public boolean matches(int recNo, String[] criteria) {
+		Record record = get(recNo);
+		if(record == null || record.isDeleted())
+			return false;
+		String[] data = record.getData();
+		for(int fieldNum = 0; fieldNum < criteria.length; ++fieldNum) {
+			if(criteria[fieldNum] != null
+					&& !data[fieldNum].startsWith(criteria[fieldNum])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
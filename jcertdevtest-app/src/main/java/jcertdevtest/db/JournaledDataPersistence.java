@@ -0,0 +1,595 @@
+package jcertdevtest.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal in front of another {@link DataPersistence}, making
+ * every create/update/delete durable before it returns.
+ *
+ * Each change is appended to the journal and forced to disk before the
+ * caller returns. Forcing is done by a single commit thread for all changes
+ * queued since the previous force (group commit), so concurrent callers
+ * share the cost of one fsync.
+ *
+ * Committed batches are handed to a separate apply thread, which applies
+ * them to the wrapped persistence without forcing it, so the commit thread
+ * goes straight on to the next batch. The journal is two segment files, the
+ * given path and the same with ".1" appended. When the segment being
+ * appended to reaches the checkpoint size, the commit thread switches to
+ * the other one, and the apply thread checkpoints the full segment once it
+ * has applied all of it: syncs the wrapped persistence, then truncates that
+ * segment only. If the apply thread has not finished the previous
+ * checkpoint yet, the current segment grows until it has.
+ *
+ * On {@link load}, changes left in the journal from before a crash are
+ * replayed onto the wrapped persistence, older segment first. Replaying is
+ * idempotent as every journal entry carries the full record. A torn entry
+ * at the end of the journal (crash during append) fails its checksum and
+ * is ignored, its caller was never acknowledged.
+ *
+ */
+public class JournaledDataPersistence implements DataPersistence, BulkLoadable {
+	private static final Logger log = Logger.getLogger(JournaledDataPersistence.class.getName());
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte OP_CREATE = 1;
+	private static final byte OP_UPDATE = 2;
+	private static final byte OP_DELETE = 3;
+	/** Entry header: payload length and CRC32 of payload */
+	private static final int HEADER_LENGTH = 8;
+	/** Tells the apply thread to stop */
+	private static final Applying STOP = new Applying(null, null);
+
+	private final DataPersistence inner;
+	private final DataFileSchema schema;
+	private final RandomAccessFile[] segmentFiles = new RandomAccessFile[2];
+	private final FileChannel[] segments = new FileChannel[2];
+	private final long checkpointBytes;
+
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Condition queued = queueLock.newCondition();
+	private final Condition committed = queueLock.newCondition();
+	// following guarded by queueLock
+	private List<Entry> pending = new ArrayList<>();
+	private long queuedSeq;
+	private long committedSeq;
+	private DataPersistenceException failure;
+	private int newRecNo;
+	private boolean closed;
+
+	private Thread commitThread;
+	private Thread applyThread;
+	/** Committed batches and segments to checkpoint, in journal order */
+	private final BlockingQueue<Applying> toApply = new LinkedBlockingQueue<>();
+	/** Set by the commit thread, reset by the apply thread when done */
+	private volatile boolean checkpointing;
+
+	// following only used by the commit thread after load
+	private int active;
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+
+	// following only used by the apply thread after load
+	private int innerNewRecNo;
+
+	/**
+	 * @param dataFilePath file of the wrapped persistence, to validate 
+	 * changes against its schema before they go into the journal.
+	 * @param checkpointBytes journal segment size to reach before 
+	 * checkpointing it into the wrapped persistence.
+	 */
+	public JournaledDataPersistence(DataPersistence inner, String dataFilePath,
+			String journalPath, long checkpointBytes) throws IOException {
+		this.inner = inner;
+		try(RandomAccessFile dataFile = new RandomAccessFile(new File(dataFilePath), "r")) {
+			this.schema = new DataFileSchema(dataFile);
+		}
+		for(int i = 0; i < segments.length; ++i) {
+			segmentFiles[i] = new RandomAccessFile(new File(i == 0 ? journalPath : journalPath + "." + i), "rw");
+			segments[i] = segmentFiles[i].getChannel();
+		}
+		this.checkpointBytes = checkpointBytes;
+	}
+
+	/**
+	 * Loads from the wrapped persistence, then replays the journal into it
+	 * and into the returned records.
+	 */
+	public Map<Integer, Record> load() {
+		List<Entry> journal = readJournal();
+		Map<Integer, Record> records = inner.load();
+		int maxRecNo = 0;
+		for(Integer recNo : records.keySet())
+			maxRecNo = Math.max(maxRecNo, recNo);
+		replay(journal, maxRecNo, records);
+		start();
+		return records;
+	}
+
+	/**
+	 * Same as {@link #load()} into the sink. Records changed by the journal
+	 * are held back from the sink until replayed, so each recNo is still
+	 * added once.
+	 */
+	public void load(final RecordSink sink) {
+		if(!(inner instanceof BulkLoadable)) {
+			Map<Integer, Record> records = load();
+			int numFields = 0;
+			for(Record record : records.values())
+				numFields = Math.max(numFields, record.getData().length);
+			sink.start(records.size(), numFields);
+			for(Map.Entry<Integer, Record> entry : records.entrySet())
+				sink.add(entry.getKey(), entry.getValue());
+			return;
+		}
+
+		List<Entry> journal = readJournal();
+		final Set<Integer> changed = new HashSet<>();
+		for(Entry entry : journal)
+			changed.add(entry.recNo);
+		final Map<Integer, Record> heldBack = new ConcurrentHashMap<>();
+		final AtomicInteger maxRecNo = new AtomicInteger();
+		((BulkLoadable)inner).load(new RecordSink() {
+			@Override
+			public void start(int numRecords, int numFields) {
+				sink.start(numRecords, numFields);
+			}
+
+			@Override
+			public void add(int recNo, Record record) {
+				int max;
+				while((max = maxRecNo.get()) < recNo && !maxRecNo.compareAndSet(max, recNo)) {
+				}
+				if(changed.contains(recNo))
+					heldBack.put(recNo, record);
+				else
+					sink.add(recNo, record);
+			}
+		});
+		replay(journal, maxRecNo.get(), heldBack);
+		for(Map.Entry<Integer, Record> entry : heldBack.entrySet())
+			sink.add(entry.getKey(), entry.getValue());
+		start();
+	}
+
+	/**
+	 * Applies the journal to the wrapped persistence and to the records,
+	 * then empties the journal.
+	 */
+	private void replay(List<Entry> journal, int maxRecNo, Map<Integer, Record> records) {
+		innerNewRecNo = maxRecNo + 1;
+		try {
+			for(Entry entry : journal) {
+				apply(entry);
+				if(entry.op == OP_DELETE) {
+					Record record = records.get(entry.recNo);
+					if(record != null)
+						record.setDeleted(true);
+				} else {
+					records.put(entry.recNo, new Record(entry.data, false));
+				}
+			}
+			if(!journal.isEmpty()) {
+				log.info("Replayed " + journal.size() + " journal entries");
+				inner.sync();
+			}
+			for(FileChannel segment : segments) {
+				segment.truncate(0);
+				segment.force(true);
+			}
+		} catch (IOException e) {
+			throw new DataPersistenceException("Failed to replay journal", e);
+		}
+		newRecNo = innerNewRecNo;
+	}
+
+	private void start() {
+		commitThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		}, "JournaledDataPersistence-commit");
+		commitThread.setDaemon(true);
+		applyThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				applyLoop();
+			}
+		}, "JournaledDataPersistence-apply");
+		applyThread.setDaemon(true);
+		applyThread.start();
+		commitThread.start();
+	}
+
+	public int create(String[] data) {
+		RecordCodec.validate(schema, data);
+		queueLock.lock();
+		try {
+			// assign recNo in the same order as the journal, so creates are
+			// applied to the wrapped persistence in recNo order
+			int recNo = newRecNo++;
+			commit(new Entry(OP_CREATE, recNo, data));
+			return recNo;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	public void update(int recNo, String[] data) {
+		RecordCodec.validate(schema, data);
+		queueLock.lock();
+		try {
+			commit(new Entry(OP_UPDATE, recNo, data));
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	public void delete(int recNo) {
+		queueLock.lock();
+		try {
+			commit(new Entry(OP_DELETE, recNo, null));
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	/**
+	 * Every change is already durable in the journal.
+	 */
+	public void sync() {
+	}
+
+	/**
+	 * Waits for the queued changes to be applied, then checkpoints and
+	 * closes the wrapped persistence.
+	 */
+	public void close() {
+		queueLock.lock();
+		try {
+			closed = true;
+			queued.signal();
+		} finally {
+			queueLock.unlock();
+		}
+		try {
+			if(commitThread != null)
+				commitThread.join();
+			if(applyThread != null) {
+				toApply.add(STOP);
+				applyThread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataPersistenceException("Interrupted closing journal", e);
+		}
+		try {
+			// both threads are done, any failure is set by now
+			if(failure == null) {
+				inner.sync();
+				for(FileChannel segment : segments) {
+					segment.truncate(0);
+					segment.force(true);
+				}
+			}
+			inner.close();
+			for(RandomAccessFile segmentFile : segmentFiles)
+				segmentFile.close();
+		} catch (IOException e) {
+			throw new DataPersistenceException("Failed to close journal", e);
+		}
+	}
+
+	/**
+	 * Queue the entry and wait until it is forced to the journal.
+	 * Must hold queueLock.
+	 */
+	private void commit(Entry entry) {
+		if(failure != null)
+			throw failure;
+		pending.add(entry);
+		long seq = ++queuedSeq;
+		entry.seq = seq;
+		queued.signal();
+		boolean interrupted = false;
+		while(committedSeq < seq && failure == null) {
+			try {
+				committed.await();
+			} catch (InterruptedException e) {
+				// the change is already queued, cannot abandon it
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(committedSeq < seq)
+			throw failure;
+	}
+
+	private void commitLoop() {
+		while(true) {
+			List<Entry> batch;
+			long batchSeq;
+			queueLock.lock();
+			try {
+				while(pending.isEmpty() && !closed && failure == null) {
+					queued.awaitUninterruptibly();
+				}
+				if(pending.isEmpty() || failure != null)
+					return;
+				batch = pending;
+				batchSeq = queuedSeq;
+				pending = new ArrayList<>();
+			} finally {
+				queueLock.unlock();
+			}
+
+			FileChannel segment = segments[active];
+			try {
+				append(segment, batch);
+				segment.force(false);
+			} catch (IOException | RuntimeException e) {
+				fail("Failed to write journal", e);
+				return;
+			}
+
+			queueLock.lock();
+			try {
+				committedSeq = batchSeq;
+				committed.signalAll();
+			} finally {
+				queueLock.unlock();
+			}
+
+			toApply.add(new Applying(batch, null));
+			try {
+				if(!checkpointing && segment.size() >= checkpointBytes) {
+					// the other segment is empty, checkpointed before
+					checkpointing = true;
+					toApply.add(new Applying(null, segment));
+					active = 1 - active;
+				}
+			} catch (IOException e) {
+				fail("Failed to write journal", e);
+				return;
+			}
+		}
+	}
+
+	private void applyLoop() {
+		while(true) {
+			Applying next;
+			try {
+				next = toApply.take();
+			} catch (InterruptedException e) {
+				// only stopped by close
+				continue;
+			}
+			if(next == STOP)
+				return;
+			try {
+				if(next.batch != null) {
+					for(Entry entry : next.batch) {
+						apply(entry);
+					}
+				} else {
+					inner.sync();
+					next.segment.truncate(0);
+					checkpointing = false;
+				}
+			} catch (IOException | RuntimeException e) {
+				// the journal still has everything not checkpointed and is
+				// replayed on restart, as no later checkpoint happens
+				fail("Failed to checkpoint journal", e);
+				return;
+			}
+		}
+	}
+
+	private void fail(String message, Exception e) {
+		log.log(Level.SEVERE, message + ", no more changes accepted", e);
+		queueLock.lock();
+		try {
+			if(failure == null)
+				failure = new DataPersistenceException(message, e);
+			committed.signalAll();
+			queued.signal();
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	private void apply(Entry entry) {
+		switch(entry.op) {
+		case OP_CREATE:
+			if(entry.recNo < innerNewRecNo) {
+				// already created before a crash, when replaying
+				inner.update(entry.recNo, entry.data);
+			} else {
+				int recNo = inner.create(entry.data);
+				if(recNo != entry.recNo)
+					throw new DataPersistenceException("Journal recNo " + entry.recNo
+							+ " created as recNo " + recNo);
+				innerNewRecNo = recNo + 1;
+			}
+			break;
+		case OP_UPDATE:
+			inner.update(entry.recNo, entry.data);
+			break;
+		case OP_DELETE:
+			inner.delete(entry.recNo);
+			break;
+		}
+	}
+
+	private void append(FileChannel segment, List<Entry> batch) throws IOException {
+		writeBuffer.clear();
+		for(Entry entry : batch) {
+			int length = entry.payloadLength();
+			if(writeBuffer.remaining() < HEADER_LENGTH + length) {
+				flushWriteBuffer(segment);
+				if(writeBuffer.capacity() < HEADER_LENGTH + length)
+					writeBuffer = ByteBuffer.allocate(HEADER_LENGTH + length);
+			}
+			int start = writeBuffer.position();
+			writeBuffer.position(start + HEADER_LENGTH);
+			entry.writePayload(writeBuffer);
+			writeBuffer.putInt(start, length);
+			writeBuffer.putInt(start + 4, crc(writeBuffer, start + HEADER_LENGTH, length));
+		}
+		flushWriteBuffer(segment);
+	}
+
+	private void flushWriteBuffer(FileChannel segment) throws IOException {
+		writeBuffer.flip();
+		while(writeBuffer.hasRemaining()) {
+			segment.write(writeBuffer, segment.size());
+		}
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Entries of both segments, older segment first.
+	 */
+	private List<Entry> readJournal() {
+		try {
+			List<Entry> first = readSegment(segments[0]);
+			List<Entry> second = readSegment(segments[1]);
+			if(!first.isEmpty() && !second.isEmpty() && second.get(0).seq < first.get(0).seq) {
+				List<Entry> older = second;
+				second = first;
+				first = older;
+			}
+			first.addAll(second);
+			return first;
+		} catch (IOException e) {
+			throw new DataPersistenceException("Failed to read journal", e);
+		}
+	}
+
+	private List<Entry> readSegment(FileChannel segment) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate((int)Math.min(segment.size(), Integer.MAX_VALUE));
+		while(in.hasRemaining()) {
+			if(segment.read(in, in.position()) == -1)
+				break;
+		}
+		in.flip();
+		List<Entry> entries = new ArrayList<>();
+		while(in.remaining() >= HEADER_LENGTH) {
+			int start = in.position();
+			int length = in.getInt();
+			int crc = in.getInt();
+			if(length <= 0 || length > in.remaining()
+					|| crc != crc(in, start + HEADER_LENGTH, length)) {
+				log.warning("Ignoring incomplete journal entry at " + start);
+				break;
+			}
+			entries.add(Entry.readPayload(in));
+		}
+		return entries;
+	}
+
+	/**
+	 * Buffer must be a heap buffer with array offset 0.
+	 */
+	private static int crc(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), offset, length);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * For the apply thread, a batch to apply or a segment to checkpoint.
+	 */
+	private static final class Applying {
+		private final List<Entry> batch;
+		private final FileChannel segment;
+		public Applying(List<Entry> batch, FileChannel segment) {
+			this.batch = batch;
+			this.segment = segment;
+		}
+	}
+
+	private static final class Entry {
+		private final byte op;
+		private final int recNo;
+		private final String[] data;
+		/** Order in the journal, only compared to order segments */
+		private long seq;
+		public Entry(byte op, int recNo, String[] data) {
+			this.op = op;
+			this.recNo = recNo;
+			this.data = data;
+		}
+		public int payloadLength() {
+			int length = 8 + 1 + 4 + 2;
+			if(data != null) {
+				for(String value : data)
+					length += 2 + (value == null ? 0 : value.length());
+			}
+			return length;
+		}
+		/**
+		 * seq, op, recNo, number of fields, then each field as length (-1 
+		 * for null) and ASCII bytes.
+		 */
+		public void writePayload(ByteBuffer out) {
+			out.putLong(seq);
+			out.put(op);
+			out.putInt(recNo);
+			out.putShort((short)(data == null ? 0 : data.length));
+			if(data != null) {
+				for(String value : data) {
+					if(value == null) {
+						out.putShort((short)-1);
+						continue;
+					}
+					out.putShort((short)value.length());
+					for(int i = 0; i < value.length(); ++i) {
+						char c = value.charAt(i);
+						out.put(c < 128 ? (byte)c : (byte)'?');
+					}
+				}
+			}
+		}
+		public static Entry readPayload(ByteBuffer in) {
+			long seq = in.getLong();
+			byte op = in.get();
+			int recNo = in.getInt();
+			int numFields = in.getShort();
+			String[] data = null;
+			if(op != OP_DELETE) {
+				data = new String[numFields];
+				for(int fieldNum = 0; fieldNum < numFields; ++fieldNum) {
+					int length = in.getShort();
+					if(length < 0)
+						continue;
+					byte[] bytes = new byte[length];
+					in.get(bytes);
+					data[fieldNum] = new String(bytes, ASCII);
+				}
+			}
+			Entry entry = new Entry(op, recNo, data);
+			entry.seq = seq;
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package jcertdevtest.db;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Central lock table for record locks, holding state only for the records
+ * currently locked.
+ *
+ * Records are spread by recNo over a fixed number of stripes. Each stripe
+ * has a small table of its locked recNos and their cookies, and one
+ * condition for threads waiting on any of them. Locking or unlocking does
+ * not allocate, apart from a stripe table growing.
+ *
+ * A lock is owned by its cookie, not by a thread. So it is not reentrant,
+ * and can be unlocked by any thread holding the cookie.
+ *
+ * Cookies come from a counter mixed with a seed from {@link SecureRandom}
+ * taken once, instead of a SecureRandom call per lock. They are unique and
+ * look random, enough to catch a client using a wrong cookie, but the mix
+ * is not cryptographic. Never -1, which callers can use for "not locked".
+ *
+ */
+public final class LockManager {
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private final long seed;
+	private final AtomicLong counter = new AtomicLong();
+
+	public LockManager() {
+		this(16 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numStripes rounded up to a power of 2
+	 */
+	public LockManager(int numStripes) {
+		int size = Integer.highestOneBit(Math.max(numStripes, 1) * 2 - 1);
+		stripes = new Stripe[size];
+		for(int i = 0; i < size; ++i)
+			stripes[i] = new Stripe();
+		stripeMask = size - 1;
+		seed = new SecureRandom().nextLong();
+	}
+
+	/**
+	 * Blocks until the record is not locked, then locks it.
+	 * @return cookie for unlocking
+	 */
+	public long lock(int recNo) {
+		Stripe stripe = getStripe(recNo);
+		stripe.lock.lock();
+		try {
+			while(stripe.indexOf(recNo) != -1) {
+				++stripe.waiters;
+				stripe.unlocked.awaitUninterruptibly();
+				--stripe.waiters;
+			}
+			return stripe.add(recNo, nextCookie());
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Same as {@link lock}, but waits at most the given time.
+	 * @throws LockTimeoutException if still locked after the time.
+	 */
+	public long lock(int recNo, long timeout, TimeUnit unit) throws LockTimeoutException {
+		long nanos = unit.toNanos(timeout);
+		boolean interrupted = false;
+		Stripe stripe = getStripe(recNo);
+		stripe.lock.lock();
+		try {
+			while(stripe.indexOf(recNo) != -1) {
+				if(nanos <= 0)
+					throw new LockTimeoutException("Timeout locking record " + recNo);
+				++stripe.waiters;
+				try {
+					nanos = stripe.unlocked.awaitNanos(nanos);
+				} catch (InterruptedException e) {
+					// same as lock(), only give up on timeout
+					interrupted = true;
+				} finally {
+					--stripe.waiters;
+				}
+			}
+			return stripe.add(recNo, nextCookie());
+		} finally {
+			stripe.lock.unlock();
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Locks the record only if it is not locked.
+	 * @return cookie for unlocking, -1 if already locked.
+	 */
+	public long tryLock(int recNo) {
+		Stripe stripe = getStripe(recNo);
+		stripe.lock.lock();
+		try {
+			if(stripe.indexOf(recNo) != -1)
+				return -1;
+			return stripe.add(recNo, nextCookie());
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether the record is locked with this cookie.
+	 */
+	public boolean isLockedBy(int recNo, long cookie) {
+		Stripe stripe = getStripe(recNo);
+		stripe.lock.lock();
+		try {
+			int index = stripe.indexOf(recNo);
+			return index != -1 && stripe.cookies[index] == cookie;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * @throws SecurityException if the record is not locked with this
+	 * cookie.
+	 */
+	public void unlock(int recNo, long cookie) throws SecurityException {
+		Stripe stripe = getStripe(recNo);
+		stripe.lock.lock();
+		try {
+			int index = stripe.indexOf(recNo);
+			if(index == -1 || stripe.cookies[index] != cookie)
+				throw new SecurityException();
+			stripe.remove(index);
+			if(stripe.waiters > 0)
+				stripe.unlocked.signalAll();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	private Stripe getStripe(int recNo) {
+		return stripes[recNo & stripeMask];
+	}
+
+	private long nextCookie() {
+		while(true) {
+			long cookie = mix(seed + counter.incrementAndGet());
+			if(cookie != -1)
+				return cookie;
+		}
+	}
+
+	/**
+	 * Finalizer of SplitMix64, a bijection so distinct counter values give
+	 * distinct cookies.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Locked recNos of the stripe and their cookies, in parallel arrays.
+	 * Guarded by lock.
+	 */
+	private static final class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition unlocked = lock.newCondition();
+		private int[] recNos = new int[2];
+		private long[] cookies = new long[2];
+		private int size;
+		private int waiters;
+
+		private int indexOf(int recNo) {
+			for(int i = 0; i < size; ++i) {
+				if(recNos[i] == recNo)
+					return i;
+			}
+			return -1;
+		}
+
+		private long add(int recNo, long cookie) {
+			if(size == recNos.length) {
+				recNos = Arrays.copyOf(recNos, size * 2);
+				cookies = Arrays.copyOf(cookies, size * 2);
+			}
+			recNos[size] = recNo;
+			cookies[size] = cookie;
+			++size;
+			return cookie;
+		}
+
+		private void remove(int index) {
+			--size;
+			recNos[index] = recNos[size];
+			cookies[index] = cookies[size];
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package jcertdevtest.db;
+
+/**
+ * Record lock could not be acquired within the given time.
+ *
+ */
+public class LockTimeoutException extends Exception {
+	private static final long serialVersionUID = 1L;
+	public LockTimeoutException() {
+		super();
+	}
+	public LockTimeoutException(String message) {
+		super(message);
+	}
+}
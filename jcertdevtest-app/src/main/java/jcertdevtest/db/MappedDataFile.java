@@ -0,0 +1,271 @@
+package jcertdevtest.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Alternative to {@link DataFile} doing all IO through a memory mapping of
+ * the data file, same file format.
+ *
+ * Records are at fixed offsets so updates and deletes are written straight
+ * into the mapping without seeking, locking or allocating, and updates of
+ * different records can run concurrently. Only create needs to be
+ * synchronized as it may grow the file and remap it.
+ *
+ * The mapping grows by doubling, so most creates write into space already
+ * mapped. Until {@link close} truncates the file to the records created,
+ * the file ends with unwritten all zero records. No record is ever written
+ * as all zero (fields are space padded), so {@link load} ignores them when
+ * left by a crash, and they are written over by later creates.
+ *
+ * Written data reaches the file when the OS flushes the mapped pages,
+ * or when forced according to the {@link ForcePolicy}.
+ *
+ * A single mapping is limited to 2GB, so is the file size.
+ *
+ */
+public class MappedDataFile implements DataPersistence, BulkLoadable {
+	private static final Logger log = Logger.getLogger(MappedDataFile.class.getName());
+
+	/**
+	 * When written data is forced to the storage device.
+	 */
+	public enum ForcePolicy {
+		/** Leave it to the OS */
+		NEVER,
+		/** Before returning from every create/update/delete */
+		EVERY_WRITE,
+		/** In the background at a fixed interval */
+		PERIODIC
+	}
+
+	/** Smallest size to grow the mapping to */
+	private static final int MIN_MAPPING = 1 << 20;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final DataFileSchema schema;
+	private final ForcePolicy forcePolicy;
+	private ScheduledExecutorService forceScheduler;
+	/** Maps the written records and possibly unwritten space after them */
+	private volatile MappedByteBuffer buffer;
+	/** Written only by create, after writing the record */
+	private volatile int newRecNo = 1;
+
+	public MappedDataFile(String filePath) throws IOException {
+		this(filePath, ForcePolicy.NEVER, 0);
+	}
+
+	/**
+	 * @param forceIntervalMillis only used for {@link ForcePolicy#PERIODIC}
+	 */
+	public MappedDataFile(String filePath, ForcePolicy forcePolicy,
+			long forceIntervalMillis) throws IOException {
+		raf = new RandomAccessFile(new File(filePath), "rw");
+		schema = new DataFileSchema(raf);
+		channel = raf.getChannel();
+		this.forcePolicy = forcePolicy;
+		if(forcePolicy == ForcePolicy.PERIODIC) {
+			startPeriodicForce(forceIntervalMillis);
+		}
+	}
+
+	public synchronized Map<Integer, Record> load() {
+		map();
+
+		// one view and one scratch array for the whole load, instead of
+		// arrays per record and field
+		ByteBuffer in = buffer.duplicate();
+		byte[] recordBytes = new byte[schema.RecordLength];
+		int numRecords = (in.limit() - schema.DataStartPos) / schema.RecordLength;
+		HashMap<Integer, Record> records = new HashMap<>(numRecords * 4 / 3 + 1);
+		in.position(schema.DataStartPos);
+		int recNo = 1;
+		for(int i = 0; i < numRecords; ++i) {
+			in.get(recordBytes);
+			String[] data = RecordCodec.decode(schema, recordBytes, 0);
+			records.put(recNo++, new Record(data, recordBytes[0] != 0));
+		}
+		if(in.hasRemaining()) {
+			throw new DataPersistenceException("Unexpected file format when "
+					+ " loading record " + recNo);
+		}
+		newRecNo = recNo;
+		return records;
+	}
+
+	public synchronized void load(RecordSink sink) {
+		map();
+		try {
+			newRecNo = ParallelRecordLoader.load(buffer, schema, sink) + 1;
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	/**
+	 * Maps the file up to the unwritten records at its end, if any.
+	 */
+	private void map() {
+		try {
+			long length = channel.size();
+			if(length > Integer.MAX_VALUE)
+				throw new IOException("File larger than 2GB cannot be mapped");
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			int written = (int)length;
+			if((written - schema.DataStartPos) % schema.RecordLength == 0) {
+				while(written > schema.DataStartPos
+						&& isUnwritten(written - schema.RecordLength)) {
+					written -= schema.RecordLength;
+				}
+			}
+			if(written < length) {
+				log.info("Ignoring " + (length - written) / schema.RecordLength
+						+ " unwritten records at end of file");
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, written);
+			}
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	private boolean isUnwritten(int pos) {
+		for(int i = pos; i < pos + schema.RecordLength; ++i) {
+			if(buffer.get(i) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	public synchronized int create(String[] data) {
+		RecordCodec.validate(schema, data);
+		long pos = getFilePos(newRecNo);
+		if(pos + schema.RecordLength > buffer.capacity())
+			grow(pos + schema.RecordLength);
+		RecordCodec.encode(schema, data, buffer, (int)pos);
+		afterWrite();
+		return newRecNo++;
+	}
+
+	/**
+	 * Remap to at least double the size, in whole records.
+	 */
+	private void grow(long minLength) {
+		long maxLength = schema.DataStartPos
+				+ (Integer.MAX_VALUE - schema.DataStartPos) / schema.RecordLength * (long)schema.RecordLength;
+		if(minLength > maxLength)
+			throw new DataPersistenceException("File larger than 2GB cannot be mapped");
+		long length = Math.max(minLength, Math.max(2L * buffer.capacity(), MIN_MAPPING));
+		long numRecords = (length - schema.DataStartPos + schema.RecordLength - 1) / schema.RecordLength;
+		length = Math.min(schema.DataStartPos + numRecords * schema.RecordLength, maxLength);
+		try {
+			// mapping beyond the end of file extends the file. The old mapping
+			// stays valid for any concurrent update and is unmapped when
+			// garbage collected.
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	/**
+	 * Update data for the given recNo. If record for that recNo has deleted
+	 * flag set, it will be reset to not deleted.
+	 */
+	public void update(int recNo, String[] data) {
+		RecordCodec.validate(schema, data);
+		RecordCodec.encode(schema, data, buffer, getWrittenPos(recNo));
+		afterWrite();
+	}
+
+	public void delete(int recNo) {
+		buffer.put(getWrittenPos(recNo), (byte)1);
+		afterWrite();
+	}
+
+	public void sync() {
+		buffer.force();
+	}
+
+	/**
+	 * Forces and truncates the file to the records created, no other methods
+	 * may be called after.
+	 */
+	public synchronized void close() {
+		if(forceScheduler != null) {
+			forceScheduler.shutdown();
+			try {
+				forceScheduler.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			if(buffer != null) {
+				sync();
+				buffer = null;
+				try {
+					channel.truncate(getFilePos(newRecNo));
+				} catch (IOException e) {
+					// e.g. not allowed while still mapped on some platforms,
+					// the next load truncates instead
+					log.log(Level.WARNING, "Failed to truncate data file", e);
+				}
+			}
+			raf.close();
+		} catch (IOException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	private void afterWrite() {
+		if(forcePolicy == ForcePolicy.EVERY_WRITE) {
+			sync();
+		}
+	}
+
+	private void startPeriodicForce(long intervalMillis) {
+		forceScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MappedDataFile-force");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		forceScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					MappedByteBuffer mapped = buffer;
+					if(mapped != null)
+						mapped.force();
+				} catch (Exception e) {
+					log.log(Level.SEVERE, "Failed to force data file", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private int getWrittenPos(int recNo) {
+		if(recNo < 1 || recNo >= newRecNo)
+			throw new DataPersistenceException("Record " + recNo + " not in file");
+		return (int)getFilePos(recNo);
+	}
+
+	private long getFilePos(int recNo) {
+		return schema.DataStartPos + (long)schema.RecordLength * (recNo - 1);
+	}
+}
@@ -0,0 +1,130 @@
+package jcertdevtest.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads the records of a data file by mapping it and decoding ranges of
+ * records in parallel with fork/join, handing each to a {@link RecordSink}.
+ *
+ * Records are copied out of the mapping in chunks of many records and
+ * decoded with {@link RecordCodec}, so per record only the field strings
+ * and the {@link Record} are allocated. Files over 2GB are mapped in
+ * segments.
+ *
+ * A record of all zero bytes is loaded as deleted, see
+ * {@link ChannelDataFile}.
+ *
+ */
+final class ParallelRecordLoader {
+	/** Records decoded per leaf task */
+	private static final int RECORDS_PER_TASK = 4096;
+
+	private ParallelRecordLoader() {
+	}
+
+	/**
+	 * @return number of records loaded
+	 */
+	public static int load(FileChannel channel, DataFileSchema schema, RecordSink sink)
+			throws IOException {
+		long dataLength = channel.size() - schema.DataStartPos;
+		if(dataLength % schema.RecordLength != 0)
+			throw new IOException("Unexpected file format, partial record at end of file");
+		long numRecords = dataLength / schema.RecordLength;
+		if(numRecords > Integer.MAX_VALUE)
+			throw new IOException("Too many records " + numRecords);
+		sink.start((int)numRecords, schema.NumFields);
+
+		int recordsPerSegment = Integer.MAX_VALUE / schema.RecordLength;
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for(long first = 0; first < numRecords; first += recordsPerSegment) {
+				int count = (int)Math.min(numRecords - first, recordsPerSegment);
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+						schema.DataStartPos + first * schema.RecordLength,
+						(long)count * schema.RecordLength);
+				pool.invoke(new DecodeTask(schema, segment, (int)first + 1, 0, count, sink));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return (int)numRecords;
+	}
+
+	/**
+	 * Loads from a buffer already holding the whole file, e.g. a mapping
+	 * kept by the caller.
+	 * @return number of records loaded
+	 */
+	public static int load(ByteBuffer file, DataFileSchema schema, RecordSink sink)
+			throws IOException {
+		int dataLength = file.limit() - schema.DataStartPos;
+		if(dataLength % schema.RecordLength != 0)
+			throw new IOException("Unexpected file format, partial record at end of file");
+		int numRecords = dataLength / schema.RecordLength;
+		sink.start(numRecords, schema.NumFields);
+
+		ByteBuffer records = file.duplicate();
+		records.position(schema.DataStartPos);
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new DecodeTask(schema, records.slice(), 1, 0, numRecords, sink));
+		} finally {
+			pool.shutdown();
+		}
+		return numRecords;
+	}
+
+	private static final class DecodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DataFileSchema schema;
+		/** Records only, starting with the one of firstRecNo */
+		private final ByteBuffer records;
+		private final int firstRecNo;
+		private final int from;
+		private final int to;
+		private final RecordSink sink;
+
+		public DecodeTask(DataFileSchema schema, ByteBuffer records, int firstRecNo,
+				int from, int to, RecordSink sink) {
+			this.schema = schema;
+			this.records = records;
+			this.firstRecNo = firstRecNo;
+			this.from = from;
+			this.to = to;
+			this.sink = sink;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > RECORDS_PER_TASK) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DecodeTask(schema, records, firstRecNo, from, mid, sink),
+						new DecodeTask(schema, records, firstRecNo, mid, to, sink));
+				return;
+			}
+			// one bulk copy out of the mapping for the whole range
+			byte[] bytes = new byte[(to - from) * schema.RecordLength];
+			ByteBuffer in = records.duplicate();
+			in.position(from * schema.RecordLength);
+			in.get(bytes);
+			for(int i = 0, offset = 0; i < to - from; ++i, offset += schema.RecordLength) {
+				boolean deleted = bytes[offset] != 0 || isBlank(bytes, offset, schema.RecordLength);
+				sink.add(firstRecNo + from + i,
+						new Record(RecordCodec.decode(schema, bytes, offset), deleted));
+			}
+		}
+	}
+
+	private static boolean isBlank(byte[] bytes, int offset, int length) {
+		for(int i = offset; i < offset + length; ++i) {
+			if(bytes[i] != 0)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,225 @@
+package jcertdevtest.db;
+
+/**
+ * Predicate on record fields for {@link QueryableDB#query}. Built from the
+ * static factory methods and combined with {@link and} / {@link or}.
+ * Immutable.
+ *
+ * Unlike {@link DB#find}, a null value never matches anything, e.g.
+ * exact(0, null) has no match.
+ *
+ */
+public abstract class Query {
+
+	private static final Query ALL = new Query() {
+		@Override
+		boolean matches(String[] data) {
+			return true;
+		}
+		@Override
+		boolean findCandidates(FieldIndex[] indexes, RecNoList result) {
+			return false;
+		}
+	};
+
+	Query() {
+	}
+
+	/**
+	 * Matches every record that is not deleted.
+	 */
+	public static Query all() {
+		return ALL;
+	}
+
+	/**
+	 * Field value equals the given value.
+	 */
+	public static Query exact(int fieldNum, String value) {
+		return new Exact(fieldNum, value);
+	}
+
+	/**
+	 * Field value begins with the given value, same as the criteria in
+	 * {@link DB#find}.
+	 */
+	public static Query prefix(int fieldNum, String value) {
+		return new Prefix(fieldNum, value);
+	}
+
+	public static Query and(Query... queries) {
+		return new And(queries);
+	}
+
+	public static Query or(Query... queries) {
+		return new Or(queries);
+	}
+
+	abstract boolean matches(String[] data);
+
+	/**
+	 * Adds recNo of records that might match to the result, using the field
+	 * indexes. Records not added are guaranteed not to match.
+	 *
+	 * @param indexes by field number, null for fields without index.
+	 * @return false if the candidates cannot be narrowed down using the
+	 * indexes, i.e. all records need to be checked.
+	 */
+	abstract boolean findCandidates(FieldIndex[] indexes, RecNoList result);
+
+	/**
+	 * Whether candidates can be found from index, and roughly how selective
+	 * they are, higher being more selective. 0 if no index can be used.
+	 */
+	int indexRank(FieldIndex[] indexes) {
+		return 0;
+	}
+
+	private static FieldIndex getIndex(FieldIndex[] indexes, int fieldNum) {
+		return fieldNum < indexes.length ? indexes[fieldNum] : null;
+	}
+
+	private static final class Exact extends Query {
+		private final int fieldNum;
+		private final String value;
+		public Exact(int fieldNum, String value) {
+			this.fieldNum = fieldNum;
+			this.value = value;
+		}
+		@Override
+		boolean matches(String[] data) {
+			return value != null && value.equals(data[fieldNum]);
+		}
+		@Override
+		boolean findCandidates(FieldIndex[] indexes, RecNoList result) {
+			if(value == null)
+				return true;
+			FieldIndex index = getIndex(indexes, fieldNum);
+			if(index == null)
+				return false;
+			for(FieldIndex.Entry entry : index.findExact(value))
+				result.add(entry.getRecNo());
+			return true;
+		}
+		@Override
+		int indexRank(FieldIndex[] indexes) {
+			if(value == null)
+				return Integer.MAX_VALUE;
+			if(getIndex(indexes, fieldNum) == null)
+				return 0;
+			// exact match on any value is preferred over a prefix
+			return 1 + Short.MAX_VALUE + value.length();
+		}
+	}
+
+	private static final class Prefix extends Query {
+		private final int fieldNum;
+		private final String value;
+		public Prefix(int fieldNum, String value) {
+			this.fieldNum = fieldNum;
+			this.value = value;
+		}
+		@Override
+		boolean matches(String[] data) {
+			return value != null && data[fieldNum] != null
+					&& data[fieldNum].startsWith(value);
+		}
+		@Override
+		boolean findCandidates(FieldIndex[] indexes, RecNoList result) {
+			if(value == null)
+				return true;
+			FieldIndex index = getIndex(indexes, fieldNum);
+			// empty prefix matches everything, faster to scan
+			if(index == null || value.length() == 0)
+				return false;
+			for(FieldIndex.Entry entry : index.findPrefix(value))
+				result.add(entry.getRecNo());
+			return true;
+		}
+		@Override
+		int indexRank(FieldIndex[] indexes) {
+			if(value == null)
+				return Integer.MAX_VALUE;
+			if(getIndex(indexes, fieldNum) == null || value.length() == 0)
+				return 0;
+			return Math.min(value.length(), Short.MAX_VALUE);
+		}
+	}
+
+	private static final class And extends Query {
+		private final Query[] queries;
+		public And(Query[] queries) {
+			this.queries = queries.clone();
+		}
+		@Override
+		boolean matches(String[] data) {
+			for(Query query : queries) {
+				if(!query.matches(data))
+					return false;
+			}
+			return true;
+		}
+		/**
+		 * Candidates from the most selective indexed sub query only. The
+		 * others are checked by {@link matches}.
+		 */
+		@Override
+		boolean findCandidates(FieldIndex[] indexes, RecNoList result) {
+			Query best = null;
+			int bestRank = 0;
+			for(Query query : queries) {
+				int rank = query.indexRank(indexes);
+				if(rank > bestRank) {
+					best = query;
+					bestRank = rank;
+				}
+			}
+			return best != null && best.findCandidates(indexes, result);
+		}
+		@Override
+		int indexRank(FieldIndex[] indexes) {
+			int rank = 0;
+			for(Query query : queries)
+				rank = Math.max(rank, query.indexRank(indexes));
+			return rank;
+		}
+	}
+
+	private static final class Or extends Query {
+		private final Query[] queries;
+		public Or(Query[] queries) {
+			this.queries = queries.clone();
+		}
+		@Override
+		boolean matches(String[] data) {
+			for(Query query : queries) {
+				if(query.matches(data))
+					return true;
+			}
+			return false;
+		}
+		/**
+		 * Union of candidates of all sub queries, so all of them must be
+		 * able to use index.
+		 */
+		@Override
+		boolean findCandidates(FieldIndex[] indexes, RecNoList result) {
+			for(Query query : queries) {
+				if(query.indexRank(indexes) == 0)
+					return false;
+			}
+			for(Query query : queries) {
+				if(!query.findCandidates(indexes, result))
+					return false;
+			}
+			return true;
+		}
+		@Override
+		int indexRank(FieldIndex[] indexes) {
+			int rank = Integer.MAX_VALUE;
+			for(Query query : queries)
+				rank = Math.min(rank, query.indexRank(indexes));
+			return rank;
+		}
+	}
+}
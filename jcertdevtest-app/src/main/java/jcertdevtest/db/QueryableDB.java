@@ -0,0 +1,58 @@
+package jcertdevtest.db;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Richer query interface than the "begins with" only {@link DB#find}.
+ * Supports exact match and boolean combinations, see {@link Query}, and 
+ * returns the matching record data directly so the caller does not need to 
+ * {@link DB#read} each match again.
+ * 
+ */
+public interface QueryableDB {
+
+	/**
+	 * The query is evaluated against one consistent copy of each record, 
+	 * i.e. the returned data is what was matched. Same as {@link DB#find}, 
+	 * the result is optimistic with respect to concurrent modification.
+	 * 
+	 * Caller must NOT modify the content of the returned arrays.
+	 * 
+	 * @return data of matching records keyed by recNo, in recNo order.
+	 */
+	public Map<Integer, String[]> query(Query query);
+
+	/**
+	 * Same as {@link #query(Query)}, but only the first max matches with 
+	 * recNo greater than afterRecNo. For reading a large result a part at a
+	 * time, passing the last recNo of one part to get the next, without
+	 * collecting all matches at once.
+	 */
+	public Map<Integer, String[]> query(Query query, int afterRecNo, int max);
+
+	/**
+	 * Same as {@link #query(Query)}, but in the given order, only the 
+	 * matches from offset, and at most limit of them. Without ever sorting
+	 * or holding all matches, so a first page is cheap however many match.
+	 * 
+	 * @param order of record data, ties are in recNo order. Null for recNo
+	 * order.
+	 * @param limit 0 for no limit
+	 * @return in that order
+	 */
+	public Map<Integer, String[]> query(Query query, Comparator<String[]> order, int offset, int limit);
+
+	/**
+	 * Changes after every create, update and delete, only ever increasing. 
+	 * A result of a query made after reading a version is still current as
+	 * long as the version has not changed.
+	 */
+	public long getVersion();
+
+	/**
+	 * For queries and reads of many records consistent with each other, 
+	 * as of the latest commit, without locking them. Must be closed.
+	 */
+	public Snapshot openSnapshot();
+}
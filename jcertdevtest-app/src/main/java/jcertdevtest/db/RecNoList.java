@@ -0,0 +1,52 @@
+package jcertdevtest.db;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of recNo, avoids boxing every match into an Integer.
+ * Not thread safe.
+ *
+ */
+final class RecNoList {
+	private int[] values;
+	private int size;
+
+	public RecNoList() {
+		this(16);
+	}
+
+	public RecNoList(int initialCapacity) {
+		values = new int[Math.max(initialCapacity, 1)];
+	}
+
+	public void add(int recNo) {
+		if(size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = recNo;
+	}
+
+	public int get(int i) {
+		return values[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts ascending and removes duplicates.
+	 */
+	public void sortDistinct() {
+		Arrays.sort(values, 0, size);
+		int distinct = 0;
+		for(int i = 0; i < size; ++i) {
+			if(distinct == 0 || values[i] != values[distinct - 1])
+				values[distinct++] = values[i];
+		}
+		size = distinct;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -0,0 +1,81 @@
+package jcertdevtest.db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes and decodes the fixed length records of the data file, shared by
+ * the persistence implementations that do not go through
+ * {@link java.io.RandomAccessFile} stream methods.
+ *
+ * A record is a 1 byte deleted flag followed by each field as ASCII, padded
+ * with spaces to the field length given by {@link DataFileSchema}.
+ *
+ */
+final class RecordCodec {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	static final byte SPACE = 32;	// ASCII space character in decimal
+
+	private RecordCodec() {
+	}
+
+	public static void validate(DataFileSchema schema, String[] data) {
+		if(data.length != schema.NumFields)
+			throw new DataPersistenceException("input data array does not match fields in file");
+		for(int fieldNum = 0; fieldNum < schema.NumFields; ++fieldNum) {
+			if(data[fieldNum] != null && data[fieldNum].length() > schema.FieldLengths[fieldNum]) {
+				throw new DataPersistenceException("Update value " + data[fieldNum]
+						+ " for field " + fieldNum + " longer than allowed");
+			}
+		}
+	}
+
+	/**
+	 * Writes the whole record including the deleted flag (not deleted) at the
+	 * given index, using absolute puts only so concurrent writes of different
+	 * records to the same buffer do not interfere. Data must be validated.
+	 */
+	public static void encode(DataFileSchema schema, String[] data, ByteBuffer out, int pos) {
+		out.put(pos++, (byte)0);
+		for(int fieldNum = 0; fieldNum < schema.NumFields; ++fieldNum) {
+			String value = data[fieldNum];
+			int length = value == null ? 0 : value.length();
+			for(int i = 0; i < length; ++i) {
+				char c = value.charAt(i);
+				// same replacement for unmappable chars as String.getBytes
+				out.put(pos + i, c < 128 ? (byte)c : (byte)'?');
+			}
+			for(int i = length; i < schema.FieldLengths[fieldNum]; ++i) {
+				out.put(pos + i, SPACE);
+			}
+			pos += schema.FieldLengths[fieldNum];
+		}
+	}
+
+	/**
+	 * Decodes the fields of the record starting at the given offset, which
+	 * is the deleted flag.
+	 */
+	public static String[] decode(DataFileSchema schema, byte[] bytes, int offset) {
+		String[] data = new String[schema.NumFields];
+		int fieldPos = offset + 1;
+		for(int fieldNum = 0; fieldNum < schema.NumFields; ++fieldNum) {
+			data[fieldNum] = decodeField(bytes, fieldPos, schema.FieldLengths[fieldNum]);
+			fieldPos += schema.FieldLengths[fieldNum];
+		}
+		return data;
+	}
+
+	/**
+	 * Same as String.trim(), without creating the untrimmed string first.
+	 */
+	public static String decodeField(byte[] bytes, int offset, int length) {
+		int start = offset;
+		int end = offset + length;
+		while(start < end && (bytes[start] & 0xff) <= SPACE)
+			++start;
+		while(end > start && (bytes[end - 1] & 0xff) <= SPACE)
+			--end;
+		return new String(bytes, start, end - start, ASCII);
+	}
+}
@@ -0,0 +1,20 @@
+package jcertdevtest.db;
+
+/**
+ * Receives records from a {@link BulkLoadable} persistence as they are
+ * decoded, so they can go straight into the caller's own structures.
+ *
+ */
+interface RecordSink {
+
+	/**
+	 * Called once, before any record.
+	 */
+	void start(int numRecords, int numFields);
+
+	/**
+	 * Called once per recNo, in no particular order and concurrently from
+	 * multiple threads.
+	 */
+	void add(int recNo, Record record);
+}
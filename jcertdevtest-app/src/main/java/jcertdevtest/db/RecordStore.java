@@ -0,0 +1,54 @@
+package jcertdevtest.db;
+
+/**
+ * Holds the data and deleted flag of every record in memory, by recNo.
+ *
+ * Calls for different records can be concurrent. Changes to the same
+ * record must be serialized by the caller, e.g. by holding the record
+ * lock. Reads can be concurrent with changes of the same record, and see
+ * the record either entirely before or entirely after a change.
+ *
+ */
+interface RecordStore {
+
+	/**
+	 * Make room for records up to recNo, to avoid growing one at a time
+	 * while loading.
+	 */
+	void ensureCapacity(int recNo);
+
+	/**
+	 * Adds or replaces the record with data and deleted flag of the given
+	 * record.
+	 */
+	void put(int recNo, Record record);
+
+	/**
+	 * @return highest recNo of a record put, 0 if none. Records may be
+	 * missing below it.
+	 */
+	int getMaxRecNo();
+
+	/**
+	 * @return whether there is a record for recNo, deleted or not.
+	 */
+	boolean contains(int recNo);
+
+	/**
+	 * @return data of the record, also when deleted. Null if no record for
+	 * that recNo. Caller must NOT modify it.
+	 */
+	String[] getData(int recNo);
+
+	void setData(int recNo, String[] data);
+
+	boolean isDeleted(int recNo);
+
+	void setDeleted(int recNo, boolean deleted);
+
+	/**
+	 * Same matching as {@link DB#find}.
+	 * @return false if no record or deleted.
+	 */
+	boolean matches(int recNo, String[] criteria);
+}
@@ -0,0 +1,60 @@
+package jcertdevtest.db;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version stamp of every record by recNo, for {@link VersionedDB}: the
+ * commit sequence of its last change, see {@link SnapshotHistory}. Kept
+ * apart from the {@link RecordStore}, so it works the same whichever
+ * store holds the data. Negative while the change is being installed.
+ * Only in memory, all records start at 0 when loaded.
+ *
+ * Records are kept in fixed size chunks indexed by recNo, added as needed,
+ * same as {@link HeapRecordStore}.
+ *
+ */
+final class RecordVersions {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+	/**
+	 * Called on every set, so only locks to grow.
+	 */
+	public void ensureCapacity(int recNo) {
+		int numChunks = ((recNo - 1) >>> CHUNK_BITS) + 1;
+		if(numChunks > chunks.length)
+			grow(numChunks);
+	}
+
+	private synchronized void grow(int numChunks) {
+		if(numChunks <= chunks.length)
+			return;
+		AtomicLongArray[] grown = new AtomicLongArray[numChunks];
+		System.arraycopy(chunks, 0, grown, 0, chunks.length);
+		for(int i = chunks.length; i < numChunks; ++i)
+			grown[i] = new AtomicLongArray(CHUNK_SIZE);
+		chunks = grown;
+	}
+
+	/**
+	 * @return 0 for a recNo never set
+	 */
+	public long get(int recNo) {
+		AtomicLongArray[] chunks = this.chunks;
+		int chunk = (recNo - 1) >>> CHUNK_BITS;
+		if(recNo < 1 || chunk >= chunks.length)
+			return 0;
+		return chunks[chunk].get((recNo - 1) & (CHUNK_SIZE - 1));
+	}
+
+	/**
+	 * Called on each change of the record's data, by the only thread
+	 * allowed to change it.
+	 */
+	public void set(int recNo, long version) {
+		ensureCapacity(recNo);
+		chunks[(recNo - 1) >>> CHUNK_BITS].set((recNo - 1) & (CHUNK_SIZE - 1), version);
+	}
+}
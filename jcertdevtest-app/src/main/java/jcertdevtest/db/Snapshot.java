@@ -0,0 +1,50 @@
+package jcertdevtest.db;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Consistent view of all records as of one commit, see
+ * {@link QueryableDB#openSnapshot}. Reads and queries see every change
+ * committed before it was opened and none after, without taking any lock.
+ *
+ * Old versions of records are kept for as long as it is open, so it must
+ * be closed, soon.
+ *
+ */
+public interface Snapshot extends AutoCloseable {
+
+	/**
+	 * Same as {@link QueryableDB#getVersion} when opened.
+	 */
+	public long getSequence();
+
+	/**
+	 * @throws RecordNotFoundException if not found or deleted as of the
+	 * snapshot
+	 */
+	public String[] read(int recNo) throws RecordNotFoundException;
+
+	/**
+	 * Same as {@link QueryableDB#query(Query)} as of the snapshot.
+	 */
+	public Map<Integer, String[]> query(Query query);
+
+	/**
+	 * Same as {@link QueryableDB#query(Query, Comparator, int, int)} as of
+	 * the snapshot.
+	 */
+	public Map<Integer, String[]> query(Query query, Comparator<String[]> order, int offset, int limit);
+
+	/**
+	 * Matches of the query as of the snapshot, in recNo order, found as 
+	 * they are iterated. For reading a large result a part at a time, with 
+	 * index candidates looked up once for all parts. Only while the 
+	 * snapshot is open.
+	 */
+	public Iterator<Map.Entry<Integer, String[]>> matches(Query query);
+
+	@Override
+	public void close();
+}
@@ -0,0 +1,147 @@
+package jcertdevtest.db;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Commit sequence of {@link Data} and the old versions of records still
+ * seen by an open {@link Snapshot}.
+ *
+ * Every change of a record is committed while holding this, as the next
+ * sequence. Only while snapshots are open, the version it replaces is kept
+ * first, tagged with the sequence it was committed at. Once no open
+ * snapshot is older than the version that replaced it, it is dropped, and
+ * with no snapshot open there is no history at all.
+ *
+ * Old versions are immutable lists, newest first, so they are read
+ * without holding this.
+ *
+ */
+final class SnapshotHistory {
+	private final RecordVersions recordVersions;
+	/** Last committed sequence */
+	private volatile long sequence;
+	/** Count of open snapshots by their sequence. Guarded by this */
+	private final TreeMap<Long, Integer> open = new TreeMap<>();
+	/** Newest replaced version of each record changed while a snapshot was open */
+	private final ConcurrentHashMap<Integer, OldVersion> history = new ConcurrentHashMap<>();
+
+	private static final class OldVersion {
+		final long sequence;
+		/** Null if the record did not exist */
+		final String[] data;
+		final boolean deleted;
+		final OldVersion older;
+
+		OldVersion(long sequence, String[] data, boolean deleted, OldVersion older) {
+			this.sequence = sequence;
+			this.data = data;
+			this.deleted = deleted;
+			this.older = older;
+		}
+
+		/**
+		 * Copy without the versions older than the newest one committed by
+		 * the sequence, which no snapshot can see any more.
+		 */
+		OldVersion trim(long sequence) {
+			if(this.sequence <= sequence)
+				return older == null ? this : new OldVersion(this.sequence, data, deleted, null);
+			OldVersion trimmed = older == null ? null : older.trim(sequence);
+			return trimmed == older ? this : new OldVersion(this.sequence, data, deleted, trimmed);
+		}
+	}
+
+	/**
+	 * @param recordVersions sequence each record was last committed at
+	 */
+	public SnapshotHistory(RecordVersions recordVersions) {
+		this.recordVersions = recordVersions;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the snapshot sequence, to pass to {@link #close}
+	 */
+	public synchronized long open() {
+		Integer count = open.get(sequence);
+		open.put(sequence, count == null ? 1 : count + 1);
+		return sequence;
+	}
+
+	public synchronized void close(long snapshot) {
+		Integer count = open.get(snapshot);
+		if(count == null)
+			return;
+		if(count > 1) {
+			open.put(snapshot, count - 1);
+			return;
+		}
+		open.remove(snapshot);
+		if(open.isEmpty()) {
+			history.clear();
+		} else if(open.firstKey() > snapshot) {
+			trim(open.firstKey());
+		}
+	}
+
+	private void trim(long oldest) {
+		for(Iterator<Map.Entry<Integer, OldVersion>> it = history.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Integer, OldVersion> entry = it.next();
+			if(recordVersions.get(entry.getKey()) <= oldest)
+				it.remove();
+			else
+				entry.setValue(entry.getValue().trim(oldest));
+		}
+	}
+
+	/**
+	 * Caller holds this, committing a change of the record.
+	 */
+	public boolean hasOpen() {
+		return !open.isEmpty();
+	}
+
+	/**
+	 * Caller holds this, before committing a change of the record.
+	 *
+	 * @param sequence the version being replaced was committed at
+	 * @param data null if the record does not exist yet
+	 */
+	public void keep(int recNo, long sequence, String[] data, boolean deleted) {
+		history.put(recNo, new OldVersion(sequence, data, deleted, history.get(recNo)));
+	}
+
+	/**
+	 * Caller holds this, after the change is installed.
+	 */
+	public void committed(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return data of the newest kept version of the record committed by
+	 * the snapshot, null if none or deleted then.
+	 */
+	public String[] get(int recNo, long snapshot) {
+		for(OldVersion version = history.get(recNo); version != null; version = version.older) {
+			if(version.sequence <= snapshot)
+				return version.deleted ? null : version.data;
+		}
+		return null;
+	}
+
+	/**
+	 * Records with old versions kept. Their current data may not be in
+	 * the indexes as of a snapshot.
+	 */
+	public Set<Integer> getChanged() {
+		return history.keySet();
+	}
+}
@@ -0,0 +1,31 @@
+package jcertdevtest.db;
+
+/**
+ * Optimistic updates, as an alternative to {@link DB#lock}, update and
+ * unlock: read a record's version then its data, and update only if the
+ * version is unchanged. A caller losing to a concurrent change finds out
+ * at once instead of waiting for a lock, then reads again.
+ *
+ */
+public interface VersionedDB {
+
+	/**
+	 * Changes after every update or delete of the record. Read before
+	 * {@link DB#read}, the data read is then at least as new as this
+	 * version.
+	 *
+	 * @throws RecordNotFoundException if not found or deleted
+	 */
+	public long getRecordVersion(int recNo) throws RecordNotFoundException;
+
+	/**
+	 * Same as {@link DB#update}, without a lock, if the record is still at
+	 * the expected version.
+	 *
+	 * @return false, without waiting, if the record has changed since, or
+	 * is locked or being updated by another caller.
+	 * @throws RecordNotFoundException if not found or deleted
+	 */
+	public boolean updateIfVersion(int recNo, long expectedVersion, String[] data)
+			throws RecordNotFoundException;
+}
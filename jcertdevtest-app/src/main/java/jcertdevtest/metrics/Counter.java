@@ -0,0 +1,45 @@
+package jcertdevtest.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, or with {@link #decrement} a level such as a queue
+ * depth. A {@link LongAdder}, so threads updating at once spread over its
+ * cells instead of contending on one value.
+ *
+ */
+public final class Counter implements CounterMXBean {
+	private final String name;
+	private final LongAdder value = new LongAdder();
+	private final RateWindow rate = new RateWindow();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void increment() {
+		value.increment();
+	}
+
+	public void decrement() {
+		value.decrement();
+	}
+
+	public void add(long delta) {
+		value.add(delta);
+	}
+
+	@Override
+	public long getValue() {
+		return value.sum();
+	}
+
+	@Override
+	public double getPerSecond() {
+		return rate.get(value.sum());
+	}
+}
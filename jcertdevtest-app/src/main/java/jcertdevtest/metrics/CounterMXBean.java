@@ -0,0 +1,14 @@
+package jcertdevtest.metrics;
+
+/**
+ * JMX view of a {@link Counter}.
+ *
+ */
+public interface CounterMXBean {
+	long getValue();
+	/**
+	 * Change of the value per second over the last window of about a
+	 * second, the same for every client reading it.
+	 */
+	double getPerSecond();
+}
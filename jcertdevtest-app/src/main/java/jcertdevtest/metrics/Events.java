@@ -0,0 +1,91 @@
+package jcertdevtest.metrics;
+
+/**
+ * Emits the custom Java Flight Recorder events of jcertdevtest, so a
+ * recording, e.g. started with -XX:StartFlightRecording or jcmd JFR.start,
+ * attributes stalls to records, files and requests.
+ *
+ * Each method costs a branch when the JVM has no JFR, and when it has, a
+ * check of whether the event is enabled, which JIT compiled code folds to
+ * nothing while not recording. Arguments are passed as they are at hand,
+ * anything derived from them is only computed for an event committed.
+ * Events with a duration are started with the matching begin method when
+ * the operation starts. It returns the started event, or null when not
+ * recording, to be passed back when the operation is done. It is an
+ * Object so callers do not depend on JFR classes.
+ * The event classes are only loaded when JFR is there, so this runs on a
+ * Java 8 without it.
+ *
+ */
+public final class Events {
+	private static final boolean AVAILABLE = isAvailable();
+
+	private Events() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Before waiting for a record lock.
+	 */
+	public static Object beginRecordLock() {
+		return AVAILABLE ? RecordLockEvent.start() : null;
+	}
+
+	/**
+	 * @param started from {@link #beginRecordLock}
+	 * @param acquired false if timed out
+	 */
+	public static void recordLock(Object started, int recNo, boolean acquired) {
+		if(started != null)
+			RecordLockEvent.emit(started, recNo, acquired);
+	}
+
+	public static void recordUnlock(int recNo) {
+		if(AVAILABLE)
+			RecordUnlockEvent.emit(recNo);
+	}
+
+	public static Object beginFileIo() {
+		return AVAILABLE ? FileIoEvent.start() : null;
+	}
+
+	/**
+	 * @param started from {@link #beginFileIo}
+	 * @param operation e.g. "write"
+	 */
+	public static void fileIo(Object started, String path, String operation, long bytes) {
+		if(started != null)
+			FileIoEvent.emit(started, path, operation, bytes);
+	}
+
+	public static Object beginSearch() {
+		return AVAILABLE ? SearchEvent.start() : null;
+	}
+
+	/**
+	 * @param started from {@link #beginSearch}
+	 * @param criteria of the search, its class is recorded
+	 */
+	public static void search(Object started, Object criteria, int matches) {
+		if(started != null)
+			SearchEvent.emit(started, criteria, matches);
+	}
+
+	/**
+	 * @param message its class is recorded
+	 * @param size bytes on the wire, 0 if not known
+	 * @param corrId 0 if none
+	 */
+	public static void message(int sessionId, boolean sent, Object message, long size, long corrId) {
+		if(AVAILABLE)
+			MessageEvent.emit(sessionId, sent, message.getClass(), size, corrId);
+	}
+}
@@ -0,0 +1,45 @@
+package jcertdevtest.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * See {@link Events#fileIo}.
+ *
+ */
+@Name("jcertdevtest.FileIO")
+@Label("Data File IO")
+@Category({"jcertdevtest", "Database"})
+final class FileIoEvent extends Event {
+	@Label("Path")
+	String path;
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	static Object start() {
+		FileIoEvent event = new FileIoEvent();
+		if(!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void emit(Object started, String path, String operation, long bytes) {
+		FileIoEvent event = (FileIoEvent)started;
+		event.end();
+		if(!event.shouldCommit())
+			return;
+		event.path = path;
+		event.operation = operation;
+		event.bytes = bytes;
+		event.commit();
+	}
+}
@@ -0,0 +1,148 @@
+package jcertdevtest.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of operation latencies, bucketed the way HdrHistogram does:
+ * each power of 2 is split into 16 equal buckets, so any value is counted
+ * to within 1/16 (6.25%) of itself, in under a thousand buckets from 1ns
+ * to hundreds of years. Recording is a bucket index computation and
+ * {@link LongAdder} increments, so threads recording at once spread over
+ * their cells instead of contending on one counter.
+ *
+ * Percentiles are computed when read, e.g. over JMX, from counts that are
+ * not read atomically together, so may be off by the operations recorded
+ * while reading.
+ *
+ */
+public final class LatencyRecorder implements LatencyRecorderMXBean {
+	/** Values below 2^SUB_BITS are counted exactly */
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+	private static final int NUM_BUCKETS = SUB_COUNT + (64 - SUB_BITS) * HALF_COUNT;
+
+	private final String name;
+	private final LongAdder[] counts = new LongAdder[NUM_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final RateWindow opsRate = new RateWindow();
+
+	LatencyRecorder(String name) {
+		this.name = name;
+		for(int i = 0; i < counts.length; ++i)
+			counts[i] = new LongAdder();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param startNanos from {@link System#nanoTime} when the operation
+	 * started
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts[indexOf(nanos)].increment();
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	static int indexOf(long value) {
+		if(value < SUB_COUNT)
+			return (int)value;
+		// value >>> shift is in [HALF_COUNT, SUB_COUNT)
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (int)(value >>> shift) - HALF_COUNT;
+	}
+
+	/**
+	 * Highest value counted in the bucket.
+	 */
+	static long highestOf(int index) {
+		if(index < SUB_COUNT)
+			return index;
+		int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+		long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return nanos, highest of the bucket the percentile is in, 0 if none
+	 * recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for(int i = 0; i < NUM_BUCKETS; ++i) {
+			snapshot[i] = counts[i].sum();
+			total += snapshot[i];
+		}
+		if(total == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; ++i) {
+			seen += snapshot[i];
+			if(seen >= rank)
+				return highestOf(i);
+		}
+		return highestOf(NUM_BUCKETS - 1);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return toMicros(getPercentileNanos(50));
+	}
+
+	@Override
+	public double getP99Micros() {
+		return toMicros(getPercentileNanos(99));
+	}
+
+	@Override
+	public double getP999Micros() {
+		return toMicros(getPercentileNanos(99.9));
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return toMicros(getPercentileNanos(100));
+	}
+
+	@Override
+	public double getOpsPerSecond() {
+		return opsRate.get(count.sum());
+	}
+
+	@Override
+	public void reset() {
+		for(LongAdder bucket : counts)
+			bucket.reset();
+		count.reset();
+		totalNanos.reset();
+		opsRate.reset(0);
+	}
+
+	private static double toMicros(long nanos) {
+		return nanos / 1000.0;
+	}
+}
@@ -0,0 +1,24 @@
+package jcertdevtest.metrics;
+
+/**
+ * JMX view of a {@link LatencyRecorder}.
+ *
+ */
+public interface LatencyRecorderMXBean {
+	/**
+	 * Operations recorded since created or reset, for a client to compute
+	 * its own rate over any interval.
+	 */
+	long getCount();
+	double getMeanMicros();
+	double getP50Micros();
+	double getP99Micros();
+	double getP999Micros();
+	double getMaxMicros();
+	/**
+	 * Operations recorded per second over the last window of about a
+	 * second, the same for every client reading it.
+	 */
+	double getOpsPerSecond();
+	void reset();
+}
@@ -0,0 +1,48 @@
+package jcertdevtest.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * See {@link Events#message}.
+ *
+ */
+@Name("jcertdevtest.Message")
+@Label("Network Message")
+@Category({"jcertdevtest", "Network"})
+final class MessageEvent extends Event {
+	@Label("Session")
+	int sessionId;
+
+	@Label("Sent")
+	@Description("False if received")
+	boolean sent;
+
+	@Label("Message Type")
+	Class<?> messageType;
+
+	@Label("Size")
+	@Description("0 if not known")
+	@DataAmount
+	long size;
+
+	@Label("Correlation Id")
+	@Description("0 if none")
+	long corrId;
+
+	static void emit(int sessionId, boolean sent, Class<?> messageType, long size, long corrId) {
+		MessageEvent event = new MessageEvent();
+		if(!event.isEnabled())
+			return;
+		event.sessionId = sessionId;
+		event.sent = sent;
+		event.messageType = messageType;
+		event.size = size;
+		event.corrId = corrId;
+		event.commit();
+	}
+}
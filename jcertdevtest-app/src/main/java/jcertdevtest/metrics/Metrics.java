@@ -0,0 +1,68 @@
+package jcertdevtest.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Named {@link LatencyRecorder}s and {@link Counter}s, each exported as an
+ * MBean of the platform MBean server, e.g. to jconsole, as
+ * "jcertdevtest:type=Latency,name={name}" or 
+ * "jcertdevtest:type=Counter,name={name}".
+ *
+ * Like {@link Logger}, the same name gives the same instance across the
+ * JVM, so classes keep theirs in static fields.
+ *
+ */
+public final class Metrics {
+	private static final Logger log = Logger.getLogger(Metrics.class.getName());
+	private static final String DOMAIN = "jcertdevtest";
+	private static final ConcurrentHashMap<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	public static LatencyRecorder latency(String name) {
+		LatencyRecorder recorder = latencies.get(name);
+		if(recorder != null)
+			return recorder;
+		LatencyRecorder created = new LatencyRecorder(name);
+		recorder = latencies.putIfAbsent(name, created);
+		if(recorder != null)
+			return recorder;
+		register(created, "Latency", name);
+		return created;
+	}
+
+	public static Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if(counter != null)
+			return counter;
+		Counter created = new Counter(name);
+		counter = counters.putIfAbsent(name, created);
+		if(counter != null)
+			return counter;
+		register(created, "Counter", name);
+		return created;
+	}
+
+	static ObjectName getObjectName(String type, String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Metrics are still recorded if this fails, just not visible over JMX.
+	 */
+	private static void register(Object mbean, String type, String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, getObjectName(type, name));
+		} catch (JMException | SecurityException e) {
+			log.log(Level.WARNING, "Failed to register MBean for " + name, e);
+		}
+	}
+}
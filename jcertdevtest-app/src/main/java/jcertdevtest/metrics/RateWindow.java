@@ -0,0 +1,40 @@
+package jcertdevtest.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate of change of a cumulative value, over the last window of at least
+ * {@link #WINDOW_NANOS}. The window rolls over when read after it is due,
+ * not on each read, so JMX clients polling at once share it instead of
+ * each cutting short the window of the others. Read less often than the
+ * window, the rate is over the time since the last roll over.
+ *
+ */
+final class RateWindow {
+	static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	/** Guarded by this */
+	private long windowValue;
+	private long windowStart = System.nanoTime();
+	private double perSecond;
+
+	/**
+	 * @param current cumulative value now
+	 * @return per second over the last window completed, 0 before the first
+	 */
+	synchronized double get(long current) {
+		long now = System.nanoTime();
+		long elapsed = now - windowStart;
+		if(elapsed >= WINDOW_NANOS) {
+			perSecond = (current - windowValue) / ((double)elapsed / TimeUnit.SECONDS.toNanos(1));
+			windowValue = current;
+			windowStart = now;
+		}
+		return perSecond;
+	}
+
+	synchronized void reset(long current) {
+		windowValue = current;
+		windowStart = System.nanoTime();
+		perSecond = 0;
+	}
+}
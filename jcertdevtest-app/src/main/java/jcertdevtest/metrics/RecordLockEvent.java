@@ -0,0 +1,42 @@
+package jcertdevtest.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A record lock got or timed out, see {@link Events#recordLock}.
+ *
+ */
+@Name("jcertdevtest.RecordLock")
+@Label("Record Lock")
+@Category({"jcertdevtest", "Database"})
+@Description("Wait for a record lock, the duration is the time waited")
+final class RecordLockEvent extends Event {
+	@Label("Record")
+	int recNo;
+
+	@Label("Acquired")
+	@Description("False if timed out")
+	boolean acquired;
+
+	static Object start() {
+		RecordLockEvent event = new RecordLockEvent();
+		if(!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void emit(Object started, int recNo, boolean acquired) {
+		RecordLockEvent event = (RecordLockEvent)started;
+		event.end();
+		if(!event.shouldCommit())
+			return;
+		event.recNo = recNo;
+		event.acquired = acquired;
+		event.commit();
+	}
+}
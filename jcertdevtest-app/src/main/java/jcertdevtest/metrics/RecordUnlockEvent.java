@@ -0,0 +1,29 @@
+package jcertdevtest.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * See {@link Events#recordUnlock}. One for every lock taken, so off unless
+ * enabled in the recording settings.
+ *
+ */
+@Name("jcertdevtest.RecordUnlock")
+@Label("Record Unlock")
+@Category({"jcertdevtest", "Database"})
+@Enabled(false)
+final class RecordUnlockEvent extends Event {
+	@Label("Record")
+	int recNo;
+
+	static void emit(int recNo) {
+		RecordUnlockEvent event = new RecordUnlockEvent();
+		if(!event.isEnabled())
+			return;
+		event.recNo = recNo;
+		event.commit();
+	}
+}
@@ -0,0 +1,39 @@
+package jcertdevtest.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * See {@link Events#search}.
+ *
+ */
+@Name("jcertdevtest.Search")
+@Label("Search")
+@Category({"jcertdevtest", "Service"})
+final class SearchEvent extends Event {
+	@Label("Criteria Type")
+	Class<?> criteriaType;
+
+	@Label("Matches")
+	int matches;
+
+	static Object start() {
+		SearchEvent event = new SearchEvent();
+		if(!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void emit(Object started, Object criteria, int matches) {
+		SearchEvent event = (SearchEvent)started;
+		event.end();
+		if(!event.shouldCommit())
+			return;
+		event.criteriaType = criteria.getClass();
+		event.matches = matches;
+		event.commit();
+	}
+}
@@ -0,0 +1,76 @@
+package jcertdevtest.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Heartbeats and inactivity timeout of a {@link Session}, on a shared
+ * {@link TimerWheel} instead of threads of its own.
+ * 
+ * A heartbeat is only sent when nothing else was sent for the heartbeat
+ * interval, any message tells the far end the connection is alive. If
+ * nothing is received for the receive timeout, 
+ * {@link RemoteNoActivityException} is reported to the listener.
+ * 
+ */
+final class ActivityMonitor implements Runnable {
+	private static final Logger log = Logger.getLogger(ActivityMonitor.class.getName());
+	private final TimerWheel timer;
+	private final Session session;
+	private final long heartbeatMillis;
+	private final long recvTimeoutMillis;
+	private SessionEventListener listener;
+	private volatile long lastRecvTime;
+	private volatile long lastSendTime;
+	private volatile TimerWheel.Timeout timeout;
+	private volatile boolean stopped;
+
+	public ActivityMonitor(TimerWheel timer, Session session, long heartbeatMillis, long recvTimeoutMillis) {
+		this.timer = timer;
+		this.session = session;
+		this.heartbeatMillis = heartbeatMillis;
+		this.recvTimeoutMillis = recvTimeoutMillis;
+	}
+
+	public void start(SessionEventListener listener) {
+		this.listener = listener;
+		long now = System.currentTimeMillis();
+		lastRecvTime = now;
+		lastSendTime = now;
+		timeout = timer.schedule(this, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		stopped = true;
+		TimerWheel.Timeout timeout = this.timeout;
+		if(timeout != null)
+			timeout.cancel();
+	}
+
+	public void onReceived() {
+		lastRecvTime = System.currentTimeMillis();
+	}
+
+	public void onSent() {
+		lastSendTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public void run() {
+		if(stopped)
+			return;
+		long now = System.currentTimeMillis();
+		if(now - lastRecvTime > recvTimeoutMillis) {
+			log.severe("No message received from remote for " + recvTimeoutMillis + "ms. Disconnecting.");
+			listener.onError(new RemoteNoActivityException());
+			return;
+		}
+		if(now - lastSendTime >= heartbeatMillis) {
+			session.send(NetworkSession.heartbeat);
+			lastSendTime = now;
+		}
+		// next heartbeat due, or the timeout if sooner
+		long next = Math.min(lastSendTime + heartbeatMillis, lastRecvTime + recvTimeoutMillis + 1);
+		timeout = timer.schedule(this, Math.max(next - now, 1), TimeUnit.MILLISECONDS);
+	}
+}
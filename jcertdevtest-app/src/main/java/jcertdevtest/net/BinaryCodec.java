@@ -0,0 +1,552 @@
+package jcertdevtest.net;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.SearchCriteriaAll;
+import jcertdevtest.SearchCriteriaExact;
+import jcertdevtest.SearchCriteriaExactAnd;
+import jcertdevtest.SearchCriteriaExactOr;
+import jcertdevtest.SortKey;
+
+/**
+ * Binary encoding of the booking protocol messages, used instead of java
+ * serialization for {@link WireProtocol#BINARY}.
+ * 
+ * Negotiation: after connecting, the client sends {@link MAGIC}. The server
+ * always starts with the serialization stream header, which the client
+ * skips, then on receiving MAGIC sends it back to accept. A server that
+ * does not know the binary protocol fails to read MAGIC as a serialization
+ * header and closes the connection.
+ * 
+ * Each message is a frame of its length (int, excluding itself, at most
+ * {@link MAX_FRAME_LENGTH}, checked on both ends), an opcode byte, then the
+ * fields. Strings are their UTF-8 length (int, -1 for null)
+ * and bytes. Rooms of a search result are fixed width records as in the 
+ * data file: the widths of each field are sent once, then each room as 
+ * recNo, a bit set of null fields, and each field as ASCII padded with
+ * spaces. A null room is recNo -1 alone. Search criteria end with the
+ * offset, limit and ordinal of the sort key, -1 for none.
+ * 
+ * The last byte of MAGIC is the version. A server of another version does
+ * not send MAGIC back and closes the connection instead of misreading the
+ * messages. {@link NetworkClient} then reconnects with serialization,
+ * there is no fallback within the connection.
+ * 
+ */
+final class BinaryCodec {
+	static final byte[] MAGIC = {'J', 'C', 'B', 2};
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	static final int MAX_FRAME_LENGTH = 64 << 20;
+	private static final byte SPACE = 32;
+
+	private static final byte OP_HEARTBEAT = 1;
+	private static final byte OP_SEARCH_REQUEST = 2;
+	private static final byte OP_BOOKING_REQUEST = 3;
+	private static final byte OP_RESPONSE = 4;
+	private static final byte OP_SEARCH_RESPONSE = 5;
+	private static final byte OP_BATCH_BOOKING_REQUEST = 6;
+	private static final byte OP_BATCH_BOOKING_RESPONSE = 7;
+	private static final byte OP_GET_ROOMS_REQUEST = 8;
+	private static final byte OP_GET_ROOMS_RESPONSE = 9;
+	private static final byte OP_STREAM_SEARCH_REQUEST = 10;
+	private static final byte OP_STREAM_CREDIT = 11;
+	private static final byte OP_SEARCH_CHUNK = 12;
+
+	private static final byte CRITERIA_ALL = 0;
+	private static final byte CRITERIA_AND = 1;
+	private static final byte CRITERIA_OR = 2;
+
+	private BinaryCodec() {
+	}
+
+	/**
+	 * A message does not fit in {@link MAX_FRAME_LENGTH}, the receiver would
+	 * take it as corrupt.
+	 */
+	static final class FrameTooLongException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		public FrameTooLongException() {
+			super("Frame longer than " + MAX_FRAME_LENGTH + " bytes");
+		}
+	}
+
+	/**
+	 * Bytes of frames being encoded, with room for the length at the start.
+	 * Grown for a large frame, then shrunk back, so a session does not
+	 * keep the largest frame it ever sent. Not thread safe.
+	 */
+	static final class FrameBuffer {
+		private static final int INITIAL_LENGTH = 256;
+		/** Kept between frames, larger is dropped */
+		private static final int RETAINED_LENGTH = 64 << 10;
+		private byte[] buf = new byte[INITIAL_LENGTH];
+		private int count = 4;
+
+		/**
+		 * The frame encoded since the last call, length included.
+		 */
+		public byte[] toFrame() {
+			int length = count - 4;
+			buf[0] = (byte)(length >>> 24);
+			buf[1] = (byte)(length >>> 16);
+			buf[2] = (byte)(length >>> 8);
+			buf[3] = (byte)length;
+			byte[] frame = Arrays.copyOf(buf, count);
+			reset();
+			return frame;
+		}
+
+		/**
+		 * Discards a frame partly encoded.
+		 */
+		public void reset() {
+			count = 4;
+			if(buf.length > RETAINED_LENGTH)
+				buf = new byte[INITIAL_LENGTH];
+		}
+
+		/**
+		 * @throws FrameTooLongException before growing past the max
+		 */
+		private void ensure(int length) {
+			if((long)count - 4 + length > MAX_FRAME_LENGTH)
+				throw new FrameTooLongException();
+			if(count + length > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+		}
+
+		void write(int value) {
+			ensure(1);
+			buf[count++] = (byte)value;
+		}
+
+		void writeInt(int value) {
+			ensure(4);
+			buf[count++] = (byte)(value >>> 24);
+			buf[count++] = (byte)(value >>> 16);
+			buf[count++] = (byte)(value >>> 8);
+			buf[count++] = (byte)value;
+		}
+
+		void writeShort(int value) {
+			ensure(2);
+			buf[count++] = (byte)(value >>> 8);
+			buf[count++] = (byte)value;
+		}
+
+		void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		void writeString(String value) {
+			if(value == null) {
+				writeInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes(UTF8);
+			writeInt(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, count, bytes.length);
+			count += bytes.length;
+		}
+
+		/**
+		 * ASCII, padded with spaces to the width.
+		 */
+		void writeFixed(String value, int width) {
+			ensure(width);
+			int length = value == null ? 0 : value.length();
+			for(int i = 0; i < length; ++i) {
+				char c = value.charAt(i);
+				buf[count++] = c < 128 ? (byte)c : (byte)'?';
+			}
+			Arrays.fill(buf, count, count + width - length, SPACE);
+			count += width - length;
+		}
+	}
+
+	/**
+	 * Encodes one message as a frame into out.
+	 * 
+	 * @throws IllegalArgumentException if the message type is not part of
+	 * the protocol.
+	 */
+	static void encode(Object message, FrameBuffer out) {
+		if(message instanceof RemoteHeartbeat) {
+			out.write(OP_HEARTBEAT);
+		} else if(message instanceof RemoteSearchRequest) {
+			RemoteSearchRequest request = (RemoteSearchRequest)message;
+			out.write(OP_SEARCH_REQUEST);
+			out.writeLong(request.getCorrId());
+			encodeCriteria(request.getCriteria(), out);
+		} else if(message instanceof RemoteBookingRequest) {
+			RemoteBookingRequest request = (RemoteBookingRequest)message;
+			Booking booking = request.getBooking();
+			out.write(OP_BOOKING_REQUEST);
+			out.writeLong(request.getCorrId());
+			out.writeInt(booking.getRecNo());
+			out.writeString(booking.getCustomer());
+		} else if(message instanceof RemoteBatchBookingRequest) {
+			RemoteBatchBookingRequest request = (RemoteBatchBookingRequest)message;
+			out.write(OP_BATCH_BOOKING_REQUEST);
+			out.writeLong(request.getCorrId());
+			out.writeInt(request.getBookings().length);
+			for(Booking booking : request.getBookings()) {
+				out.writeInt(booking.getRecNo());
+				out.writeString(booking.getCustomer());
+			}
+		} else if(message instanceof RemoteGetRoomsRequest) {
+			RemoteGetRoomsRequest request = (RemoteGetRoomsRequest)message;
+			out.write(OP_GET_ROOMS_REQUEST);
+			out.writeLong(request.getCorrId());
+			out.writeInt(request.getRecNos().length);
+			for(int recNo : request.getRecNos())
+				out.writeInt(recNo);
+		} else if(message instanceof RemoteStreamSearchRequest) {
+			RemoteStreamSearchRequest request = (RemoteStreamSearchRequest)message;
+			out.write(OP_STREAM_SEARCH_REQUEST);
+			out.writeLong(request.getCorrId());
+			encodeCriteria(request.getCriteria(), out);
+			out.writeInt(request.getChunkSize());
+			out.writeInt(request.getWindow());
+		} else if(message instanceof RemoteStreamCredit) {
+			RemoteStreamCredit credit = (RemoteStreamCredit)message;
+			out.write(OP_STREAM_CREDIT);
+			out.writeLong(credit.getCorrId());
+			out.writeLong(credit.getStreamId());
+			out.writeInt(credit.getCredit());
+			out.write(credit.isCancel() ? 1 : 0);
+		} else if(message instanceof RemoteSearchChunk) {
+			RemoteSearchChunk chunk = (RemoteSearchChunk)message;
+			out.write(OP_SEARCH_CHUNK);
+			encodeResponse(chunk, out);
+			out.write(chunk.isLast() ? 1 : 0);
+			encodeRooms(chunk.getResult(), out);
+		} else if(message instanceof RemoteSearchResponse) {
+			RemoteSearchResponse response = (RemoteSearchResponse)message;
+			out.write(OP_SEARCH_RESPONSE);
+			encodeResponse(response, out);
+			encodeRooms(response.getResult(), out);
+		} else if(message instanceof RemoteGetRoomsResponse) {
+			RemoteGetRoomsResponse response = (RemoteGetRoomsResponse)message;
+			out.write(OP_GET_ROOMS_RESPONSE);
+			encodeResponse(response, out);
+			encodeRooms(response.getResult(), out);
+		} else if(message instanceof RemoteBatchBookingResponse) {
+			RemoteBatchBookingResponse response = (RemoteBatchBookingResponse)message;
+			out.write(OP_BATCH_BOOKING_RESPONSE);
+			encodeResponse(response, out);
+			BookingResult[] results = response.getResults();
+			out.writeInt(results == null ? -1 : results.length);
+			if(results != null) {
+				for(BookingResult result : results) {
+					out.writeInt(result.getRecNo());
+					out.write(result.isSuccess() ? 1 : 0);
+					out.writeString(result.getMessage());
+				}
+			}
+		} else if(message instanceof RemoteResponse) {
+			out.write(OP_RESPONSE);
+			encodeResponse((RemoteResponse)message, out);
+		} else {
+			throw new IllegalArgumentException("Cannot encode " + message.getClass());
+		}
+	}
+
+	private static void encodeCriteria(SearchCriteria criteria, FrameBuffer out) {
+		if(criteria instanceof SearchCriteriaExactAnd) {
+			out.write(CRITERIA_AND);
+		} else if(criteria instanceof SearchCriteriaExactOr) {
+			out.write(CRITERIA_OR);
+		} else if(criteria instanceof SearchCriteriaAll) {
+			out.write(CRITERIA_ALL);
+		} else {
+			throw new IllegalArgumentException("Cannot encode " + criteria.getClass());
+		}
+		if(criteria instanceof SearchCriteriaExact) {
+			SearchCriteriaExact exact = (SearchCriteriaExact)criteria;
+			out.writeString(exact.getName());
+			out.writeString(exact.getLocation());
+		}
+		out.writeInt(criteria.getOffset());
+		out.writeInt(criteria.getLimit());
+		out.write(criteria.getSort() == null ? -1 : criteria.getSort().ordinal());
+	}
+
+	private static void encodeResponse(RemoteResponse response, FrameBuffer out) {
+		out.writeLong(response.getCorrId());
+		out.write(response.isSuccess() ? 1 : 0);
+		out.writeString(response.getMessage());
+	}
+
+	private static void encodeRooms(Room[] rooms, FrameBuffer out) {
+		if(rooms == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(rooms.length);
+		if(rooms.length == 0)
+			return;
+		String[][] records = new String[rooms.length][];
+		int[] widths = new int[Room.NumFields];
+		for(int i = 0; i < rooms.length; ++i) {
+			if(rooms[i] == null)
+				continue;
+			records[i] = rooms[i].toRecord();
+			for(int fieldNum = 0; fieldNum < Room.NumFields; ++fieldNum) {
+				String value = records[i][fieldNum];
+				if(value != null)
+					widths[fieldNum] = Math.max(widths[fieldNum], value.length());
+			}
+		}
+		out.write(Room.NumFields);
+		for(int width : widths)
+			out.writeShort(width);
+		for(int i = 0; i < rooms.length; ++i) {
+			if(rooms[i] == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			out.writeInt(rooms[i].getRecNo());
+			String[] record = records[i];
+			int nulls = 0;
+			for(int fieldNum = 0; fieldNum < Room.NumFields; ++fieldNum) {
+				if(record[fieldNum] == null)
+					nulls |= 1 << fieldNum;
+			}
+			out.write(nulls);
+			for(int fieldNum = 0; fieldNum < Room.NumFields; ++fieldNum)
+				out.writeFixed(record[fieldNum], widths[fieldNum]);
+		}
+	}
+
+	/**
+	 * Reads one frame and decodes its message.
+	 */
+	static Object decode(DataInputStream in) throws IOException {
+		int length = checkFrameLength(in.readInt());
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return decodeFrame(ByteBuffer.wrap(frame));
+	}
+
+	static int checkFrameLength(int length) throws StreamCorruptedException {
+		if(length <= 0 || length > MAX_FRAME_LENGTH)
+			throw new StreamCorruptedException("Invalid frame length " + length);
+		return length;
+	}
+
+	/**
+	 * @param frame from its position to its limit, without the length
+	 */
+	static Object decodeFrame(ByteBuffer frame) throws StreamCorruptedException {
+		try {
+			return decode(frame);
+		} catch (RuntimeException e) {
+			// buffer underflow, bad enum etc. from a malformed frame
+			StreamCorruptedException corrupted = new StreamCorruptedException("Invalid frame");
+			corrupted.initCause(e);
+			throw corrupted;
+		}
+	}
+
+	private static Object decode(ByteBuffer in) throws StreamCorruptedException {
+		byte op = in.get();
+		switch(op) {
+		case OP_HEARTBEAT:
+			return NetworkSession.heartbeat;
+		case OP_SEARCH_REQUEST: {
+			RemoteSearchRequest request = new RemoteSearchRequest();
+			request.setCorrId(in.getLong());
+			request.setCriteria(decodeCriteria(in));
+			return request;
+		}
+		case OP_STREAM_SEARCH_REQUEST: {
+			RemoteStreamSearchRequest request = new RemoteStreamSearchRequest();
+			request.setCorrId(in.getLong());
+			request.setCriteria(decodeCriteria(in));
+			request.setChunkSize(in.getInt());
+			request.setWindow(in.getInt());
+			return request;
+		}
+		case OP_STREAM_CREDIT: {
+			RemoteStreamCredit credit = new RemoteStreamCredit();
+			credit.setCorrId(in.getLong());
+			credit.setStreamId(in.getLong());
+			credit.setCredit(in.getInt());
+			credit.setCancel(in.get() != 0);
+			return credit;
+		}
+		case OP_SEARCH_CHUNK: {
+			RemoteSearchChunk chunk = new RemoteSearchChunk();
+			decodeResponse(in, chunk);
+			chunk.setLast(in.get() != 0);
+			chunk.setResult(decodeRooms(in));
+			return chunk;
+		}
+		case OP_BOOKING_REQUEST: {
+			RemoteBookingRequest request = new RemoteBookingRequest();
+			request.setCorrId(in.getLong());
+			Booking booking = new Booking();
+			booking.setRecNo(in.getInt());
+			booking.setCustomer(readString(in));
+			request.setBooking(booking);
+			return request;
+		}
+		case OP_BATCH_BOOKING_REQUEST: {
+			RemoteBatchBookingRequest request = new RemoteBatchBookingRequest();
+			request.setCorrId(in.getLong());
+			Booking[] bookings = new Booking[checkCount(in.getInt(), in)];
+			for(int i = 0; i < bookings.length; ++i) {
+				bookings[i] = new Booking();
+				bookings[i].setRecNo(in.getInt());
+				bookings[i].setCustomer(readString(in));
+			}
+			request.setBookings(bookings);
+			return request;
+		}
+		case OP_GET_ROOMS_REQUEST: {
+			RemoteGetRoomsRequest request = new RemoteGetRoomsRequest();
+			request.setCorrId(in.getLong());
+			int[] recNos = new int[checkCount(in.getInt(), in)];
+			for(int i = 0; i < recNos.length; ++i)
+				recNos[i] = in.getInt();
+			request.setRecNos(recNos);
+			return request;
+		}
+		case OP_BATCH_BOOKING_RESPONSE: {
+			RemoteBatchBookingResponse response = new RemoteBatchBookingResponse();
+			decodeResponse(in, response);
+			int count = in.getInt();
+			if(count >= 0) {
+				BookingResult[] results = new BookingResult[checkCount(count, in)];
+				for(int i = 0; i < results.length; ++i)
+					results[i] = new BookingResult(in.getInt(), in.get() != 0, readString(in));
+				response.setResults(results);
+			}
+			return response;
+		}
+		case OP_GET_ROOMS_RESPONSE: {
+			RemoteGetRoomsResponse response = new RemoteGetRoomsResponse();
+			decodeResponse(in, response);
+			response.setResult(decodeRooms(in));
+			return response;
+		}
+		case OP_RESPONSE: {
+			RemoteResponse response = new RemoteResponse();
+			decodeResponse(in, response);
+			return response;
+		}
+		case OP_SEARCH_RESPONSE: {
+			RemoteSearchResponse response = new RemoteSearchResponse();
+			decodeResponse(in, response);
+			response.setResult(decodeRooms(in));
+			return response;
+		}
+		default:
+			throw new StreamCorruptedException("Unknown opcode " + op);
+		}
+	}
+
+	private static SearchCriteria decodeCriteria(ByteBuffer in) throws StreamCorruptedException {
+		byte type = in.get();
+		SearchCriteria criteria;
+		switch(type) {
+		case CRITERIA_ALL:
+			criteria = new SearchCriteriaAll();
+			break;
+		case CRITERIA_AND:
+			criteria = new SearchCriteriaExactAnd();
+			break;
+		case CRITERIA_OR:
+			criteria = new SearchCriteriaExactOr();
+			break;
+		default:
+			throw new StreamCorruptedException("Unknown search criteria " + type);
+		}
+		if(criteria instanceof SearchCriteriaExact) {
+			SearchCriteriaExact exact = (SearchCriteriaExact)criteria;
+			exact.setName(readString(in));
+			exact.setLocation(readString(in));
+		}
+		criteria.setOffset(in.getInt());
+		criteria.setLimit(in.getInt());
+		byte sort = in.get();
+		if(sort >= SortKey.values().length)
+			throw new StreamCorruptedException("Unknown sort " + sort);
+		if(sort >= 0)
+			criteria.setSort(SortKey.values()[sort]);
+		return criteria;
+	}
+
+	private static void decodeResponse(ByteBuffer in, RemoteResponse response) {
+		response.setCorrId(in.getLong());
+		response.setSuccess(in.get() != 0);
+		response.setMessage(readString(in));
+	}
+
+	private static Room[] decodeRooms(ByteBuffer in) {
+		int count = in.getInt();
+		if(count < 0)
+			return null;
+		Room[] rooms = new Room[checkCount(count, in)];
+		if(count == 0)
+			return rooms;
+		int numFields = in.get();
+		int[] widths = new int[numFields];
+		for(int fieldNum = 0; fieldNum < numFields; ++fieldNum)
+			widths[fieldNum] = in.getShort();
+		byte[] bytes = in.array();
+		for(int i = 0; i < count; ++i) {
+			int recNo = in.getInt();
+			if(recNo == -1)
+				continue;
+			int nulls = in.get();
+			String[] record = new String[numFields];
+			int pos = in.position();
+			for(int fieldNum = 0; fieldNum < numFields; ++fieldNum) {
+				if((nulls & (1 << fieldNum)) == 0) {
+					int end = pos + widths[fieldNum];
+					while(end > pos && bytes[end - 1] == SPACE)
+						--end;
+					record[fieldNum] = new String(bytes, pos, end - pos, ASCII);
+				}
+				pos += widths[fieldNum];
+			}
+			in.position(pos);
+			rooms[i] = Room.fromRecord(recNo, record);
+		}
+		return rooms;
+	}
+
+	/**
+	 * Every item takes at least 4 bytes, so a larger count is corrupt. 
+	 * Checked before allocating for it.
+	 */
+	private static int checkCount(int count, ByteBuffer in) {
+		if(count < 0 || count > in.remaining() / 4)
+			throw new IllegalArgumentException("Invalid count " + count);
+		return count;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if(length < 0)
+			return null;
+		String value = new String(in.array(), in.position(), length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,138 @@
+package jcertdevtest.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One thread running a {@link Selector} for any number of channels.
+ * Channels are registered with a {@link Handler} called on this thread
+ * when they are ready. Anything touching the selector or the keys from
+ * another thread goes through {@link execute}.
+ * 
+ */
+final class EventLoop implements Runnable {
+	private static final Logger log = Logger.getLogger(EventLoop.class.getName());
+
+	interface Handler {
+		/**
+		 * Called on the loop thread for a ready key. An exception, or any
+		 * other throwable, closes the channel of this key only.
+		 */
+		public void handle(SelectionKey key) throws IOException;
+		public void onClosed(IOException e);
+	}
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	public EventLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		stopped = true;
+		selector.wakeup();
+		thread.join(10000);
+	}
+
+	/**
+	 * Runs the task on the loop thread.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if(Thread.currentThread() != thread)
+			selector.wakeup();
+	}
+
+	/**
+	 * Must be called on the loop thread, e.g. from a task.
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+		return channel.register(selector, ops, handler);
+	}
+
+	@Override
+	public void run() {
+		log.info("Event loop started");
+		try {
+			while(!stopped) {
+				// tasks added by handlers on this thread did not wake it up
+				if(tasks.isEmpty())
+					selector.select();
+				else
+					selector.selectNow();
+				Runnable task;
+				while((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException | Error e) {
+						log.log(Level.SEVERE, "Event loop task failed", e);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Handler handler = (Handler)key.attachment();
+					try {
+						if(key.isValid())
+							handler.handle(key);
+					} catch (IOException e) {
+						close(key, handler, e);
+					} catch (RuntimeException | Error e) {
+						// e.g. a stack overflow on a hostile message, not to
+						// take down the other channels of this loop
+						log.log(Level.SEVERE, "Event loop handler failed", e);
+						close(key, handler, new IOException(e.toString(), e));
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			log.log(Level.SEVERE, "Event loop failed", e);
+		} finally {
+			for(SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					log.log(Level.FINE, "Failed to close channel", e);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Failed to close selector", e);
+			}
+		}
+		log.info("Event loop stopped");
+	}
+
+	private static void close(SelectionKey key, Handler handler, IOException e) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException closeError) {
+			log.log(Level.FINE, "Failed to close channel", closeError);
+		}
+		try {
+			handler.onClosed(e);
+		} catch (RuntimeException closeError) {
+			log.log(Level.SEVERE, "Failed to close handler", closeError);
+		}
+	}
+}
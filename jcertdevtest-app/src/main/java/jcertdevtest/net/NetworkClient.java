@@ -1,54 +1,256 @@
 package jcertdevtest.net;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Used by {@link RemoteBookingServiceClient} for handling the networking to 
- * server.
- * Exposes the request-response method call as normal blocking method call 
- * with return value, by internally managing the underlying session which is
- * non-blocking.
+ * Used by {@link RemoteAsyncBookingServiceClient} for handling the 
+ * networking to server.
+ * Exposes the request-response as a future per request, completed when the
+ * response with its corrId arrives. Any number of requests can be 
+ * outstanding on the one connection.
  * 
  * @author Ken Goh
  *
  */
 public class NetworkClient implements SessionEventListener {
 	private static final Logger log = Logger.getLogger(NetworkClient.class.getName());
-	private final ExecutorService exec = Executors.newCachedThreadPool();
+	private final ExecutorService exec;
 	private final Socket conn;
 	private final NetworkSession session;
-	private final ConcurrentHashMap<Long, RemoteResponse> responses = new ConcurrentHashMap<>();
+	/** Waiting for response, by corrId */
+	private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+	/** Streaming responses, by corrId */
+	private final ConcurrentHashMap<Long, StreamListener> streams = new ConcurrentHashMap<>();
 	private AtomicLong newCorrId = new AtomicLong(1);
-	private long timeout = 10000;
+	public static final long DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+	/** 0 to wait without limit */
+	private volatile long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+	private volatile long writeTimeoutMillis = 0;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile Runnable closedListener;
 	
 	public NetworkClient(String host, int port) throws UnknownHostException, IOException {
-		conn = new Socket(host, port);
-		session = new NetworkSession(-1, exec, conn);
+		this(host, port, WireProtocol.BINARY);
+	}
+
+	/**
+	 * If the server does not accept {@link WireProtocol#BINARY}, reconnects
+	 * with serialization.
+	 */
+	public NetworkClient(String host, int port, WireProtocol protocol) throws UnknownHostException, IOException {
+		this(host, port, protocol, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * @param threadMode of the threads reading and writing the socket
+	 */
+	public NetworkClient(String host, int port, WireProtocol protocol, ThreadMode threadMode) 
+			throws UnknownHostException, IOException {
+		this.exec = threadMode.newCachedPool();
+		Socket conn = connect(host, port);
+		NetworkSession session;
+		try {
+			session = new NetworkSession(-1, exec, conn, protocol);
+		} catch (IOException e) {
+			if(protocol != WireProtocol.BINARY)
+				throw e;
+			log.log(Level.WARNING, "Binary protocol not accepted, falling back to serialization", e);
+			conn.close();
+			conn = connect(host, port);
+			session = new NetworkSession(-1, exec, conn, WireProtocol.SERIALIZED);
+		}
+		this.conn = conn;
+		this.session = session;
+	}
+
+	private static Socket connect(String host, int port) throws IOException {
+		Socket conn = new Socket(host, port);
+		conn.setTcpNoDelay(true);
+		return conn;
 	}
 	
 	public void start() {
 		session.setEventListener(this);
 		session.start();
 	}
+
+	/**
+	 * Closes the connection, failing any outstanding requests.
+	 */
+	public void close() {
+		if(!closed.get())
+			session.stop();
+	}
+
+	/**
+	 * False once the connection is closed, by either end or by the 
+	 * heartbeat timing out.
+	 */
+	public boolean isOpen() {
+		return !closed.get();
+	}
+
+	/**
+	 * Number of requests waiting for a response.
+	 */
+	public int getOutstanding() {
+		return pending.size();
+	}
+
+	/**
+	 * Called once when the connection is closed, on whichever thread 
+	 * noticed.
+	 */
+	void setClosedListener(Runnable listener) {
+		this.closedListener = listener;
+	}
+	
+	/**
+	 * Time to wait for the response before failing the request, 0 to wait
+	 * without limit. A write that times out may still be committed by the 
+	 * server, so by default they wait.
+	 * 
+	 * @param readMillis for requests that do not change anything, default
+	 * {@link #DEFAULT_READ_TIMEOUT_MILLIS}
+	 * @param writeMillis for bookings, default 0
+	 */
+	public void setTimeouts(long readMillis, long writeMillis) {
+		this.readTimeoutMillis = readMillis;
+		this.writeTimeoutMillis = writeMillis;
+	}
+
+	private static boolean isWrite(RemoteRequest request) {
+		return request instanceof RemoteBookingRequest || request instanceof RemoteBatchBookingRequest;
+	}
 	
-	public RemoteResponse send(RemoteRequest request) throws InterruptedException {
+	/**
+	 * Completed exceptionally with IOException if the connection is
+	 * closed, or TimeoutException if no response within the timeout, 
+	 * {@link OutcomeUnknownException} for a write.
+	 */
+	public CompletableFuture<RemoteResponse> send(RemoteRequest request) {
 		long corrId = newCorrId.incrementAndGet();
 		request.setCorrId(corrId);
+		boolean write = isWrite(request);
+		Pending call = new Pending(corrId, write);
+		pending.put(corrId, call);
+		if(closed.get()) {
+			// closed before it could be registered, failAll() may have missed it
+			call.fail(new IOException("Connection closed"));
+			return call;
+		}
+		long timeout = write ? writeTimeoutMillis : readTimeoutMillis;
+		if(timeout > 0)
+			call.timeout = NetworkSession.sharedTimer.schedule(call, timeout, TimeUnit.MILLISECONDS);
 		session.send(request);
-		synchronized(responses) {
-			while(!responses.containsKey(corrId)) {
-				responses.wait(timeout);
-			}
-			return responses.remove(corrId);
+		return call;
+	}
+
+	/**
+	 * Receives the responses to a request answered more than once, e.g. 
+	 * {@link RemoteStreamSearchRequest}, on the thread reading the 
+	 * connection.
+	 */
+	interface StreamListener {
+		/**
+		 * Called until one that ends the stream, see {@link #isStreamEnd}.
+		 */
+		void onResponse(RemoteResponse response);
+
+		/**
+		 * Connection closed before the stream ended.
+		 */
+		void onError(Exception e);
+	}
+
+	/**
+	 * Responses with the corrId of the request are passed to the listener
+	 * until one ends the stream. No timeout, the listener has to give up on 
+	 * its own.
+	 */
+	void stream(RemoteRequest request, StreamListener listener) {
+		long corrId = newCorrId.incrementAndGet();
+		request.setCorrId(corrId);
+		streams.put(corrId, listener);
+		if(closed.get()) {
+			if(streams.remove(corrId, listener))
+				listener.onError(new IOException("Connection closed"));
+			return;
+		}
+		session.send(request);
+	}
+
+	/**
+	 * Stops passing responses of the stream to its listener, e.g. when the
+	 * listener gives up before the end.
+	 */
+	void removeStream(long corrId) {
+		streams.remove(corrId);
+	}
+
+	/**
+	 * Sends a request that is not answered, e.g. {@link RemoteStreamCredit}.
+	 */
+	void post(RemoteRequest request) {
+		session.send(request);
+	}
+
+	/**
+	 * A failure, or any response other than a chunk that is not the last.
+	 */
+	static boolean isStreamEnd(RemoteResponse response) {
+		return !response.isSuccess() || !(response instanceof RemoteSearchChunk)
+				|| ((RemoteSearchChunk)response).isLast();
+	}
+
+	/**
+	 * Future of a request, timing itself out on the timer.
+	 */
+	private final class Pending extends CompletableFuture<RemoteResponse> implements Runnable {
+		private final long corrId;
+		private final boolean write;
+		private volatile TimerWheel.Timeout timeout;
+
+		public Pending(long corrId, boolean write) {
+			this.corrId = corrId;
+			this.write = write;
+		}
+
+		@Override
+		public void run() {
+			if(!pending.remove(corrId, this))
+				return;
+			if(write)
+				completeExceptionally(new OutcomeUnknownException("No response to request " + corrId
+						+ ", it may still be committed"));
+			else
+				completeExceptionally(new TimeoutException("No response to request " + corrId));
+		}
+
+		void respond(RemoteResponse response) {
+			TimerWheel.Timeout timeout = this.timeout;
+			if(timeout != null)
+				timeout.cancel();
+			complete(response);
+		}
+
+		void fail(Exception e) {
+			pending.remove(corrId, this);
+			TimerWheel.Timeout timeout = this.timeout;
+			if(timeout != null)
+				timeout.cancel();
+			completeExceptionally(e);
 		}
 	}
 	
@@ -58,15 +260,21 @@ public class NetworkClient implements SessionEventListener {
 		}
 		else if(o instanceof RemoteResponse) {
 			RemoteResponse response = (RemoteResponse)o;
-			synchronized(responses) {
-				responses.put(response.getCorrId(), response);
-				responses.notifyAll();
+			Pending call = pending.remove(response.getCorrId());
+			if(call != null) {
+				call.respond(response);
+				return;
 			}
+			StreamListener stream = isStreamEnd(response) 
+					? streams.remove(response.getCorrId()) : streams.get(response.getCorrId());
+			if(stream != null)
+				stream.onResponse(response);
 		}
 	}
 	
 	public void onError(Exception e) {
-		if(e instanceof EOFException
+		// any IO error leaves the connection unusable, e.g. a reset
+		if(e instanceof IOException
 				|| e instanceof RemoteNoActivityException) {
 			session.signalStop();
 		} else {
@@ -75,6 +283,22 @@ public class NetworkClient implements SessionEventListener {
 	}
 	
 	public void onStopped() {
-		
+		if(!closed.compareAndSet(false, true))
+			return;
+		failAll();
+		exec.shutdown();
+		Runnable listener = closedListener;
+		if(listener != null)
+			listener.run();
+	}
+
+	private void failAll() {
+		for(Pending call : pending.values())
+			call.fail(new IOException("Connection closed"));
+		for(Long corrId : streams.keySet()) {
+			StreamListener stream = streams.remove(corrId);
+			if(stream != null)
+				stream.onError(new IOException("Connection closed"));
+		}
 	}
 }
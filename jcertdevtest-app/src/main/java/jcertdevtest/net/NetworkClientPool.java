@@ -0,0 +1,200 @@
+package jcertdevtest.net;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed number of {@link NetworkClient} connections to one server, so
+ * requests from many caller threads are not all serialized through one 
+ * socket and its output thread.
+ * 
+ * Each request goes to the open connection with the fewest outstanding 
+ * requests. A connection closed by either end, or by its heartbeat timing
+ * out, is left out of selection and replaced in the background, retrying
+ * with backoff while the server is unreachable. Each retry is a task of
+ * its own, so a slot waiting to retry does not hold up the others.
+ * 
+ */
+public class NetworkClientPool {
+	private static final Logger log = Logger.getLogger(NetworkClientPool.class.getName());
+	private static final long MIN_RECONNECT_DELAY_MILLIS = 100;
+	private static final long MAX_RECONNECT_DELAY_MILLIS = 5000;
+	private final String host;
+	private final int port;
+	private final WireProtocol protocol;
+	private final ThreadMode threadMode;
+	private final AtomicReferenceArray<NetworkClient> clients;
+	private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "NetworkClientPool-reconnect");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private volatile boolean closed;
+	private volatile long readTimeoutMillis = NetworkClient.DEFAULT_READ_TIMEOUT_MILLIS;
+	private volatile long writeTimeoutMillis = 0;
+
+	public NetworkClientPool(String host, int port, WireProtocol protocol, int connections) throws IOException {
+		this(host, port, protocol, connections, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * Connects all of them.
+	 */
+	public NetworkClientPool(String host, int port, WireProtocol protocol, int connections, 
+			ThreadMode threadMode) throws IOException {
+		this.host = host;
+		this.port = port;
+		this.protocol = protocol;
+		this.threadMode = threadMode;
+		this.clients = new AtomicReferenceArray<>(connections);
+		try {
+			for(int slot = 0; slot < connections; ++slot) {
+				NetworkClient client = connect(slot);
+				// in its slot before it can close, so the reconnect finds it
+				clients.set(slot, client);
+				client.start();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return connected, not yet started
+	 */
+	private NetworkClient connect(final int slot) throws IOException {
+		final NetworkClient client = new NetworkClient(host, port, protocol, threadMode);
+		client.setTimeouts(readTimeoutMillis, writeTimeoutMillis);
+		client.setClosedListener(new Runnable() {
+			@Override
+			public void run() {
+				onClosed(slot, client);
+			}
+		});
+		return client;
+	}
+
+	/**
+	 * See {@link NetworkClient#setTimeouts}, for all connections including
+	 * ones reconnected later.
+	 */
+	public void setTimeouts(long readMillis, long writeMillis) {
+		this.readTimeoutMillis = readMillis;
+		this.writeTimeoutMillis = writeMillis;
+		for(int slot = 0; slot < clients.length(); ++slot) {
+			NetworkClient client = clients.get(slot);
+			if(client != null)
+				client.setTimeouts(readMillis, writeMillis);
+		}
+	}
+
+	/**
+	 * Completed exceptionally with IOException if no connection is open.
+	 */
+	public CompletableFuture<RemoteResponse> send(RemoteRequest request) {
+		NetworkClient client = select();
+		if(client == null) {
+			CompletableFuture<RemoteResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new IOException("Not connected to " + host + ":" + port));
+			return failed;
+		}
+		return client.send(request);
+	}
+
+	/**
+	 * Open connection with fewest outstanding requests. Starts from a 
+	 * random one so ties are spread. Null if none is open.
+	 */
+	NetworkClient select() {
+		int size = clients.length();
+		int start = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+		NetworkClient best = null;
+		int bestOutstanding = Integer.MAX_VALUE;
+		for(int i = 0; i < size; ++i) {
+			NetworkClient client = clients.get((start + i) % size);
+			if(client == null || !client.isOpen())
+				continue;
+			int outstanding = client.getOutstanding();
+			if(outstanding < bestOutstanding) {
+				best = client;
+				bestOutstanding = outstanding;
+			}
+		}
+		return best;
+	}
+
+	private void onClosed(final int slot, final NetworkClient client) {
+		if(closed)
+			return;
+		log.warning("Connection " + slot + " to " + host + ":" + port + " closed, reconnecting");
+		scheduleReconnect(slot, client, 0);
+	}
+
+	/**
+	 * @param delay before this attempt, doubled for the next if it fails
+	 */
+	private void scheduleReconnect(final int slot, final NetworkClient old, final long delay) {
+		try {
+			reconnector.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(!reconnect(slot, old))
+						scheduleReconnect(slot, old, Math.min(Math.max(delay * 2, MIN_RECONNECT_DELAY_MILLIS), 
+								MAX_RECONNECT_DELAY_MILLIS));
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * @return false to try again
+	 */
+	private boolean reconnect(int slot, NetworkClient old) {
+		if(closed)
+			return true;
+		try {
+			NetworkClient client = connect(slot);
+			// closing right away schedules its reconnect on this same thread,
+			// to run after it is in its slot
+			client.start();
+			if(closed || !clients.compareAndSet(slot, old, client)) {
+				client.close();
+				return true;
+			}
+			log.info("Connection " + slot + " to " + host + ":" + port + " reconnected");
+			return true;
+		} catch (IOException e) {
+			// the same every retry while the server is down, no stack trace
+			log.log(Level.WARNING, "Failed to reconnect to " + host + ":" + port + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Closes all connections, failing any outstanding requests.
+	 */
+	public void close() {
+		closed = true;
+		reconnector.shutdownNow();
+		for(int slot = 0; slot < clients.length(); ++slot) {
+			NetworkClient client = clients.get(slot);
+			if(client != null)
+				client.close();
+		}
+	}
+}
@@ -1,89 +1,191 @@
 package jcertdevtest.net;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jcertdevtest.BookingService;
 import jcertdevtest.BookingServiceImpl;
 import jcertdevtest.db.Data;
+import jcertdevtest.metrics.Counter;
+import jcertdevtest.metrics.Metrics;
 
 /**
  * Socket server for accepting client connections for accessing the booking 
  * service over network.
  * 
+ * Connections are served by a few {@link EventLoop} threads doing the
+ * socket IO for all sessions, a pool of threads decoding the requests once
+ * fully received, and a fixed pool of worker threads handling them through a
+ * {@link RequestDispatcher}, so the number of threads busy does not grow 
+ * with the number of clients. Past the request queue capacity, clients 
+ * are answered busy. Heartbeats and timeouts of all sessions run on one
+ * {@link TimerWheel}. Wire format is the same as {@link NetworkSession}.
+ * 
  * @author Ken Goh
  *
  */
 public class NetworkServer {
 	private final static Logger log = Logger.getLogger(NetworkServer.class.getName());
-	private final ExecutorService exec = Executors.newFixedThreadPool(50);
+	/** Sessions of all servers in the JVM */
+	private static final Counter activeSessions = Metrics.counter("NetworkServer.activeSessions");
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final long DEFAULT_STREAM_IDLE_MILLIS = 60000;
 	private final int port;
 	private final BookingService service;
-	private final ConcurrentHashMap<Integer, NetworkSession> sessions = new ConcurrentHashMap<Integer, NetworkSession>();
-	private volatile int newSessionId = 1;
-	private ServerSocket socket;
-	private final AtomicBoolean stopFlag = new AtomicBoolean(false);
+	private final EventLoop[] loops;
+	/** Decoding complete messages, never waits for the socket */
+	private final ExecutorService decoders;
+	private final ExecutorService workers;
+	private final RequestDispatcher dispatcher;
+	/** Heartbeats and timeouts of all sessions */
+	private final TimerWheel timer = new TimerWheel("NetworkServer-timer", 100, TimeUnit.MILLISECONDS, 512);
+	private final ConcurrentHashMap<Integer, NioSession> sessions = new ConcurrentHashMap<Integer, NioSession>();
+	/** Only used by the accepting loop */
+	private int newSessionId = 1;
+	private ServerSocketChannel socket;
+	private volatile long streamIdleMillis = DEFAULT_STREAM_IDLE_MILLIS;
 
 	public NetworkServer(String filePath, int port) throws IOException {
+		this(new BookingServiceImpl(new Data(filePath)), port);
+	}
+	
+	public NetworkServer(BookingService service, int port) throws IOException {
+		this(service, port, Runtime.getRuntime().availableProcessors(), 
+				4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public NetworkServer(BookingService service, int port, int eventLoops, int workers) throws IOException {
+		this(service, port, eventLoops, workers, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param eventLoops number of threads doing socket IO
+	 * @param workers number of threads handling requests. Requests block
+	 * on record locks and disk, so should be a few times the processors.
+	 * @param queueCapacity max number of requests of all clients queued or
+	 * being handled
+	 */
+	public NetworkServer(BookingService service, int port, int eventLoops, int workers, 
+			int queueCapacity) throws IOException {
+		this(service, port, eventLoops, workers, queueCapacity, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * @param threadMode of the threads decoding and handling requests. With
+	 * {@link ThreadMode#VIRTUAL} every request gets its own thread, so the 
+	 * number waiting on record locks is only limited by queueCapacity, and
+	 * workers is ignored.
+	 */
+	public NetworkServer(BookingService service, int port, int eventLoops, int workers, 
+			int queueCapacity, ThreadMode threadMode) throws IOException {
 		this.port = port;
-		Data db = new Data(filePath); 
-		this.service = new BookingServiceImpl(db);
+		this.service = service;
+		this.loops = new EventLoop[eventLoops];
+		for(int i = 0; i < eventLoops; ++i)
+			loops[i] = new EventLoop("NetworkServer-io-" + i);
+		this.decoders = threadMode.newFixedPool(Runtime.getRuntime().availableProcessors());
+		this.workers = threadMode.newFixedPool(workers);
+		this.dispatcher = new RequestDispatcher(this.workers, queueCapacity);
 	}
 	
 	public void start() throws IOException {
-		socket = new ServerSocket(port);
-		exec.execute(new Runnable() {
+		socket = ServerSocketChannel.open();
+		socket.bind(new InetSocketAddress(port));
+		socket.configureBlocking(false);
+		for(EventLoop loop : loops)
+			loop.start();
+		loops[0].execute(new Runnable() {
 			@Override
 			public void run() {
-				log.info("Listening for client connections on port " + port);
-				while(!stopFlag.get()) {
-					try {
-						final Socket conn = socket.accept();
-						log.info("Received client connection");
-						NetworkSession session = new NetworkSession(newSessionId, exec, conn);
-						RemoteBookingServiceServerSessionHandler handler = 
-								new RemoteBookingServiceServerSessionHandler(session, NetworkServer.this, service);
-						session.setEventListener(handler);
-						sessions.put(newSessionId, session);
-						session.start();
-						log.info("Started session " + newSessionId);
-						++newSessionId;
-					} catch (SocketException e) {
-						log.log(Level.SEVERE, "SocketException received - stopping server", e);
-						stopFlag.set(true);
-					} catch (IOException e) {
-						log.log(Level.SEVERE, "Failed to create client session", e);
-					}
+				try {
+					loops[0].register(socket, SelectionKey.OP_ACCEPT, new Acceptor());
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Failed to listen for client connections", e);
 				}
-				log.info("Client listening thread stopped");
 			}
 		});
+		timer.start();
+		log.info("Listening for client connections on port " + getLocalPort());
+	}
+
+	/**
+	 * A streaming search the client gives no credit for this long is 
+	 * cancelled, so an abandoned cursor does not keep its snapshot of the
+	 * data open. Applies to sessions connected after.
+	 */
+	public void setStreamIdleTimeout(long millis) {
+		streamIdleMillis = millis;
+	}
+
+	/**
+	 * Port listening on, useful when started with port 0.
+	 */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress)socket.getLocalAddress()).getPort();
+	}
+
+	private final class Acceptor implements EventLoop.Handler {
+		@Override
+		public void handle(SelectionKey key) throws IOException {
+			SocketChannel conn;
+			while((conn = socket.accept()) != null) {
+				log.info("Received client connection");
+				try {
+					conn.configureBlocking(false);
+					conn.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					int sessionId = newSessionId++;
+					NioSession session = new NioSession(sessionId, conn, 
+							loops[sessionId % loops.length], decoders, timer);
+					RemoteBookingServiceServerSessionHandler handler = 
+							new RemoteBookingServiceServerSessionHandler(session, NetworkServer.this, service, 
+									dispatcher, timer, streamIdleMillis);
+					session.setEventListener(handler);
+					sessions.put(sessionId, session);
+					activeSessions.increment();
+					session.start();
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Failed to create client session", e);
+					conn.close();
+				}
+			}
+		}
+
+		@Override
+		public void onClosed(IOException e) {
+			log.log(Level.SEVERE, "Stopped listening for client connections", e);
+		}
 	}
 	
 	public void stop() throws IOException, InterruptedException {
 		log.info("Stopping server");
-		stopFlag.set(true);
-		socket.close();
-		for(NetworkSession session : sessions.values()) {
-			session.stop();
+		timer.stop();
+		for(NioSession session : sessions.values()) {
+			session.signalStop();
 		}
-		exec.shutdownNow();
-		if(!exec.awaitTermination(10, TimeUnit.SECONDS)) {
+		for(EventLoop loop : loops) {
+			loop.stop();
+		}
+		socket.close();
+		decoders.shutdownNow();
+		workers.shutdownNow();
+		if(!decoders.awaitTermination(10, TimeUnit.SECONDS)
+				|| !workers.awaitTermination(10, TimeUnit.SECONDS)) {
 			log.warning("ExecutorService await termination timed out.");
 		}
 		log.info("Server stopped");
 	}
 	
-	public void onSessionStopped(NetworkSession session) {
-		sessions.remove(session.getSessionId());
+	public void onSessionStopped(Session session) {
+		if(sessions.remove(session.getSessionId()) != null)
+			activeSessions.decrement();
 	}
 }
@@ -1,61 +1,117 @@
 package jcertdevtest.net;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jcertdevtest.metrics.Counter;
+import jcertdevtest.metrics.Events;
+import jcertdevtest.metrics.LatencyRecorder;
+import jcertdevtest.metrics.Metrics;
+
 /**
  * Handles the socket connection after accepting from server socket. 
  * Uses 2 threads to allow non-blocking input and output to socket. 
- * Uses java serialization for socket IO. Calling class can pass in 
+ * Uses java serialization or {@link BinaryCodec} for socket IO, see 
+ * {@link WireProtocol}. Calling class can pass in 
  * {@link SessionEventListener} for receiving messages and events.
  * Internally also does heartbeat to keep connection alive and checks
- * for timeout.
+ * for timeout, on a {@link TimerWheel} shared by all sessions.
  * 
  * @author Ken Goh
  *
  */
-class NetworkSession {
+class NetworkSession implements Session {
 	private static final Logger log = Logger.getLogger(NetworkSession.class.getName());
-	private static final int HEARTBEAT_INTERVAL = 30;
-	private static final long RECV_TIMEOUT_SEC = 120;
-	private static final RemoteHeartbeat heartbeat = new RemoteHeartbeat();
+	/** Messages of all sessions waiting for the output thread */
+	private static final Counter sendQueueDepth = Metrics.counter("NetworkSession.sendQueueDepth");
+	/** Time a message waits for the output thread */
+	private static final LatencyRecorder sendQueueWait = Metrics.latency("NetworkSession.sendQueueWait");
+	static final int HEARTBEAT_INTERVAL = 30;
+	static final long RECV_TIMEOUT_SEC = 120;
+	static final RemoteHeartbeat heartbeat = new RemoteHeartbeat();
+	/** Shared by all client sessions in the JVM */
+	static final TimerWheel sharedTimer = startTimer();
 	private final Socket conn;
-	private final ObjectInputStream inStream;
-	private final ObjectOutputStream outStream;
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+	private final WireProtocol protocol;
+	// for SERIALIZED
+	private ObjectInputStream inStream;
+	private ObjectOutputStream outStream;
+	// for BINARY
+	private DataInputStream dataIn;
+	private OutputStream dataOut;
+	/** Under dataIn or inStream, for the size of each message received */
+	private final CountingInputStream counted;
+	private final BinaryCodec.FrameBuffer frameOut = new BinaryCodec.FrameBuffer();
 	private final ExecutorService exec;
-	private final BlockingQueue<Object> sendQueue = new LinkedBlockingQueue<>();
+	private final BlockingQueue<Queued> sendQueue = new LinkedBlockingQueue<>();
 	private Future<Object> inputTask;
 	private Future<Object> outputTask;
 	private SessionEventListener handler;
-	private volatile Date lastRecvTime;
 	private final int sessionId;
-	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+	private final ActivityMonitor monitor;
 	private final AtomicBoolean stopFlag = new AtomicBoolean(false);
 	private final CountDownLatch tasksStopWaitLatch = new CountDownLatch(2);
 
 	public NetworkSession(int id, ExecutorService exec, Socket conn) throws IOException {
+		this(id, exec, conn, WireProtocol.SERIALIZED);
+	}
+
+	/**
+	 * @throws IOException including if the far end does not accept the 
+	 * protocol.
+	 */
+	public NetworkSession(int id, ExecutorService exec, Socket conn, WireProtocol protocol) throws IOException {
 		this.sessionId = id;
 		this.exec = exec;
 		this.conn = conn;
-		this.outStream = new ObjectOutputStream(conn.getOutputStream());
-		outStream.flush();
-		this.inStream = new ObjectInputStream(conn.getInputStream());
+		this.protocol = protocol;
+		this.monitor = new ActivityMonitor(sharedTimer, this, 
+				TimeUnit.SECONDS.toMillis(HEARTBEAT_INTERVAL), TimeUnit.SECONDS.toMillis(RECV_TIMEOUT_SEC));
+		// buffered, otherwise every small field read is a socket read
+		counted = new CountingInputStream(new BufferedInputStream(conn.getInputStream()));
+		InputStream in = counted;
+		if(protocol == WireProtocol.BINARY) {
+			dataOut = new BufferedOutputStream(conn.getOutputStream());
+			dataOut.write(BinaryCodec.MAGIC);
+			dataOut.flush();
+			dataIn = new DataInputStream(in);
+			// serialization stream header, then MAGIC if accepted
+			byte[] reply = new byte[4 + BinaryCodec.MAGIC.length];
+			conn.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+			try {
+				dataIn.readFully(reply);
+			} finally {
+				conn.setSoTimeout(0);
+			}
+			if(!Arrays.equals(Arrays.copyOfRange(reply, 4, reply.length), BinaryCodec.MAGIC))
+				throw new StreamCorruptedException("Binary protocol not accepted");
+		} else {
+			this.outStream = new ObjectOutputStream(conn.getOutputStream());
+			outStream.flush();
+			this.inStream = new ObjectInputStream(in);
+		}
 		log.info("Creating session " + id + " connected to " + conn.getRemoteSocketAddress());
 	}
 	public void setEventListener(SessionEventListener handler) {
@@ -67,8 +123,7 @@ class NetworkSession {
 		
 		startInput();
 		startOutput();
-		startHeartbeat();
-		startTimeoutCheck();
+		monitor.start(handler);
 		
 		log.info("Session started " + sessionId);
 	}
@@ -80,8 +135,11 @@ class NetworkSession {
 				log.info("Input thread started");
 				while(!stopFlag.get()) {
 					try {
-						Object request = inStream.readObject();
-						lastRecvTime = new Date();
+						long read = counted.count;
+						Object request = protocol == WireProtocol.BINARY
+								? BinaryCodec.decode(dataIn) : inStream.readObject();
+						Events.message(sessionId, false, request, counted.count - read, getCorrId(request));
+						monitor.onReceived();
 						handler.onReceive(request);
 					} catch(EOFException e) {
 						log.log(Level.WARNING, "Socket closed", e);
@@ -104,9 +162,29 @@ class NetworkSession {
 				log.info("Output thread started");
 				while(!stopFlag.get()) {
 					try {
-						Object o = sendQueue.take();
-						outStream.writeObject(o);
-						outStream.flush();
+						Queued queued = sendQueue.take();
+						sendQueueDepth.decrement();
+						sendQueueWait.recordSince(queued.nanos);
+						Object o = queued.message;
+						if(protocol == WireProtocol.BINARY) {
+							try {
+								BinaryCodec.encode(o, frameOut);
+							} catch (RuntimeException e) {
+								// e.g. too long, not to corrupt the next frame
+								frameOut.reset();
+								throw e;
+							}
+							byte[] frame = frameOut.toFrame();
+							dataOut.write(frame);
+							dataOut.flush();
+							Events.message(sessionId, true, o, frame.length, getCorrId(o));
+						} else {
+							outStream.writeObject(o);
+							outStream.flush();
+							// size not known, written straight to the socket
+							Events.message(sessionId, true, o, 0, getCorrId(o));
+						}
+						monitor.onSent();
 					} catch(InterruptedException e) {
 						log.info("Output thread interrupted");
 					} catch(IOException e) {
@@ -115,6 +193,9 @@ class NetworkSession {
 						handler.onError(e);
 					}
 				}
+				// not to be sent any more
+				while(sendQueue.poll() != null)
+					sendQueueDepth.decrement();
 				log.info("Output thread shut down");
 				tasksStopWaitLatch.countDown();
 				return null;
@@ -122,31 +203,67 @@ class NetworkSession {
 		});
 	}
 	
-	private void startHeartbeat() {
-		scheduler.scheduleWithFixedDelay(new Runnable() {
-			@Override
-			public void run() {
-				log.info("Sending heartbeat");
-				send(heartbeat);
-			}
-		}, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+	public void send(Object o) {
+		if(stopFlag.get())
+			return;
+		sendQueueDepth.increment();
+		sendQueue.offer(new Queued(o, System.nanoTime()));
 	}
-	
-	private void startTimeoutCheck() {
-		scheduler.scheduleWithFixedDelay(new Runnable() {
-			@Override
-			public void run() {
-				long elapsedSeconds = (new Date().getTime() - getLastRecvTime().getTime()) / (1000);
-				if(elapsedSeconds > RECV_TIMEOUT_SEC) {
-					log.severe("No message received from remote for " + RECV_TIMEOUT_SEC + "s. Disconnecting.");
-					handler.onError(new RemoteNoActivityException());
-				}
-			}
-		}, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+
+	/**
+	 * @return 0 if the message has none, e.g. a heartbeat
+	 */
+	static long getCorrId(Object message) {
+		if(message instanceof RemoteRequest)
+			return ((RemoteRequest)message).getCorrId();
+		if(message instanceof RemoteResponse)
+			return ((RemoteResponse)message).getCorrId();
+		return 0;
 	}
-	
-	public void send(Object o) {
-		sendQueue.offer(o);
+
+	/**
+	 * Counts the bytes read through it, only by the input thread.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1)
+				++count;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0)
+				count += read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private static final class Queued {
+		final Object message;
+		/** When queued, from {@link System#nanoTime} */
+		final long nanos;
+
+		Queued(Object message, long nanos) {
+			this.message = message;
+			this.nanos = nanos;
+		}
 	}
 	
 	public void signalStop() {
@@ -158,9 +275,10 @@ class NetworkSession {
 	}
 	
 	private void stop(boolean wait) {
+		if(!stopFlag.compareAndSet(false, true))
+			return;
 		log.info("Stopping session " + sessionId);
-		stopFlag.set(true);
-		scheduler.shutdownNow();
+		monitor.stop();
 		try {
 			conn.close();
 		} catch (IOException e) {
@@ -182,11 +300,6 @@ class NetworkSession {
 	}
 	
 	private void awaitTermination() {
-		try {
-			scheduler.awaitTermination(5, TimeUnit.SECONDS);
-		} catch (InterruptedException e) {
-			log.log(Level.SEVERE, "Interrupted when waiting for tasks to stop", e);
-		}
 		try {
 			// cannot use Future.get() to wait for task complete because if it
 			// was cancelled, it get() immediately throws exception.
@@ -198,22 +311,13 @@ class NetworkSession {
 		log.info("Session stopped " + sessionId);
 	}
 
-	private Date getLastRecvTime() {
-		return lastRecvTime;
+	private static TimerWheel startTimer() {
+		TimerWheel timer = new TimerWheel("NetworkSession-timer", 100, TimeUnit.MILLISECONDS, 512);
+		timer.start();
+		return timer;
 	}
+
 	public int getSessionId() {
 		return sessionId;
 	}
 }
-
-/**
- * Raised by {@link NetworkSession} when no message received from far end of
- * socket after a specific time.
- * 
- * @author Ken Goh
- *
- */
-class RemoteNoActivityException extends Exception {
-
-	private static final long serialVersionUID = 1L;	
-}
\ No newline at end of file
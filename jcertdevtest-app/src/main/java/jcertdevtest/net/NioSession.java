@@ -0,0 +1,527 @@
+package jcertdevtest.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jcertdevtest.metrics.Counter;
+import jcertdevtest.metrics.Events;
+import jcertdevtest.metrics.Metrics;
+
+/**
+ * Server side of a client connection, for {@link NetworkServer}. Same wire
+ * format as {@link NetworkSession}, java serialization, without a thread of
+ * its own.
+ * 
+ * The {@link EventLoop} the channel is registered with reads whatever bytes 
+ * arrive and writes out queued messages without blocking. It also finds
+ * where each message ends, by the frame length for binary, with a
+ * {@link SerializationScanner} for serialization, and queues each complete
+ * message. They are decoded and passed to the {@link SessionEventListener}
+ * by a task on the decoding executor, one at a time per session, so in the
+ * order sent. Decoding never waits for more bytes.
+ * 
+ * Received bytes of a session, whether a partial message or complete ones
+ * not yet decoded, are limited to {@link MAX_INBOUND_BYTES} each. Past
+ * that the session stops reading from the socket until the decoding task
+ * catches up, so TCP flow control slows down the client. A message that
+ * does not fit at all fails the session.
+ * 
+ * Reading also stops while more than {@link PAUSE_OUTBOUND_BYTES} are queued
+ * to send, until the client reads them. A client that sends requests
+ * without reading the responses gets no more requests in. Should the
+ * requests already in produce more than {@link MAX_OUTBOUND_BYTES}, the
+ * session fails rather than buffer without bound.
+ * 
+ * The client chooses the {@link WireProtocol} by what it sends first,
+ * either a serialization stream header or {@link BinaryCodec#MAGIC}.
+ * Outgoing messages are encoded by the sending thread. For serialization,
+ * the stream is reset after each one so it does not keep every object sent.
+ * 
+ */
+final class NioSession implements Session, EventLoop.Handler {
+	private static final Logger log = Logger.getLogger(NioSession.class.getName());
+	/** Messages of all sessions queued and not yet fully written */
+	private static final Counter sendQueueDepth = Metrics.counter("NioSession.sendQueueDepth");
+	/** Limit of the partial message buffer and of the queued messages */
+	static final int MAX_INBOUND_BYTES = 1 << 20;
+	private static final int MIN_INBOUND_BYTES = 4096;
+	/** Queued outgoing bytes past which reading pauses */
+	static final int PAUSE_OUTBOUND_BYTES = 1 << 20;
+	/** Queued outgoing bytes past which the session fails */
+	static final int MAX_OUTBOUND_BYTES = 64 << 20;
+	private static final int SERIALIZATION_HEADER_LENGTH = 4;
+	private final int sessionId;
+	private final SocketChannel channel;
+	private final EventLoop loop;
+	private final Executor decoders;
+	private SessionEventListener listener;
+	private SelectionKey key;
+	private final ActivityMonitor monitor;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/** Received and not yet queued, only used by the loop thread */
+	private ByteBuffer inbound = ByteBuffer.allocate(MIN_INBOUND_BYTES);
+	/** Only used by the loop thread, for SERIALIZED */
+	private SerializationScanner scanner;
+	/** Complete messages, for SERIALIZED the stream header first */
+	private final Queue<byte[]> received = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger receivedBytes = new AtomicInteger();
+	/** Set while not reading because receivedBytes or outboundBytes is at the limit */
+	private final AtomicBoolean readPaused = new AtomicBoolean(false);
+	private final Runnable resumeRead = new Runnable() {
+		@Override
+		public void run() {
+			if(key != null && key.isValid())
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+	};
+	/** Null until the first bytes are received */
+	private volatile WireProtocol protocol;
+	/** Only used by the decode task, for SERIALIZED */
+	private final FrameInputStream frameIn = new FrameInputStream();
+	private ObjectInputStream objectIn;
+	private final AtomicBoolean decodeScheduled = new AtomicBoolean(false);
+	private final Runnable decodeTask = new Runnable() {
+		@Override
+		public void run() {
+			decode();
+		}
+	};
+
+	/** Guarded by itself, with objectOut and frameOut */
+	private final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+	private final ObjectOutputStream objectOut;
+	private final BinaryCodec.FrameBuffer frameOut = new BinaryCodec.FrameBuffer();
+	private final Queue<ByteBuffer> outQueue = new ConcurrentLinkedQueue<>();
+	/** Of the buffers in outQueue */
+	private final AtomicLong outboundBytes = new AtomicLong();
+	private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+	private final Runnable enableWrite = new Runnable() {
+		@Override
+		public void run() {
+			if(key != null && key.isValid())
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+	};
+
+	public NioSession(int id, SocketChannel channel, EventLoop loop, Executor decoders, 
+			TimerWheel timer) throws IOException {
+		this.sessionId = id;
+		this.channel = channel;
+		this.loop = loop;
+		this.decoders = decoders;
+		this.monitor = new ActivityMonitor(timer, this, 
+				TimeUnit.SECONDS.toMillis(NetworkSession.HEARTBEAT_INTERVAL),
+				TimeUnit.SECONDS.toMillis(NetworkSession.RECV_TIMEOUT_SEC));
+		synchronized(outBytes) {
+			// stream header, a serialization client waits for it before 
+			// sending anything. A binary client skips it.
+			objectOut = new ObjectOutputStream(outBytes);
+			objectOut.flush();
+			enqueue(ByteBuffer.wrap(outBytes.toByteArray()));
+			outBytes.reset();
+		}
+		log.info("Creating session " + id + " connected to " + channel.getRemoteAddress());
+	}
+
+	public void setEventListener(SessionEventListener listener) {
+		this.listener = listener;
+	}
+
+	public void start() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					key = loop.register(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, NioSession.this);
+				} catch (IOException e) {
+					onClosed(e);
+				}
+			}
+		});
+		monitor.start(listener);
+		log.info("Session started " + sessionId);
+	}
+
+	@Override
+	public void handle(SelectionKey key) throws IOException {
+		if(key.isReadable())
+			read();
+		if(key.isValid() && key.isWritable())
+			write();
+	}
+
+	private void read() throws IOException {
+		while(!(mustPauseRead() && pauseRead())) {
+			if(!inbound.hasRemaining()) {
+				if(inbound.capacity() >= MAX_INBOUND_BYTES)
+					throw new StreamCorruptedException("Message longer than " + MAX_INBOUND_BYTES + " bytes");
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(inbound.capacity() * 2, MAX_INBOUND_BYTES));
+				inbound.flip();
+				larger.put(inbound);
+				inbound = larger;
+			}
+			int read = channel.read(inbound);
+			if(read == -1)
+				throw new EOFException();
+			if(read == 0)
+				break;
+			monitor.onReceived();
+			frame();
+		}
+		scheduleDecode();
+	}
+
+	private boolean mustPauseRead() {
+		return receivedBytes.get() >= MAX_INBOUND_BYTES || outboundBytes.get() >= PAUSE_OUTBOUND_BYTES;
+	}
+
+	/**
+	 * Stop reading until the decode task or the client catches up.
+	 * @return false if it already has
+	 */
+	private boolean pauseRead() {
+		readPaused.set(true);
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		// the queues may have drained before the flag was set
+		if(!mustPauseRead() && readPaused.compareAndSet(true, false)) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * After draining either queue, by the decode task or the loop thread.
+	 */
+	private void resumeReadBelowLimits() {
+		if(!mustPauseRead() && readPaused.compareAndSet(true, false))
+			loop.execute(resumeRead);
+	}
+
+	/**
+	 * Queues every complete message in inbound, keeping the rest.
+	 */
+	private void frame() throws IOException {
+		inbound.flip();
+		try {
+			if(protocol == null && !negotiate())
+				return;
+			while(true) {
+				int start = inbound.position();
+				int end;
+				if(protocol == WireProtocol.BINARY) {
+					if(inbound.remaining() < 4)
+						return;
+					int length = BinaryCodec.checkFrameLength(inbound.getInt(start));
+					if(length > MAX_INBOUND_BYTES - 4)
+						throw new StreamCorruptedException("Message longer than " + MAX_INBOUND_BYTES + " bytes");
+					if(inbound.remaining() < 4 + length)
+						return;
+					start += 4;
+					end = start + length;
+				} else {
+					if(!inbound.hasRemaining())
+						return;
+					end = scanner.scan(inbound);
+					if(end == -1)
+						return;
+				}
+				queue(start, end);
+				inbound.position(end);
+			}
+		} finally {
+			inbound.compact();
+		}
+	}
+
+	/**
+	 * The client sends either MAGIC or the serialization stream header
+	 * first.
+	 * @return false until enough bytes are received to tell
+	 */
+	private boolean negotiate() throws IOException {
+		if(!inbound.hasRemaining())
+			return false;
+		if(inbound.get(inbound.position()) == BinaryCodec.MAGIC[0]) {
+			if(inbound.remaining() < BinaryCodec.MAGIC.length)
+				return false;
+			byte[] magic = new byte[BinaryCodec.MAGIC.length];
+			inbound.get(magic);
+			if(!Arrays.equals(magic, BinaryCodec.MAGIC))
+				throw new StreamCorruptedException("Unsupported protocol");
+			// accept, before any response can be sent
+			enqueue(ByteBuffer.wrap(BinaryCodec.MAGIC.clone()));
+			protocol = WireProtocol.BINARY;
+			scheduleWrite();
+		} else {
+			if(inbound.remaining() < SERIALIZATION_HEADER_LENGTH)
+				return false;
+			int start = inbound.position();
+			queue(start, start + SERIALIZATION_HEADER_LENGTH);
+			inbound.position(start + SERIALIZATION_HEADER_LENGTH);
+			scanner = new SerializationScanner();
+			protocol = WireProtocol.SERIALIZED;
+		}
+		log.info("Session " + sessionId + " using " + protocol);
+		return true;
+	}
+
+	private void queue(int start, int end) {
+		byte[] message = new byte[end - start];
+		for(int i = 0; i < message.length; ++i)
+			message[i] = inbound.get(start + i);
+		receivedBytes.addAndGet(message.length);
+		received.add(message);
+	}
+
+	private void write() throws IOException {
+		ByteBuffer buffer;
+		while((buffer = outQueue.peek()) != null) {
+			channel.write(buffer);
+			if(buffer.hasRemaining())
+				return;	// socket buffer full, wait for next OP_WRITE
+			outQueue.poll();
+			sendQueueDepth.decrement();
+			outboundBytes.addAndGet(-buffer.limit());
+			resumeReadBelowLimits();
+		}
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		writeScheduled.set(false);
+		// a message queued after the last poll() but before the flag reset
+		if(!outQueue.isEmpty() && writeScheduled.compareAndSet(false, true))
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	@Override
+	public void onClosed(IOException e) {
+		if(e instanceof EOFException) {
+			log.log(Level.INFO, "Session " + sessionId + " closed by remote");
+		} else {
+			log.log(Level.WARNING, "Session " + sessionId + " failed", e);
+		}
+		listener.onError(e instanceof EOFException ? e : new EOFException(e.getMessage()));
+		signalStop();
+	}
+
+	private void scheduleDecode() {
+		if(!received.isEmpty() && decodeScheduled.compareAndSet(false, true))
+			decoders.execute(decodeTask);
+	}
+
+	private void decode() {
+		try {
+			byte[] message;
+			while(!closed.get() && (message = received.poll()) != null) {
+				try {
+					decode(message);
+				} finally {
+					receivedBytes.addAndGet(-message.length);
+					resumeReadBelowLimits();
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			if(!closed.get()) {
+				listener.onError(e instanceof EOFException ? e : new EOFException(e.getMessage()));
+				signalStop();
+			}
+			return;
+		} finally {
+			decodeScheduled.set(false);
+		}
+		// a message queued after the last poll() but before the flag reset
+		if(!closed.get())
+			scheduleDecode();
+	}
+
+	private void decode(byte[] message) throws IOException, ClassNotFoundException {
+		Object decoded;
+		if(protocol == WireProtocol.BINARY) {
+			decoded = BinaryCodec.decodeFrame(ByteBuffer.wrap(message));
+		} else {
+			frameIn.set(message);
+			if(objectIn == null) {
+				// the stream header
+				objectIn = new ObjectInputStream(frameIn);
+				return;
+			}
+			decoded = objectIn.readObject();
+			if(frameIn.available() > 0)
+				throw new StreamCorruptedException("Message not fully read");
+		}
+		Events.message(sessionId, false, decoded, message.length, NetworkSession.getCorrId(decoded));
+		try {
+			if(!closed.get())
+				listener.onReceive(decoded);
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Error handling message in session " + sessionId, e);
+		}
+	}
+
+	@Override
+	public void send(Object message) {
+		if(closed.get())
+			return;
+		WireProtocol protocol = this.protocol;
+		if(protocol == null) {
+			// only heartbeats can be sent before the client sent anything
+			return;
+		}
+		if(outboundBytes.get() >= MAX_OUTBOUND_BYTES) {
+			log.warning("Session " + sessionId + " not reading, " + outboundBytes.get() + " bytes queued");
+			listener.onError(new EOFException("Client not reading"));
+			signalStop();
+			return;
+		}
+		synchronized(outBytes) {
+			if(protocol == WireProtocol.BINARY) {
+				try {
+					BinaryCodec.encode(message, frameOut);
+				} catch (RuntimeException e) {
+					// not of the protocol, or a null field
+					frameOut.reset();
+					log.log(Level.SEVERE, "Failed to encode " + message, e);
+					sendFailed(message, e);
+					return;
+				}
+				byte[] frame = frameOut.toFrame();
+				enqueue(ByteBuffer.wrap(frame));
+				Events.message(sessionId, true, message, frame.length, NetworkSession.getCorrId(message));
+				monitor.onSent();
+				scheduleWrite();
+				return;
+			}
+			try {
+				objectOut.reset();
+				objectOut.writeObject(message);
+				objectOut.flush();
+			} catch (IOException e) {
+				// cannot happen writing to memory, apart from a message that
+				// is not serializable
+				log.log(Level.SEVERE, "Failed to serialize " + message, e);
+				outBytes.reset();
+				sendFailed(message, e);
+				return;
+			}
+			enqueue(ByteBuffer.wrap(outBytes.toByteArray()));
+			Events.message(sessionId, true, message, outBytes.size(), NetworkSession.getCorrId(message));
+			outBytes.reset();
+		}
+		monitor.onSent();
+		scheduleWrite();
+	}
+
+	/**
+	 * Answers the request of a response that could not be encoded, so the
+	 * client does not wait for it until it times out.
+	 */
+	private void sendFailed(Object message, Exception e) {
+		if(!(message instanceof RemoteResponse) || message.getClass() == RemoteResponse.class)
+			return;
+		RemoteResponse failed = new RemoteResponse();
+		failed.setCorrId(((RemoteResponse)message).getCorrId());
+		failed.setSuccess(false);
+		if(e instanceof BinaryCodec.FrameTooLongException && message instanceof RemoteSearchResponse)
+			failed.setMessage("Result too large, use openSearch");
+		else
+			failed.setMessage("Failed to send response: " + e.getMessage());
+		send(failed);
+	}
+
+	private void enqueue(ByteBuffer buffer) {
+		sendQueueDepth.increment();
+		outboundBytes.addAndGet(buffer.remaining());
+		outQueue.add(buffer);
+	}
+
+	private void scheduleWrite() {
+		if(writeScheduled.compareAndSet(false, true))
+			loop.execute(enableWrite);
+	}
+
+	@Override
+	public void signalStop() {
+		if(!closed.compareAndSet(false, true))
+			return;
+		log.info("Stopping session " + sessionId);
+		monitor.stop();
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(key != null)
+					key.cancel();
+				// on the loop thread, so after any write() 
+				ByteBuffer buffer;
+				while((buffer = outQueue.poll()) != null) {
+					sendQueueDepth.decrement();
+					outboundBytes.addAndGet(-buffer.limit());
+				}
+				try {
+					channel.close();
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Exception when closing socket", e);
+				}
+			}
+		});
+		listener.onStopped();
+		log.info("Session stopped " + sessionId);
+	}
+
+	@Override
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Reads one complete message at a time, never blocks.
+	 */
+	private static final class FrameInputStream extends InputStream {
+		private byte[] message = new byte[0];
+		private int pos;
+
+		public void set(byte[] message) {
+			this.message = message;
+			pos = 0;
+		}
+
+		@Override
+		public int available() {
+			return message.length - pos;
+		}
+
+		@Override
+		public int read() {
+			return pos < message.length ? message[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0)
+				return 0;
+			if(pos == message.length)
+				return -1;
+			int n = Math.min(len, message.length - pos);
+			System.arraycopy(message, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+}
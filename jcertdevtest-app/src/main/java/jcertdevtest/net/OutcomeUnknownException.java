@@ -0,0 +1,17 @@
+package jcertdevtest.net;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * No response to a request that changes data within the timeout. Unlike
+ * other failures, the server may still have committed it, so the caller
+ * has to check before retrying.
+ *
+ */
+public class OutcomeUnknownException extends TimeoutException {
+	private static final long serialVersionUID = 1L;
+
+	public OutcomeUnknownException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,172 @@
+package jcertdevtest.net;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import jcertdevtest.AsyncBookingService;
+import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
+import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.ServiceException;
+
+/**
+ * Provide the {@link AsyncBookingService} interface on the client side going
+ * over the network. Requests are pipelined over a {@link NetworkClientPool}
+ * of connections, each future completed when its response arrives. That is
+ * on the thread reading the connection, so callbacks on the futures must 
+ * not block.
+ * 
+ */
+public class RemoteAsyncBookingServiceClient implements AsyncBookingService {
+
+	private static final long CHUNK_TIMEOUT_MILLIS = 10000;
+	private final NetworkClientPool network;
+
+	/**
+	 * One connection.
+	 */
+	public RemoteAsyncBookingServiceClient(String host, int port) throws UnknownHostException, IOException {
+		this(host, port, WireProtocol.BINARY, 1);
+	}
+
+	/**
+	 * @param connections to spread requests over. More than one for a 
+	 * caller with many threads, e.g. a web tier.
+	 */
+	public RemoteAsyncBookingServiceClient(String host, int port, WireProtocol protocol, 
+			int connections) throws UnknownHostException, IOException {
+		this(host, port, protocol, connections, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * @param threadMode of the threads doing the socket IO of the 
+	 * connections
+	 */
+	public RemoteAsyncBookingServiceClient(String host, int port, WireProtocol protocol, 
+			int connections, ThreadMode threadMode) throws UnknownHostException, IOException {
+		network = new NetworkClientPool(host, port, protocol, connections, threadMode);
+	}
+
+	public void close() {
+		network.close();
+	}
+
+	/**
+	 * See {@link NetworkClient#setTimeouts}. A booking that times out fails
+	 * with {@link OutcomeUnknownException} as the cause, it may still be
+	 * committed.
+	 */
+	public void setTimeouts(long readMillis, long writeMillis) {
+		network.setTimeouts(readMillis, writeMillis);
+	}
+
+	/**
+	 * See {@link jcertdevtest.BookingService#openSearch}. The chunks are 
+	 * sent by the server ahead of being read, up to window of them.
+	 * {@link RoomCursor#next} blocks until the next chunk is received.
+	 */
+	public RoomCursor openSearch(SearchCriteria criteria, int chunkSize, int window) throws ServiceException {
+		NetworkClient client = network.select();
+		if(client == null)
+			throw new ServiceException("Error calling Booking Service", new IOException("Not connected"));
+		RemoteRoomCursor cursor = new RemoteRoomCursor(client, CHUNK_TIMEOUT_MILLIS);
+		cursor.open(criteria, chunkSize, window);
+		return cursor;
+	}
+
+	@Override
+	public CompletableFuture<Room[]> search(SearchCriteria criteria) {
+		RemoteSearchRequest request = new RemoteSearchRequest();
+		request.setCriteria(criteria);
+		return send(request, new ResultMapping<Room[]>("Error performing search: ", RemoteSearchResponse.class) {
+			@Override
+			Room[] getResult(RemoteResponse response) {
+				return ((RemoteSearchResponse)response).getResult();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> book(Booking booking) {
+		RemoteBookingRequest request = new RemoteBookingRequest();
+		request.setBooking(booking);
+		return send(request, new ResultMapping<Void>("Booking failed: ", RemoteResponse.class) {
+			@Override
+			Void getResult(RemoteResponse response) {
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<BookingResult[]> book(Booking[] bookings) {
+		RemoteBatchBookingRequest request = new RemoteBatchBookingRequest();
+		request.setBookings(bookings);
+		return send(request, new ResultMapping<BookingResult[]>("Booking failed: ", RemoteBatchBookingResponse.class) {
+			@Override
+			BookingResult[] getResult(RemoteResponse response) {
+				return ((RemoteBatchBookingResponse)response).getResults();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Room[]> getRooms(int[] recNos) {
+		RemoteGetRoomsRequest request = new RemoteGetRoomsRequest();
+		request.setRecNos(recNos);
+		return send(request, new ResultMapping<Room[]>("Error getting rooms: ", RemoteGetRoomsResponse.class) {
+			@Override
+			Room[] getResult(RemoteResponse response) {
+				return ((RemoteGetRoomsResponse)response).getResult();
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> send(RemoteRequest request, ResultMapping<T> mapping) {
+		network.send(request).whenComplete(mapping);
+		return mapping.result;
+	}
+
+	/**
+	 * Completes the result from the response, or with a 
+	 * {@link ServiceException} if it failed or is not of the expected type.
+	 */
+	private static abstract class ResultMapping<T> implements BiConsumer<RemoteResponse, Throwable> {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		private final String failedMessage;
+		private final Class<? extends RemoteResponse> responseType;
+
+		/**
+		 * @param failedMessage prefix of the message of an unsuccessful 
+		 * response
+		 */
+		ResultMapping(String failedMessage, Class<? extends RemoteResponse> responseType) {
+			this.failedMessage = failedMessage;
+			this.responseType = responseType;
+		}
+
+		/**
+		 * @param response successful, of the expected type
+		 */
+		abstract T getResult(RemoteResponse response);
+
+		@Override
+		public void accept(RemoteResponse response, Throwable error) {
+			if(error instanceof OutcomeUnknownException) {
+				result.completeExceptionally(new ServiceException("No response, may still be committed", error));
+			} else if(error != null) {
+				result.completeExceptionally(new ServiceException("Error calling Booking Service", error));
+			} else if(!response.isSuccess()) {
+				result.completeExceptionally(new ServiceException(failedMessage + response.getMessage()));
+			} else if(!responseType.isInstance(response)) {
+				result.completeExceptionally(new ServiceException("Error calling Booking Service"));
+			} else {
+				result.complete(getResult(response));
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package jcertdevtest.net;
+
+import jcertdevtest.Booking;
+
+public class RemoteBatchBookingRequest extends RemoteRequest {
+
+	private static final long serialVersionUID = 1L;
+	
+	private Booking[] bookings;
+
+	public Booking[] getBookings() {
+		return bookings;
+	}
+
+	public void setBookings(Booking[] bookings) {
+		this.bookings = bookings;
+	}
+	
+}
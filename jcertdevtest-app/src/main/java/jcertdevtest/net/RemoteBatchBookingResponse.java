@@ -0,0 +1,16 @@
+package jcertdevtest.net;
+
+import jcertdevtest.BookingResult;
+
+public class RemoteBatchBookingResponse extends RemoteResponse {
+	private static final long serialVersionUID = 1L;
+	private BookingResult[] Results;
+
+	public BookingResult[] getResults() {
+		return Results;
+	}
+
+	public void setResults(BookingResult[] results) {
+		Results = results;
+	}
+}
@@ -2,59 +2,89 @@ package jcertdevtest.net;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
 import jcertdevtest.BookingService;
 import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
 import jcertdevtest.SearchCriteria;
 import jcertdevtest.ServiceException;
 
 /**
  * Provide the {@link BookingService} interface on the client side going over
- * the network.
+ * the network. Blocking calls on {@link RemoteAsyncBookingServiceClient}.
  * 
  * @author Ken Goh
  *
  */
 public class RemoteBookingServiceClient implements BookingService {
 	
-	private final NetworkClient network;
+	/** Chunks of a streaming search the server sends ahead of reading */
+	private static final int DEFAULT_WINDOW = 4;
+	private final RemoteAsyncBookingServiceClient async;
 
 	public RemoteBookingServiceClient(String host, int port) throws UnknownHostException, IOException {
-		network = new NetworkClient(host, port);
-		network.start();
+		this(host, port, WireProtocol.BINARY);
+	}
+
+	public RemoteBookingServiceClient(String host, int port, WireProtocol protocol) throws UnknownHostException, IOException {
+		this(host, port, protocol, 1);
+	}
+
+	/**
+	 * @param connections see {@link RemoteAsyncBookingServiceClient}
+	 */
+	public RemoteBookingServiceClient(String host, int port, WireProtocol protocol, 
+			int connections) throws UnknownHostException, IOException {
+		this(new RemoteAsyncBookingServiceClient(host, port, protocol, connections));
+	}
+
+	public RemoteBookingServiceClient(RemoteAsyncBookingServiceClient async) {
+		this.async = async;
 	}
 	
 	@Override
 	public Room[] search(SearchCriteria criteria) throws ServiceException {
-		RemoteSearchRequest request = new RemoteSearchRequest();
-		request.setCriteria(criteria);
-		RemoteResponse response;
-		try {
-			response = network.send(request);
-		} catch (InterruptedException e) {
-			throw new ServiceException("Error calling Booking Service", e);
-		}
-		if(response == null|| !(response instanceof RemoteSearchResponse))
-			throw new ServiceException("Error calling Booking Service");
-		if(!response.isSuccess())
-			throw new ServiceException("Error performing search: " + response.getMessage());
-		return ((RemoteSearchResponse)response).getResult();
+		return await(async.search(criteria));
+	}
+
+	@Override
+	public RoomCursor openSearch(SearchCriteria criteria, int chunkSize) throws ServiceException {
+		return async.openSearch(criteria, chunkSize, DEFAULT_WINDOW);
 	}
 
 	@Override
 	public void book(Booking booking) throws ServiceException {
-		RemoteBookingRequest request = new RemoteBookingRequest();
-		request.setBooking(booking);
-		RemoteResponse response;
+		await(async.book(booking));
+	}
+
+	@Override
+	public BookingResult[] book(Booking[] bookings) throws ServiceException {
+		return await(async.book(bookings));
+	}
+
+	@Override
+	public Room[] getRooms(int[] recNos) throws ServiceException {
+		return await(async.getRooms(recNos));
+	}
+
+	public void close() {
+		async.close();
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws ServiceException {
 		try {
-			response = network.send(request);
+			return future.get();
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new ServiceException("Error calling Booking Service", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof ServiceException)
+				throw (ServiceException)e.getCause();
+			throw new ServiceException("Error calling Booking Service", e.getCause());
 		}
-		if(response == null)
-			throw new ServiceException("Error calling Booking Service");
-		if(!response.isSuccess())
-			throw new ServiceException("Booking failed: " + response.getMessage());
 	}
 }
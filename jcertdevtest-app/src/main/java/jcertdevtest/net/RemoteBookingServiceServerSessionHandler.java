@@ -1,41 +1,112 @@
 package jcertdevtest.net;
 
 import java.io.EOFException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jcertdevtest.BookingService;
 import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
 import jcertdevtest.ServiceException;
 
 /**
- * Handles messages and events per session in the {@link NetworkServer}
+ * Handles messages and events per session in the {@link NetworkServer}.
+ * Requests are run by the {@link RequestDispatcher}, answered with 
+ * {@link #SERVER_BUSY} if it is full.
+ * 
+ * A streaming search sends chunks while it has credit from the client, 
+ * then stops without holding a worker until more credit arrives. One left
+ * without credit for the idle timeout is cancelled, as its cursor holds a
+ * snapshot of the data, and a session has at most {@link #MAX_STREAMS} 
+ * open.
  * 
  * @author Ken Goh
  *
  */
 class RemoteBookingServiceServerSessionHandler implements SessionEventListener {
 	private static final Logger log = Logger.getLogger(RemoteBookingServiceServerSessionHandler.class.getName());
-	private final NetworkSession session;
+	static final String SERVER_BUSY = "Server busy";
+	static final int MAX_STREAMS = 16;
+	private final Session session;
 	private final BookingService service;
 	private final NetworkServer server;
+	private final RequestDispatcher dispatcher;
+	private final RequestDispatcher.Sequence writes;
+	/** Streaming searches not yet finished, by corrId */
+	private final ConcurrentHashMap<Long, SearchStream> streams = new ConcurrentHashMap<>();
+	/** Streams opened or being opened, not yet finished */
+	private final AtomicInteger openStreams = new AtomicInteger();
+	private final TimerWheel timer;
+	private final long streamIdleMillis;
 	
-	public RemoteBookingServiceServerSessionHandler(NetworkSession session, NetworkServer server, BookingService service) {
+	/**
+	 * @param streamIdleMillis max time a streaming search waits for credit
+	 */
+	public RemoteBookingServiceServerSessionHandler(Session session, NetworkServer server, 
+			BookingService service, RequestDispatcher dispatcher, TimerWheel timer, long streamIdleMillis) {
 		this.session = session;
 		this.service = service;
 		this.server = server;
+		this.dispatcher = dispatcher;
+		this.writes = dispatcher.newSequence();
+		this.timer = timer;
+		this.streamIdleMillis = streamIdleMillis;
 	}
 	
-	public void onReceive(Object request) {
+	public void onReceive(final Object request) {
 		if(request.getClass().equals(RemoteHeartbeat.class)) {
-			;	// NO OP
+			return;	// NO OP
+		}
+		if(request.getClass().equals(RemoteStreamCredit.class)) {
+			onCredit((RemoteStreamCredit)request);
+			return;
 		}
-		else if(request.getClass().equals(RemoteBookingRequest.class)) {
+		if(!(request instanceof RemoteRequest)) {
+			log.warning("Unknown message " + request.getClass().getName());
+			return;
+		}
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				handle(request);
+			}
+		};
+		// bookings of a session apply in the order sent, reads can overtake
+		// them and each other, the client matches responses by corrId
+		boolean admitted = isWrite(request) ? writes.execute(task) : dispatcher.execute(task);
+		if(!admitted) {
+			RemoteResponse response = new RemoteResponse();
+			response.setCorrId(((RemoteRequest)request).getCorrId());
+			response.setSuccess(false);
+			response.setMessage(SERVER_BUSY);
+			session.send(response);
+		}
+	}
+
+	private static boolean isWrite(Object request) {
+		return request.getClass().equals(RemoteBookingRequest.class)
+				|| request.getClass().equals(RemoteBatchBookingRequest.class);
+	}
+
+	private void handle(Object request) {
+		if(request.getClass().equals(RemoteBookingRequest.class)) {
 			handleBooking((RemoteBookingRequest)request);
 		}
 		else if(request.getClass().equals(RemoteSearchRequest.class)) {
 			handleSearch((RemoteSearchRequest)request);
 		}
+		else if(request.getClass().equals(RemoteBatchBookingRequest.class)) {
+			handleBatchBooking((RemoteBatchBookingRequest)request);
+		}
+		else if(request.getClass().equals(RemoteGetRoomsRequest.class)) {
+			handleGetRooms((RemoteGetRoomsRequest)request);
+		}
+		else if(request.getClass().equals(RemoteStreamSearchRequest.class)) {
+			handleStreamSearch((RemoteStreamSearchRequest)request);
+		}
 	}
 	
 	public void onError(Exception e) {
@@ -48,6 +119,8 @@ class RemoteBookingServiceServerSessionHandler implements SessionEventListener {
 	}
 	
 	public void onStopped() {
+		for(SearchStream stream : streams.values())
+			stream.cancel();
 		server.onSessionStopped(session);
 	}
 	
@@ -77,4 +150,183 @@ class RemoteBookingServiceServerSessionHandler implements SessionEventListener {
 		}
 		session.send(response);
 	}
-}
\ No newline at end of file
+
+	private void handleBatchBooking(RemoteBatchBookingRequest bookingRequest) {
+		RemoteBatchBookingResponse response = new RemoteBatchBookingResponse();
+		response.setCorrId(bookingRequest.getCorrId());
+		try {
+			response.setResults(service.book(bookingRequest.getBookings()));
+			response.setSuccess(true);
+		} catch (ServiceException e) {
+			response.setSuccess(false);
+			response.setMessage(e.getMessage());
+		}
+		session.send(response);
+	}
+	
+	private void handleGetRooms(RemoteGetRoomsRequest getRequest) {
+		RemoteGetRoomsResponse response = new RemoteGetRoomsResponse();
+		response.setCorrId(getRequest.getCorrId());
+		try {
+			response.setResult(service.getRooms(getRequest.getRecNos()));
+			response.setSuccess(true);
+		} catch (ServiceException e) {
+			response.setSuccess(false);
+			response.setMessage(e.getMessage());
+		}
+		session.send(response);
+	}
+
+	private void handleStreamSearch(RemoteStreamSearchRequest searchRequest) {
+		if(openStreams.incrementAndGet() > MAX_STREAMS) {
+			openStreams.decrementAndGet();
+			sendChunk(searchRequest.getCorrId(), null, false, "More than " + MAX_STREAMS + " searches open");
+			return;
+		}
+		RoomCursor cursor;
+		try {
+			cursor = service.openSearch(searchRequest.getCriteria(), searchRequest.getChunkSize());
+		} catch (ServiceException e) {
+			openStreams.decrementAndGet();
+			sendChunk(searchRequest.getCorrId(), null, false, e.getMessage());
+			return;
+		}
+		SearchStream stream = new SearchStream(searchRequest.getCorrId(), cursor,
+				Math.max(searchRequest.getWindow(), 1));
+		SearchStream previous = streams.put(searchRequest.getCorrId(), stream);
+		if(previous != null)
+			previous.cancel();	// corrId reused by the client
+		stream.run();
+	}
+
+	private void onCredit(RemoteStreamCredit credit) {
+		SearchStream stream = streams.get(credit.getStreamId());
+		if(stream == null)
+			return;	// already finished
+		if(credit.isCancel())
+			stream.cancel();
+		else
+			stream.addCredit(credit.getCredit());
+	}
+
+	private void sendChunk(long corrId, Room[] rooms, boolean success, String message) {
+		RemoteSearchChunk chunk = new RemoteSearchChunk();
+		chunk.setCorrId(corrId);
+		chunk.setResult(rooms);
+		chunk.setSuccess(success);
+		chunk.setMessage(message);
+		chunk.setLast(!success);
+		session.send(chunk);
+	}
+
+	/**
+	 * Runs on a worker while it has credit, at most one at a time, so the 
+	 * cursor is only used by one thread at a time. While out of credit, a
+	 * timeout on the timer cancels it.
+	 */
+	private final class SearchStream implements Runnable {
+		private final long corrId;
+		private final RoomCursor cursor;
+		/** Guarded by this, with the fields below */
+		private int credit;
+		private boolean running = true;
+		private boolean cancelled;
+		private boolean finished;
+		/** Set while waiting for credit */
+		private TimerWheel.Timeout idle;
+		private final Runnable idleTask = new Runnable() {
+			@Override
+			public void run() {
+				onIdle();
+			}
+		};
+
+		public SearchStream(long corrId, RoomCursor cursor, int credit) {
+			this.corrId = corrId;
+			this.cursor = cursor;
+			this.credit = credit;
+		}
+
+		void addCredit(int more) {
+			synchronized(this) {
+				credit += more;
+				if(running || cancelled || credit <= 0)
+					return;
+				running = true;
+				idle.cancel();
+			}
+			if(!dispatcher.execute(this)) {
+				sendChunk(corrId, null, false, SERVER_BUSY);
+				finish();
+			}
+		}
+
+		void cancel() {
+			synchronized(this) {
+				cancelled = true;
+				if(running)
+					return;	// finished by run()
+			}
+			finish();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true) {
+					synchronized(this) {
+						if(cancelled)
+							break;
+						if(credit <= 0) {
+							running = false;
+							idle = timer.schedule(idleTask, streamIdleMillis, TimeUnit.MILLISECONDS);
+							return;
+						}
+						--credit;
+					}
+					Room[] rooms = cursor.next();
+					RemoteSearchChunk chunk = new RemoteSearchChunk();
+					chunk.setCorrId(corrId);
+					chunk.setSuccess(true);
+					chunk.setResult(rooms);
+					chunk.setLast(!cursor.hasNext());
+					session.send(chunk);
+					if(chunk.isLast())
+						break;
+				}
+			} catch (ServiceException e) {
+				sendChunk(corrId, null, false, e.getMessage());
+			} catch (RuntimeException e) {
+				log.log(Level.SEVERE, "Error streaming search " + corrId, e);
+				sendChunk(corrId, null, false, "System error.");
+			}
+			finish();
+		}
+
+		/**
+		 * On the timer thread, credit may have arrived since.
+		 */
+		private void onIdle() {
+			synchronized(this) {
+				if(running || cancelled)
+					return;
+			}
+			log.info("Cancelling search " + corrId + " without credit for " + streamIdleMillis + "ms");
+			sendChunk(corrId, null, false, "Search idle for " + streamIdleMillis + "ms");
+			cancel();
+		}
+
+		private void finish() {
+			synchronized(this) {
+				if(finished)
+					return;
+				finished = true;
+				if(idle != null)
+					idle.cancel();
+			}
+			streams.remove(corrId, this);
+			openStreams.decrementAndGet();
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package jcertdevtest.net;
+
+public class RemoteGetRoomsRequest extends RemoteRequest {
+
+	private static final long serialVersionUID = 1L;
+	
+	private int[] recNos;
+
+	public int[] getRecNos() {
+		return recNos;
+	}
+
+	public void setRecNos(int[] recNos) {
+		this.recNos = recNos;
+	}
+	
+}
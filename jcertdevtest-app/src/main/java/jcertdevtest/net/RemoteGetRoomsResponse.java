@@ -0,0 +1,16 @@
+package jcertdevtest.net;
+
+import jcertdevtest.Room;
+
+public class RemoteGetRoomsResponse extends RemoteResponse {
+	private static final long serialVersionUID = 1L;
+	private Room[] Result;
+
+	public Room[] getResult() {
+		return Result;
+	}
+
+	public void setResult(Room[] result) {
+		Result = result;
+	}
+}
@@ -0,0 +1,13 @@
+package jcertdevtest.net;
+
+/**
+ * Reported by the {@link ActivityMonitor} of a session when no message received from far end of
+ * socket after a specific time.
+ * 
+ * @author Ken Goh
+ *
+ */
+class RemoteNoActivityException extends Exception {
+
+	private static final long serialVersionUID = 1L;	
+}
@@ -0,0 +1,112 @@
+package jcertdevtest.net;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.ServiceException;
+
+/**
+ * Client side of a {@link RemoteStreamSearchRequest}. Chunks received are
+ * queued until read, and each chunk read gives the server credit for one
+ * more, so no more than the window is ever queued.
+ * 
+ */
+final class RemoteRoomCursor implements RoomCursor, NetworkClient.StreamListener {
+	/** {@link RemoteResponse}, or the Exception the connection failed with */
+	private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+	private final NetworkClient client;
+	private final long timeoutMillis;
+	private long streamId;
+	private boolean done;
+
+	/**
+	 * @param timeoutMillis max wait for each chunk
+	 */
+	public RemoteRoomCursor(NetworkClient client, long timeoutMillis) {
+		this.client = client;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	void open(SearchCriteria criteria, int chunkSize, int window) {
+		RemoteStreamSearchRequest request = new RemoteStreamSearchRequest();
+		request.setCriteria(criteria);
+		request.setChunkSize(chunkSize);
+		request.setWindow(window);
+		client.stream(request, this);
+		streamId = request.getCorrId();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !done;
+	}
+
+	@Override
+	public Room[] next() throws ServiceException {
+		if(done)
+			throw new NoSuchElementException();
+		Object o;
+		try {
+			o = received.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			close();
+			throw new ServiceException("Interrupted waiting for search result", e);
+		}
+		if(o == null) {
+			close();
+			throw new ServiceException("Error calling Booking Service", 
+					new IOException("No search result within " + timeoutMillis + "ms"));
+		}
+		if(o instanceof Exception) {
+			done = true;
+			throw new ServiceException("Error calling Booking Service", (Exception)o);
+		}
+		RemoteResponse response = (RemoteResponse)o;
+		if(!response.isSuccess()) {
+			done = true;
+			throw new ServiceException("Error performing search: " + response.getMessage());
+		}
+		if(!(response instanceof RemoteSearchChunk)) {
+			done = true;
+			throw new ServiceException("Error calling Booking Service");
+		}
+		RemoteSearchChunk chunk = (RemoteSearchChunk)response;
+		if(chunk.isLast()) {
+			done = true;
+		} else {
+			RemoteStreamCredit credit = new RemoteStreamCredit();
+			credit.setStreamId(streamId);
+			credit.setCredit(1);
+			client.post(credit);
+		}
+		return chunk.getResult();
+	}
+
+	@Override
+	public void close() {
+		if(done)
+			return;
+		done = true;
+		client.removeStream(streamId);
+		RemoteStreamCredit cancel = new RemoteStreamCredit();
+		cancel.setStreamId(streamId);
+		cancel.setCancel(true);
+		client.post(cancel);
+	}
+
+	@Override
+	public void onResponse(RemoteResponse response) {
+		received.add(response);
+	}
+
+	@Override
+	public void onError(Exception e) {
+		received.add(e);
+	}
+}
@@ -0,0 +1,30 @@
+package jcertdevtest.net;
+
+import jcertdevtest.Room;
+
+/**
+ * Part of the result of a {@link RemoteStreamSearchRequest}. A failed one 
+ * ends the stream, same as the last.
+ * 
+ */
+public class RemoteSearchChunk extends RemoteResponse {
+	private static final long serialVersionUID = 1L;
+	private Room[] Result;
+	private boolean Last;
+
+	public Room[] getResult() {
+		return Result;
+	}
+
+	public void setResult(Room[] result) {
+		Result = result;
+	}
+
+	public boolean isLast() {
+		return Last;
+	}
+
+	public void setLast(boolean last) {
+		Last = last;
+	}
+}
@@ -0,0 +1,41 @@
+package jcertdevtest.net;
+
+/**
+ * Lets the server send more chunks of a {@link RemoteStreamSearchRequest},
+ * or stops the stream. Not answered.
+ * 
+ */
+public class RemoteStreamCredit extends RemoteRequest {
+	private static final long serialVersionUID = 1L;
+	/** corrId of the search request */
+	private long streamId;
+	private int credit;
+	private boolean cancel;
+
+	public long getStreamId() {
+		return streamId;
+	}
+
+	public void setStreamId(long streamId) {
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Number of further chunks the server may send.
+	 */
+	public int getCredit() {
+		return credit;
+	}
+
+	public void setCredit(int credit) {
+		this.credit = credit;
+	}
+
+	public boolean isCancel() {
+		return cancel;
+	}
+
+	public void setCancel(boolean cancel) {
+		this.cancel = cancel;
+	}
+}
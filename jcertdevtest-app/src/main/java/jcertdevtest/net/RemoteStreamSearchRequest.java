@@ -0,0 +1,40 @@
+package jcertdevtest.net;
+
+import jcertdevtest.SearchCriteria;
+
+/**
+ * Search answered with a {@link RemoteSearchChunk} at a time, all with the
+ * corrId of this request. The server sends at most window chunks ahead of
+ * the ones the client has acknowledged with {@link RemoteStreamCredit}.
+ * 
+ */
+public class RemoteStreamSearchRequest extends RemoteRequest {
+	private static final long serialVersionUID = 1L;
+	private SearchCriteria criteria;
+	private int chunkSize;
+	private int window;
+
+	public SearchCriteria getCriteria() {
+		return criteria;
+	}
+
+	public void setCriteria(SearchCriteria criteria) {
+		this.criteria = criteria;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public void setWindow(int window) {
+		this.window = window;
+	}
+}
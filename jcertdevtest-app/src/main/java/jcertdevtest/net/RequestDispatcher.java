@@ -0,0 +1,145 @@
+package jcertdevtest.net;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs requests of all sessions of the {@link NetworkServer} on a pool of
+ * worker threads, apart from the threads decoding them, so a request
+ * blocked on a record lock or the disk does not hold up the later ones.
+ *
+ * At most a fixed number of requests are admitted, queued or running,
+ * beyond that {@link #execute} refuses them for the caller to answer
+ * busy, rather than queueing without limit.
+ *
+ * Requests that must run in the order received, e.g. bookings of a
+ * session, go through a {@link Sequence}, the others run as soon as a
+ * worker is free.
+ *
+ */
+final class RequestDispatcher {
+	private static final Logger log = Logger.getLogger(RequestDispatcher.class.getName());
+	private final Executor workers;
+	private final int capacity;
+	private final AtomicInteger admitted = new AtomicInteger();
+
+	/**
+	 * @param capacity max number of requests queued or running
+	 */
+	public RequestDispatcher(Executor workers, int capacity) {
+		this.workers = workers;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return false if refused as too many requests are already admitted
+	 */
+	public boolean execute(final Runnable request) {
+		if(!admit())
+			return false;
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						request.run();
+					} catch (RuntimeException e) {
+						log.log(Level.SEVERE, "Error running request", e);
+					} finally {
+						admitted.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			admitted.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Requests queued or running.
+	 */
+	public int getAdmitted() {
+		return admitted.get();
+	}
+
+	private boolean admit() {
+		while(true) {
+			int current = admitted.get();
+			if(current >= capacity)
+				return false;
+			if(admitted.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Requests run one at a time in the order executed, on whichever
+	 * worker is free. Only takes a worker while it has requests.
+	 */
+	public Sequence newSequence() {
+		return new Sequence();
+	}
+
+	final class Sequence implements Runnable {
+		/** Guarded by itself, with running */
+		private final Queue<Runnable> queue = new ArrayDeque<>();
+		private boolean running;
+
+		private Sequence() {
+		}
+
+		/**
+		 * @return false if refused as too many requests are already admitted
+		 */
+		public boolean execute(Runnable request) {
+			if(!admit())
+				return false;
+			synchronized(queue) {
+				queue.add(request);
+				if(running)
+					return true;
+				running = true;
+			}
+			try {
+				workers.execute(this);
+			} catch (RejectedExecutionException e) {
+				synchronized(queue) {
+					admitted.addAndGet(-queue.size());
+					queue.clear();
+					running = false;
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				Runnable request;
+				synchronized(queue) {
+					request = queue.poll();
+					if(request == null) {
+						running = false;
+						return;
+					}
+				}
+				try {
+					request.run();
+				} catch (RuntimeException e) {
+					log.log(Level.SEVERE, "Error running request", e);
+				} finally {
+					admitted.decrementAndGet();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package jcertdevtest.net;
+
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds where each top level object of a java serialization stream ends,
+ * without deserializing it, so {@link NioSession} can wait for a whole
+ * message without blocking a thread on a partly received one.
+ *
+ * Walks the grammar of the serialization protocol. Like the reading
+ * {@link java.io.ObjectInputStream}, it keeps the class descriptors by
+ * handle, as a later message can refer to a class described in an earlier
+ * one. Externalizable classes written with the old protocol version 1,
+ * without block data, cannot be walked and fail as corrupted. So does
+ * nesting deeper than {@link MAX_DEPTH}, as the walk recurses on the
+ * event loop thread.
+ *
+ * Not thread safe. Messages must be scanned in the order of the stream.
+ *
+ */
+final class SerializationScanner implements ObjectStreamConstants {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Objects within objects and class descriptors within each other */
+	static final int MAX_DEPTH = 1000;
+	/** Thrown to unwind when more bytes are needed */
+	private static final Incomplete INCOMPLETE = new Incomplete();
+
+	/** Objects by handle, a class descriptor or null for anything else */
+	private List<ClassDesc> handles = new ArrayList<>();
+	private ByteBuffer in;
+	private int pos;
+	private int depth;
+
+	/**
+	 * @param in bytes received, from its position, which must be the start
+	 * of a message after the stream header. Not modified.
+	 * @return position after the end of the message, or -1 if not all of it
+	 * is received yet.
+	 */
+	public int scan(ByteBuffer in) throws StreamCorruptedException {
+		List<ClassDesc> savedHandles = handles;
+		int savedSize = handles.size();
+		this.in = in;
+		this.pos = in.position();
+		this.depth = 0;
+		try {
+			int tc;
+			while((tc = readByte()) == TC_RESET)
+				handles = new ArrayList<>();
+			readContent(tc);
+			return pos;
+		} catch (Incomplete e) {
+			// scanned again from the start with more bytes
+			handles = savedHandles;
+			handles.subList(savedSize, handles.size()).clear();
+			return -1;
+		} finally {
+			this.in = null;
+		}
+	}
+
+	private void readContent(int tc) throws StreamCorruptedException {
+		enter();
+		switch(tc) {
+		case TC_NULL:
+			break;
+		case TC_REFERENCE:
+			getHandle(readInt());
+			break;
+		case TC_CLASSDESC:
+		case TC_PROXYCLASSDESC:
+			readClassDesc(tc);
+			break;
+		case TC_OBJECT: {
+			ClassDesc desc = readClassDescRef();
+			handles.add(null);
+			readClassData(desc);
+			break;
+		}
+		case TC_STRING:
+			skip(readShort());
+			handles.add(null);
+			break;
+		case TC_LONGSTRING:
+			skip(readLong());
+			handles.add(null);
+			break;
+		case TC_ARRAY: {
+			ClassDesc desc = readClassDescRef();
+			handles.add(null);
+			int length = readInt();
+			if(desc == null || desc.name.length() < 2 || length < 0)
+				throw new StreamCorruptedException("Invalid array");
+			char type = desc.name.charAt(1);
+			if(type == 'L' || type == '[') {
+				for(int i = 0; i < length; ++i)
+					readContent(readByte());
+			} else {
+				skip((long)length * primitiveSize(type));
+			}
+			break;
+		}
+		case TC_CLASS:
+			readClassDescRef();
+			handles.add(null);
+			break;
+		case TC_ENUM:
+			readClassDescRef();
+			handles.add(null);
+			readContent(readByte());
+			break;
+		default:
+			throw new StreamCorruptedException("Unsupported type code " + tc);
+		}
+		--depth;
+	}
+
+	private ClassDesc readClassDescRef() throws StreamCorruptedException {
+		int tc = readByte();
+		switch(tc) {
+		case TC_NULL:
+			return null;
+		case TC_REFERENCE:
+			ClassDesc desc = getHandle(readInt());
+			if(desc == null)
+				throw new StreamCorruptedException("Reference is not a class descriptor");
+			return desc;
+		case TC_CLASSDESC:
+		case TC_PROXYCLASSDESC:
+			return readClassDesc(tc);
+		default:
+			throw new StreamCorruptedException("Invalid class descriptor type code " + tc);
+		}
+	}
+
+	private ClassDesc readClassDesc(int tc) throws StreamCorruptedException {
+		enter();
+		ClassDesc desc;
+		if(tc == TC_PROXYCLASSDESC) {
+			// no fields of its own, h is a field of the Proxy super class
+			desc = new ClassDesc("", SC_SERIALIZABLE);
+			handles.add(desc);
+			int numInterfaces = readInt();
+			for(int i = 0; i < numInterfaces; ++i)
+				skip(readShort());
+		} else {
+			String name = readUTF();
+			skip(8);	// serialVersionUID
+			desc = new ClassDesc(name, 0);
+			handles.add(desc);
+			desc.flags = readByte();
+			int numFields = readShort();
+			desc.fieldTypes = new char[numFields];
+			for(int i = 0; i < numFields; ++i) {
+				char type = (char)readByte();
+				skip(readShort());	// field name
+				if(type == 'L' || type == '[')
+					readContent(readByte());	// field class name
+				desc.fieldTypes[i] = type;
+			}
+		}
+		readAnnotation();
+		desc.superDesc = readClassDescRef();
+		--depth;
+		return desc;
+	}
+
+	private void readClassData(ClassDesc desc) throws StreamCorruptedException {
+		if(desc == null)
+			throw new StreamCorruptedException("Object without class descriptor");
+		// a chain of super classes can be built by reference, one per message
+		enter();
+		if(desc.superDesc != null)
+			readClassData(desc.superDesc);
+		if((desc.flags & SC_SERIALIZABLE) != 0) {
+			for(char type : desc.fieldTypes) {
+				if(type == 'L' || type == '[')
+					readContent(readByte());
+				else
+					skip(primitiveSize(type));
+			}
+			if((desc.flags & SC_WRITE_METHOD) != 0)
+				readAnnotation();
+		} else if((desc.flags & SC_EXTERNALIZABLE) != 0) {
+			if((desc.flags & SC_BLOCK_DATA) == 0)
+				throw new StreamCorruptedException("Externalizable without block data " + desc.name);
+			readAnnotation();
+		}
+		--depth;
+	}
+
+	/**
+	 * Block data and objects up to the end marker.
+	 */
+	private void readAnnotation() throws StreamCorruptedException {
+		while(true) {
+			int tc = readByte();
+			switch(tc) {
+			case TC_ENDBLOCKDATA:
+				return;
+			case TC_BLOCKDATA:
+				skip(readByte());
+				break;
+			case TC_BLOCKDATALONG:
+				skip(readInt() & 0xffffffffL);
+				break;
+			default:
+				readContent(tc);
+			}
+		}
+	}
+
+	/**
+	 * Unwound by an exception, depth is reset by the next scan.
+	 */
+	private void enter() throws StreamCorruptedException {
+		if(++depth > MAX_DEPTH)
+			throw new StreamCorruptedException("Nested deeper than " + MAX_DEPTH);
+	}
+
+	private ClassDesc getHandle(int handle) throws StreamCorruptedException {
+		int index = handle - baseWireHandle;
+		if(index < 0 || index >= handles.size())
+			throw new StreamCorruptedException("Invalid handle " + handle);
+		return handles.get(index);
+	}
+
+	private static int primitiveSize(char type) throws StreamCorruptedException {
+		switch(type) {
+		case 'B':
+		case 'Z':
+			return 1;
+		case 'C':
+		case 'S':
+			return 2;
+		case 'I':
+		case 'F':
+			return 4;
+		case 'J':
+		case 'D':
+			return 8;
+		default:
+			throw new StreamCorruptedException("Invalid field type " + type);
+		}
+	}
+
+	private void need(long length) {
+		if(length > in.limit() - pos)
+			throw INCOMPLETE;
+	}
+
+	private void skip(long length) throws StreamCorruptedException {
+		if(length < 0)
+			throw new StreamCorruptedException("Invalid length " + length);
+		need(length);
+		pos += (int)length;
+	}
+
+	private int readByte() {
+		need(1);
+		return in.get(pos++) & 0xff;
+	}
+
+	private int readShort() {
+		need(2);
+		int value = in.getShort(pos) & 0xffff;
+		pos += 2;
+		return value;
+	}
+
+	private int readInt() {
+		need(4);
+		int value = in.getInt(pos);
+		pos += 4;
+		return value;
+	}
+
+	private long readLong() {
+		need(8);
+		long value = in.getLong(pos);
+		pos += 8;
+		return value;
+	}
+
+	/**
+	 * Modified UTF-8 as plain UTF-8, only class names are kept.
+	 */
+	private String readUTF() {
+		int length = readShort();
+		need(length);
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; ++i)
+			bytes[i] = in.get(pos + i);
+		pos += length;
+		return new String(bytes, UTF8);
+	}
+
+	private static final class ClassDesc {
+		private final String name;
+		private int flags;
+		private char[] fieldTypes = new char[0];
+		private ClassDesc superDesc;
+		public ClassDesc(String name, int flags) {
+			this.name = name;
+			this.flags = flags;
+		}
+	}
+
+	private static final class Incomplete extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public Incomplete() {
+			super(null, null, false, false);
+		}
+	}
+}
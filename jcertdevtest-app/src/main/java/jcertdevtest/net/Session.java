@@ -0,0 +1,12 @@
+package jcertdevtest.net;
+
+/**
+ * A connection to the far end as seen by its {@link SessionEventListener},
+ * whatever does the IO underneath.
+ * 
+ */
+interface Session {
+	public void send(Object message);
+	public void signalStop();
+	public int getSessionId();
+}
@@ -0,0 +1,64 @@
+package jcertdevtest.net;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads running the blocking work of {@link NetworkServer} requests and
+ * of {@link NetworkClient} connections.
+ *
+ * Virtual threads are looked up at runtime, so the build stays on the
+ * source level of the rest of the project and the mode is only available
+ * when running on Java 21 or later.
+ *
+ */
+public enum ThreadMode {
+	/** Pools of platform threads, as many threads as are blocked at most */
+	PLATFORM,
+	/**
+	 * A new virtual thread per task, so blocking on a record lock or socket
+	 * does not hold a platform thread. Needs Java 21 or later.
+	 */
+	VIRTUAL;
+
+	/**
+	 * @param threads number of platform threads, ignored for virtual
+	 */
+	ExecutorService newFixedPool(int threads) {
+		if(this == VIRTUAL)
+			return newVirtualThreadPerTaskExecutor();
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Platform threads are created as needed and exit when idle.
+	 */
+	ExecutorService newCachedPool() {
+		if(this == VIRTUAL)
+			return newVirtualThreadPerTaskExecutor();
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * True if the running JVM has virtual threads.
+	 */
+	public static boolean isVirtualSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running "
+					+ System.getProperty("java.version"));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to create virtual thread executor", e);
+		}
+	}
+}
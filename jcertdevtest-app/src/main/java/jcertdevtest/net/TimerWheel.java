@@ -0,0 +1,140 @@
+package jcertdevtest.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel: one thread for any number of timeouts, each costing a
+ * list entry rather than a thread or a heap operation. Time is split into 
+ * ticks, and a timeout goes into the bucket of the tick it is due in,
+ * modulo the number of buckets. Each tick the thread runs the due timeouts
+ * of one bucket, so timeouts fire up to one tick late, never early.
+ * 
+ * Tasks run on the wheel thread and must be short, handing anything slow
+ * to another thread.
+ * 
+ */
+final class TimerWheel implements Runnable {
+	private static final Logger log = Logger.getLogger(TimerWheel.class.getName());
+	private final long tickNanos;
+	/** Only used by the wheel thread */
+	private final List<Timeout>[] buckets;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	private final long startTime = System.nanoTime();
+	private volatile boolean stopped;
+
+	/**
+	 * A scheduled task.
+	 */
+	static final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		/** Only used by the wheel thread, wheel turns left before due */
+		private long rounds;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * No effect if it already ran.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.buckets = new List[ticksPerWheel];
+		for(int i = 0; i < ticksPerWheel; ++i)
+			buckets[i] = new ArrayList<>();
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		stopped = true;
+		thread.interrupt();
+		thread.join(10000);
+	}
+
+	/**
+	 * Thread safe. Runs the task on the wheel thread after the delay, 
+	 * unless cancelled.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+		added.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		long tick = 0;
+		while(!stopped) {
+			long wait = startTime + (tick + 1) * tickNanos - System.nanoTime();
+			if(wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					// stopped
+					continue;
+				}
+			}
+			Timeout timeout;
+			while((timeout = added.poll()) != null)
+				place(timeout, tick);
+			expire(buckets[(int)(tick % buckets.length)]);
+			++tick;
+		}
+		log.info("Timer wheel stopped");
+	}
+
+	private void place(Timeout timeout, long currentTick) {
+		if(timeout.cancelled)
+			return;
+		// round up, so never runs early
+		long dueTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+		// already due ones go into the current bucket, expired right after
+		dueTick = Math.max(dueTick, currentTick);
+		timeout.rounds = (dueTick - currentTick) / buckets.length;
+		buckets[(int)(dueTick % buckets.length)].add(timeout);
+	}
+
+	private void expire(List<Timeout> bucket) {
+		// compact in place, keeping timeouts for later rounds
+		int kept = 0;
+		for(int i = 0; i < bucket.size(); ++i) {
+			Timeout timeout = bucket.get(i);
+			if(timeout.cancelled)
+				continue;
+			if(timeout.rounds > 0) {
+				--timeout.rounds;
+				bucket.set(kept++, timeout);
+				continue;
+			}
+			try {
+				timeout.task.run();
+			} catch (Throwable e) {
+				// the wheel thread runs the heartbeats and timeouts of all
+				// sessions, it must not die with one task
+				log.log(Level.SEVERE, "Timer task failed", e);
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+}
@@ -0,0 +1,13 @@
+package jcertdevtest.net;
+
+/**
+ * Encoding of messages between {@link NetworkClient} and 
+ * {@link NetworkServer}, chosen by the client. The server speaks both.
+ * 
+ */
+public enum WireProtocol {
+	/** Java serialization of the message objects, as the original clients */
+	SERIALIZED,
+	/** {@link BinaryCodec}, negotiated when connecting */
+	BINARY
+}
@@ -1,12 +1,23 @@
 package jcertdevtest;
 
 import static org.junit.Assert.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import jcertdevtest.db.DB;
+import jcertdevtest.db.DataPersistenceException;
+import jcertdevtest.db.Query;
+import jcertdevtest.db.QueryableDB;
 import jcertdevtest.db.RecordNotFoundException;
+import jcertdevtest.db.Snapshot;
+import jcertdevtest.db.VersionedDB;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.*;
 
@@ -111,6 +122,163 @@ public class BookingServiceImplTest {
 		assertEquals(2, rooms.length);
 	}
 
+	private static Snapshot mockSnapshot(DB queryable) {
+		Snapshot snapshot = mock(Snapshot.class);
+		when(((QueryableDB)queryable).openSnapshot()).thenReturn(snapshot);
+		return snapshot;
+	}
+
+	@Test
+	public void testSearchQueryable() throws ServiceException, RecordNotFoundException {
+		DB queryable = mock(DB.class, withSettings().extraInterfaces(QueryableDB.class));
+		sut = new BookingServiceImpl(queryable);
+		Room room = new Room();
+		room.setName("N1");
+		room.setLocation("L1");
+		Map<Integer, String[]> result = new LinkedHashMap<>();
+		result.put(1, room.toRecord());
+		Snapshot snapshot = mockSnapshot(queryable);
+		when(snapshot.query(any(Query.class))).thenReturn(result);
+		
+		SearchCriteriaExactOr criteria = new SearchCriteriaExactOr();
+		criteria.setName("N1");
+		Room[] rooms = sut.search(criteria);
+		
+		assertEquals(1, rooms.length);
+		assertEquals(1, rooms[0].getRecNo());
+		assertEquals("N1", rooms[0].getName());
+		verify(queryable, never()).find(any(String[].class));
+		verify(queryable, never()).read(anyInt());
+		verify(snapshot).close();
+	}
+
+	@Test
+	public void testSearchPage() throws ServiceException, RecordNotFoundException {
+		Room room = Room.fromRecord(1, data.read(1));
+		room.setPrice("$200.00");
+		when(data.read(1)).thenReturn(room.toRecord());
+		room = Room.fromRecord(2, data.read(2));
+		room.setPrice("$150.00");
+		when(data.read(2)).thenReturn(room.toRecord());
+		when(data.find(new String[Room.NumFields])).thenReturn(new int[] {1,2});
+		
+		SearchCriteriaAll criteria = new SearchCriteriaAll();
+		criteria.setSort(SortKey.PRICE);
+		criteria.setLimit(1);
+		Room[] rooms = sut.search(criteria);
+		assertEquals(1, rooms.length);
+		assertEquals(2, rooms[0].getRecNo());
+		criteria.setOffset(1);
+		rooms = sut.search(criteria);
+		assertEquals(1, rooms.length);
+		assertEquals(1, rooms[0].getRecNo());
+		criteria.setOffset(2);
+		assertEquals(0, sut.search(criteria).length);
+	}
+
+	@Test
+	public void testSearchPageQueryable() throws ServiceException {
+		DB queryable = mock(DB.class, withSettings().extraInterfaces(QueryableDB.class));
+		sut = new BookingServiceImpl(queryable);
+		Map<Integer, String[]> page = new LinkedHashMap<>();
+		page.put(4, new Room().toRecord());
+		Snapshot snapshot = mockSnapshot(queryable);
+		when(snapshot.query(any(Query.class), eq(SortKey.DATE.comparator()), eq(50), eq(10)))
+				.thenReturn(page);
+		
+		SearchCriteriaAll criteria = new SearchCriteriaAll();
+		criteria.setSort(SortKey.DATE);
+		criteria.setOffset(50);
+		criteria.setLimit(10);
+		Room[] rooms = sut.search(criteria);
+		assertEquals(1, rooms.length);
+		assertEquals(4, rooms[0].getRecNo());
+	}
+
+	@Test
+	public void testSearchCached() throws ServiceException {
+		DB queryable = mock(DB.class, withSettings().extraInterfaces(QueryableDB.class));
+		sut = new BookingServiceImpl(queryable);
+		Map<Integer, String[]> result = new LinkedHashMap<>();
+		result.put(1, new Room().toRecord());
+		Snapshot snapshot = mockSnapshot(queryable);
+		when(snapshot.query(any(Query.class))).thenReturn(result);
+		when(snapshot.getSequence()).thenReturn(1L);
+		when(((QueryableDB)queryable).getVersion()).thenReturn(1L);
+		
+		Room[] rooms = sut.search(new SearchCriteriaAll());
+		rooms[0].setCustomer("12345678");
+		Room[] cached = sut.search(new SearchCriteriaAll());
+		verify(snapshot, times(1)).query(any(Query.class));
+		// a copy, unaffected by the change to the first result
+		assertNotSame(rooms[0], cached[0]);
+		assertEquals(1, cached[0].getRecNo());
+		assertNull(cached[0].getCustomer());
+		
+		// any change to the data is searched again
+		when(snapshot.getSequence()).thenReturn(2L);
+		when(((QueryableDB)queryable).getVersion()).thenReturn(2L);
+		assertNotSame(rooms, sut.search(new SearchCriteriaAll()));
+		verify(snapshot, times(2)).query(any(Query.class));
+	}
+
+	@Test
+	public void testOpenSearchQueryable() throws ServiceException {
+		DB queryable = mock(DB.class, withSettings().extraInterfaces(QueryableDB.class));
+		sut = new BookingServiceImpl(queryable);
+		Map<Integer, String[]> first = new LinkedHashMap<>();
+		first.put(1, new Room().toRecord());
+		first.put(4, new Room().toRecord());
+		Map<Integer, String[]> second = new LinkedHashMap<>();
+		second.put(7, new Room().toRecord());
+		first.putAll(second);
+		Snapshot snapshot = mock(Snapshot.class);
+		when(((QueryableDB)queryable).openSnapshot()).thenReturn(snapshot);
+		when(snapshot.matches(any(Query.class))).thenReturn(first.entrySet().iterator());
+		
+		RoomCursor cursor = sut.openSearch(new SearchCriteriaAll(), 2);
+		assertEquals(2, cursor.next().length);
+		assertTrue(cursor.hasNext());
+		verify(snapshot, never()).close();
+		Room[] rooms = cursor.next();
+		assertEquals(1, rooms.length);
+		assertEquals(7, rooms[0].getRecNo());
+		assertFalse(cursor.hasNext());
+		// one snapshot for all chunks, closed after the last
+		verify((QueryableDB)queryable).openSnapshot();
+		verify(snapshot).matches(any(Query.class));
+		verify(snapshot).close();
+	}
+
+	@Test
+	public void testOpenSearchQueryableClosed() throws ServiceException {
+		DB queryable = mock(DB.class, withSettings().extraInterfaces(QueryableDB.class));
+		sut = new BookingServiceImpl(queryable);
+		Map<Integer, String[]> matches = new LinkedHashMap<>();
+		for(int recNo = 1; recNo <= 5; ++recNo)
+			matches.put(recNo, new Room().toRecord());
+		Snapshot snapshot = mock(Snapshot.class);
+		when(((QueryableDB)queryable).openSnapshot()).thenReturn(snapshot);
+		when(snapshot.matches(any(Query.class))).thenReturn(matches.entrySet().iterator());
+
+		RoomCursor cursor = sut.openSearch(new SearchCriteriaAll(), 2);
+		assertEquals(2, cursor.next().length);
+		cursor.close();
+		assertFalse(cursor.hasNext());
+		verify(snapshot).close();
+	}
+
+	@Test
+	public void testOpenSearch() throws ServiceException {
+		when(data.find(new String[Room.NumFields])).thenReturn(new int[] {1,2});
+		RoomCursor cursor = sut.openSearch(new SearchCriteriaAll(), 2);
+		assertEquals(2, cursor.next().length);
+		// exact multiple of the chunk size ends with an empty one
+		assertTrue(cursor.hasNext());
+		assertEquals(0, cursor.next().length);
+		assertFalse(cursor.hasNext());
+	}
+
 	@Test
 	public void testBook() throws ServiceException, SecurityException, RecordNotFoundException {
 		Booking booking = new Booking();
@@ -134,4 +302,130 @@ public class BookingServiceImplTest {
 		}
 	}
 
+	@Test
+	public void testBookOptimistic() throws ServiceException, RecordNotFoundException {
+		DB versioned = mock(DB.class, withSettings().extraInterfaces(VersionedDB.class));
+		sut = new BookingServiceImpl(versioned);
+		when(versioned.read(1)).thenReturn(new Room().toRecord());
+		when(((VersionedDB)versioned).getRecordVersion(1)).thenReturn(3L, 4L);
+		// lose to another change once
+		when(((VersionedDB)versioned).updateIfVersion(eq(1), eq(3L), any(String[].class))).thenReturn(false);
+		when(((VersionedDB)versioned).updateIfVersion(eq(1), eq(4L), any(String[].class))).thenReturn(true);
+		Booking booking = new Booking();
+		booking.setCustomer("111111");
+		booking.setRecNo(1);
+		sut.book(booking);
+		
+		ArgumentCaptor<String[]> dataArg = ArgumentCaptor.forClass(String[].class);
+		verify((VersionedDB)versioned).updateIfVersion(eq(1), eq(4L), dataArg.capture());
+		assertEquals(booking.getCustomer(), dataArg.getValue()[Room.FieldNums.CUSTOMER]);
+		verify(versioned, never()).lock(anyInt());
+		
+		// already booked fails without the lock
+		Room booked = new Room();
+		booked.setCustomer("222222");
+		when(versioned.read(1)).thenReturn(booked.toRecord());
+		try {
+			sut.book(booking);
+			fail("Should not be able to book on a room that has customer set");
+		} catch(ServiceException e) {
+			assertEquals("Room already booked", e.getMessage());
+		}
+		verify(versioned, never()).lock(anyInt());
+	}
+
+	@Test
+	public void testBookOptimisticContended() throws ServiceException, RecordNotFoundException {
+		DB versioned = mock(DB.class, withSettings().extraInterfaces(VersionedDB.class));
+		sut = new BookingServiceImpl(versioned);
+		when(versioned.read(1)).thenReturn(new Room().toRecord());
+		when(versioned.lock(1)).thenReturn(10L);
+		Booking booking = new Booking();
+		booking.setCustomer("111111");
+		booking.setRecNo(1);
+		sut.book(booking);
+		
+		// failed with the version unchanged, held by a lock, so waits for it
+		verify((VersionedDB)versioned, times(1))
+				.updateIfVersion(eq(1), anyLong(), any(String[].class));
+		verify(versioned).update(eq(1), any(String[].class), eq(10L));
+		verify(versioned).unlock(1, 10L);
+
+		// losing every race to other changes, waits for it after some attempts
+		when(((VersionedDB)versioned).getRecordVersion(1)).thenAnswer(new Answer<Long>() {
+			private long version;
+			@Override
+			public Long answer(InvocationOnMock invocation) {
+				return ++version;
+			}
+		});
+		sut.book(booking);
+		verify((VersionedDB)versioned, times(1 + BookingServiceImpl.MAX_BOOK_ATTEMPTS))
+				.updateIfVersion(eq(1), anyLong(), any(String[].class));
+		verify(versioned, times(2)).update(eq(1), any(String[].class), eq(10L));
+	}
+
+	@Test
+	public void testBookBatch() throws ServiceException, SecurityException, RecordNotFoundException {
+		when(data.lock(anyInt())).thenReturn(10L);
+		when(data.lock(5)).thenThrow(new RecordNotFoundException());
+		Booking[] bookings = new Booking[3];
+		int[] recNos = {5, 1, 2};
+		for(int i = 0; i < bookings.length; ++i) {
+			bookings[i] = new Booking();
+			bookings[i].setRecNo(recNos[i]);
+			bookings[i].setCustomer("111111");
+		}
+
+		BookingResult[] results = sut.book(bookings);
+
+		assertEquals(3, results.length);
+		assertFalse(results[0].isSuccess());
+		assertEquals("Room not found", results[0].getMessage());
+		assertTrue(results[1].isSuccess());
+		assertFalse(results[2].isSuccess());
+		assertEquals("Room already booked", results[2].getMessage());
+		InOrder order = inOrder(data);
+		order.verify(data).lock(1);
+		order.verify(data).lock(2);
+		order.verify(data).lock(5);
+		verify(data).update(eq(1), any(String[].class), eq(10L));
+		verify(data, never()).update(eq(2), any(String[].class), anyLong());
+		verify(data).unlock(1, 10L);
+		verify(data).unlock(2, 10L);
+		verify(data, never()).unlock(eq(5), anyLong());
+	}
+
+	@Test
+	public void testBookBatchPersistenceError() throws ServiceException, SecurityException, RecordNotFoundException {
+		when(data.lock(anyInt())).thenReturn(10L);
+		when(data.read(3)).thenReturn(new Room().toRecord());
+		doThrow(new DataPersistenceException("disk full")).when(data).update(eq(3), any(String[].class), anyLong());
+		Booking[] bookings = new Booking[2];
+		int[] recNos = {1, 3};
+		for(int i = 0; i < bookings.length; ++i) {
+			bookings[i] = new Booking();
+			bookings[i].setRecNo(recNos[i]);
+			bookings[i].setCustomer("111111");
+		}
+
+		// the booking already made is still reported
+		BookingResult[] results = sut.book(bookings);
+
+		assertTrue(results[0].isSuccess());
+		assertFalse(results[1].isSuccess());
+		assertEquals("System error.", results[1].getMessage());
+		verify(data).unlock(1, 10L);
+		verify(data).unlock(3, 10L);
+	}
+
+	@Test
+	public void testGetRooms() throws ServiceException, RecordNotFoundException {
+		when(data.read(3)).thenThrow(new RecordNotFoundException());
+		Room[] rooms = sut.getRooms(new int[] {2, 3, 1});
+		assertEquals(3, rooms.length);
+		assertEquals("N2", rooms[0].getName());
+		assertNull(rooms[1]);
+		assertEquals("N1", rooms[2].getName());
+	}
 }
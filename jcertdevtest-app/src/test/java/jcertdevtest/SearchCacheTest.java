@@ -0,0 +1,84 @@
+package jcertdevtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SearchCacheTest {
+
+	private static SearchCriteriaExactOr byName(String name) {
+		SearchCriteriaExactOr criteria = new SearchCriteriaExactOr();
+		criteria.setName(name);
+		return criteria;
+	}
+
+	@Test
+	public void testVersion() {
+		SearchCache sut = new SearchCache(100);
+		Room[] rooms = {new Room()};
+		SearchCriteriaExactOr criteria = byName("A");
+		sut.put(criteria, 1, rooms);
+		// keyed by value, not affected by changing the criteria put
+		criteria.setName("B");
+		assertNull(sut.get(criteria, 1));
+		assertEquals(1, sut.get(byName("A"), 1).length);
+		assertNull(sut.get(byName("A"), 2));
+		assertEquals(0, sut.size());
+
+		// older result does not replace newer
+		sut.put(byName("A"), 3, rooms);
+		sut.put(byName("A"), 2, new Room[0]);
+		assertEquals(1, sut.get(byName("A"), 3).length);
+	}
+
+	@Test
+	public void testCopies() {
+		SearchCache sut = new SearchCache(100);
+		Room room = new Room();
+		room.setName("A");
+		Room[] rooms = {room, null};
+		sut.put(byName("A"), 1, rooms);
+		// changing the result put, or one got, changes no other
+		room.setName("B");
+		rooms[1] = room;
+		Room[] got = sut.get(byName("A"), 1);
+		assertNotSame(rooms, got);
+		assertEquals("A", got[0].getName());
+		assertNull(got[1]);
+		got[0].setName("C");
+		got[1] = room;
+		Room[] again = sut.get(byName("A"), 1);
+		assertNotSame(got[0], again[0]);
+		assertEquals("A", again[0].getName());
+		assertNull(again[1]);
+	}
+
+	@Test
+	public void testEviction() {
+		SearchCache sut = new SearchCache(10);
+		sut.put(byName("A"), 1, new Room[4]);
+		sut.put(byName("B"), 1, new Room[4]);
+		assertNotNull(sut.get(byName("A"), 1));
+		// B least recently used
+		sut.put(byName("C"), 1, new Room[1]);
+		assertNull(sut.get(byName("B"), 1));
+		assertNotNull(sut.get(byName("A"), 1));
+		assertNotNull(sut.get(byName("C"), 1));
+		// too large to cache
+		sut.put(byName("D"), 1, new Room[10]);
+		assertNull(sut.get(byName("D"), 1));
+		assertEquals(2, sut.size());
+	}
+
+	@Test
+	public void testCriteriaEquals() {
+		SearchCriteriaAll page = new SearchCriteriaAll();
+		page.setLimit(10);
+		assertFalse(page.equals(new SearchCriteriaAll()));
+		SearchCriteriaAll other = new SearchCriteriaAll();
+		other.setLimit(10);
+		assertEquals(page, other);
+		assertEquals(page.hashCode(), other.hashCode());
+		assertFalse(new SearchCriteriaExactAnd().equals(new SearchCriteriaExactOr()));
+	}
+}
@@ -0,0 +1,101 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelDataFileTest {
+
+	private File file;
+	private ChannelDataFile sut;
+	private Map<Integer, Record> records;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ChannelDataFileTest", ".db");
+		Files.copy(new File("../db-1x1.db").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		sut = new ChannelDataFile(file.getPath(), 4);
+		records = sut.load();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testLoadSameAsDataFile() throws Exception {
+		Map<Integer, Record> expected = new DataFile(file.getPath()).load();
+		assertEquals(expected.size(), records.size());
+		for(Map.Entry<Integer, Record> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue().getData(), records.get(entry.getKey()).getData());
+			assertEquals(entry.getValue().isDeleted(), records.get(entry.getKey()).isDeleted());
+		}
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception {
+		final int numThreads = 8;
+		final Set<Integer> created = Collections.synchronizedSet(new HashSet<Integer>());
+		final CountDownLatch latch = new CountDownLatch(numThreads);
+		ExecutorService es = Executors.newFixedThreadPool(numThreads);
+		for(int i = 0; i < numThreads; ++i) {
+			final int recNo = i + 1;
+			es.execute(new Runnable() {
+				@Override
+				public void run() {
+					latch.countDown();
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					String[] data = records.get(recNo).getData().clone();
+					data[6] = Integer.toString(recNo);
+					sut.update(recNo, data);
+					created.add(sut.create(data));
+				}
+			});
+		}
+		es.shutdown();
+		assertTrue(es.awaitTermination(1, TimeUnit.MINUTES));
+
+		Map<Integer, Record> reloaded = new DataFile(file.getPath()).load();
+		assertEquals(records.size() + numThreads, reloaded.size());
+		assertEquals(numThreads, created.size());
+		for(int recNo = 1; recNo <= numThreads; ++recNo) {
+			assertEquals(Integer.toString(recNo), reloaded.get(recNo).getData()[6]);
+		}
+		for(int recNo : created) {
+			assertFalse(reloaded.get(recNo).isDeleted());
+		}
+	}
+
+	@Test
+	public void testUnwrittenSlotLoadsAsDeleted() throws Exception {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			// as if 2 appends had started but crashed before writing
+			raf.setLength(raf.length() + 2 * new DataFileSchema(raf).RecordLength);
+		}
+		Map<Integer, Record> reloaded = new ChannelDataFile(file.getPath()).load();
+		assertEquals(records.size() + 2, reloaded.size());
+		assertFalse(reloaded.get(records.size()).isDeleted());
+		assertTrue(reloaded.get(records.size() + 1).isDeleted());
+		assertTrue(reloaded.get(records.size() + 2).isDeleted());
+	}
+}
@@ -0,0 +1,102 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactRecordStoreTest {
+
+	private File file;
+	private CompactRecordStore sut;
+	private String[] data = new String[] {"Palace", "Smallville", "2", "Y", "$150.00", "2005/07/27", ""};
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("CompactRecordStoreTest", ".db");
+		Files.copy(new File("../db-1x1.db").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			sut = new CompactRecordStore(new DataFileSchema(raf));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testPutAndGet() {
+		assertNull(sut.getData(1));
+		assertTrue(sut.isDeleted(1));
+		assertEquals(0, sut.getMaxRecNo());
+		sut.put(5000, new Record(data, false));
+		assertArrayEquals(data, sut.getData(5000));
+		assertFalse(sut.isDeleted(5000));
+		assertNull(sut.getData(4999));
+		assertFalse(sut.contains(4999));
+		assertTrue(sut.contains(5000));
+		assertEquals(5000, sut.getMaxRecNo());
+
+		String[] changed = data.clone();
+		changed[6] = "12345678";
+		sut.setData(5000, changed);
+		assertArrayEquals(changed, sut.getData(5000));
+		sut.setDeleted(5000, true);
+		assertTrue(sut.isDeleted(5000));
+		assertArrayEquals(changed, sut.getData(5000));
+	}
+
+	@Test
+	public void testMatches() {
+		sut.put(1, new Record(data, false));
+		assertTrue(sut.matches(1, new String[] {"Pal", "Smallville", null, null, null, null, null}));
+		assertTrue(sut.matches(1, new String[] {null, null, null, null, null, null, ""}));
+		assertFalse(sut.matches(1, new String[] {"Palace ", null, null, null, null, null, null}));
+		assertFalse(sut.matches(1, new String[] {"Smallville", null, null, null, null, null, null}));
+		assertFalse(sut.matches(2, new String[] {null, null, null, null, null, null, null}));
+		sut.setDeleted(1, true);
+		assertFalse(sut.matches(1, new String[] {"Pal", null, null, null, null, null, null}));
+	}
+
+	@Test(expected = DataPersistenceException.class)
+	public void testPutTooLong() {
+		String[] tooLong = data.clone();
+		tooLong[6] = "123456789";
+		sut.put(1, new Record(tooLong, false));
+	}
+
+	@Test
+	public void testDataWithCompactStore() throws Exception {
+		Map<Integer, Record> records = new DataFile(file.getPath()).load();
+		Properties config = new Properties();
+		config.setProperty(DataFactory.STORE, "compact");
+		config.setProperty(DataFactory.INDEXED_FIELDS, "0,1");
+		Data db = DataFactory.open(file.getPath(), config);
+
+		String[] first = records.get(1).getData();
+		assertArrayEquals(first, db.read(1));
+		String[] criteria = new String[] {first[0], first[1], null, null, null, null, null};
+		int[] found = db.find(criteria);
+		assertTrue(found.length > 0);
+		for(int recNo : found)
+			assertEquals(criteria[0], db.read(recNo)[0]);
+
+		String[] changed = first.clone();
+		changed[6] = "12345678";
+		long cookie = db.lock(1);
+		db.update(1, changed, cookie);
+		db.unlock(1, cookie);
+		assertArrayEquals(changed, db.read(1));
+		assertArrayEquals(new int[] {1}, db.find(new String[] {null, null, null, null, null, null, "1234"}));
+	}
+}
@@ -2,11 +2,17 @@ package jcertdevtest.db;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +65,27 @@ public class DataTest extends TestCase {
 		assertEquals(recNo, newRecNo);
 	}
 
+	@Test
+	public void testCreateSkipsLockedDeleted() throws DuplicateKeyException, SecurityException, RecordNotFoundException {
+		int recNo = 2;
+		long cookie = sut.lock(recNo);
+		sut.delete(recNo, cookie);
+		when(persistence.create(any(String[].class))).thenReturn(3);
+		assertEquals(3, sut.create(new String[] {"3"}));
+		sut.unlock(recNo, cookie);
+		assertEquals(recNo, sut.create(new String[] {"4"}));
+	}
+
+	@Test
+	public void testLockTimeout() throws RecordNotFoundException, LockTimeoutException {
+		sut.lock(1);
+		try {
+			sut.lock(1, 10, TimeUnit.MILLISECONDS);
+			fail("Should time out");
+		} catch(LockTimeoutException e) {
+		}
+	}
+
 	@Test
 	public void testDelete() throws SecurityException, RecordNotFoundException {
 		int recNo = 1;
@@ -85,6 +112,235 @@ public class DataTest extends TestCase {
 		verify(persistence, times(1)).update(recNo, new String[] {"2e"});
 	}
 	
+	@Test
+	public void testFind() throws DuplicateKeyException {
+		when(persistence.create(any(String[].class))).thenReturn(3);
+		sut.create(new String[] {"10"});
+		assertEquals(0, sut.find(new String[] {"3"}).length);
+		int[] matches = sut.find(new String[] {"1"});
+		Arrays.sort(matches);
+		assertEquals(2, matches.length);
+		assertEquals(1, matches[0]);
+		assertEquals(3, matches[1]);
+		assertEquals(3, sut.find(new String[] {null}).length);
+	}
+	
+	@Test
+	public void testFindAfterUpdateAndDelete() throws RecordNotFoundException {
+		long cookie = sut.lock(1);
+		sut.update(1, new String[] {"21"}, cookie);
+		sut.unlock(1, cookie);
+		assertEquals(0, sut.find(new String[] {"1"}).length);
+		assertEquals(2, sut.find(new String[] {"2"}).length);
+		
+		cookie = sut.lock(2);
+		sut.delete(2, cookie);
+		sut.unlock(2, cookie);
+		int[] matches = sut.find(new String[] {"2"});
+		assertEquals(1, matches.length);
+		assertEquals(1, matches[0]);
+	}
+	
+	@Test
+	public void testFindWithoutIndex() throws IOException {
+		sut = new Data(persistence, new int[0]);
+		assertEquals(1, sut.find(new String[] {"2"}).length);
+		assertEquals(2, sut.find(new String[] {""}).length);
+	}
+	
+	@Test
+	public void testQuery() throws IOException, DuplicateKeyException {
+		when(persistence.create(any(String[].class))).thenReturn(3);
+		sut.create(new String[] {"10"});
+		
+		Map<Integer, String[]> result = sut.query(Query.exact(0, "1"));
+		assertEquals(1, result.size());
+		assertEquals("1", result.get(1)[0]);
+		assertEquals(2, sut.query(Query.prefix(0, "1")).size());
+		assertEquals(0, sut.query(Query.exact(0, null)).size());
+		assertEquals(3, sut.query(Query.all()).size());
+		
+		result = sut.query(Query.or(Query.exact(0, "2"), Query.exact(0, "10")));
+		assertEquals(Arrays.asList(2, 3), new ArrayList<>(result.keySet()));
+		
+		assertEquals(1, sut.query(Query.and(Query.prefix(0, "1"), Query.exact(0, "10"))).size());
+		assertEquals(0, sut.query(Query.and(Query.exact(0, "2"), Query.exact(0, "10"))).size());
+		
+		// same results scanning without index
+		sut = new Data(persistence, new int[0]);
+		assertEquals(1, sut.query(Query.exact(0, "1")).size());
+		assertEquals(2, sut.query(Query.or(Query.exact(0, "2"), Query.exact(0, "1"))).size());
+	}
+	
+	@Test
+	public void testQueryParts() throws IOException, DuplicateKeyException {
+		when(persistence.create(any(String[].class))).thenReturn(3);
+		sut.create(new String[] {"10"});
+		
+		assertEquals(Arrays.asList(1, 2), new ArrayList<>(sut.query(Query.all(), 0, 2).keySet()));
+		assertEquals(Arrays.asList(3), new ArrayList<>(sut.query(Query.all(), 2, 2).keySet()));
+		assertEquals(0, sut.query(Query.all(), 3, 2).size());
+		assertEquals(Arrays.asList(3), new ArrayList<>(sut.query(Query.prefix(0, "1"), 1, 2).keySet()));
+		
+		// same parts scanning without index
+		sut = new Data(persistence, new int[0]);
+		assertEquals(Arrays.asList(1), new ArrayList<>(sut.query(Query.all(), 0, 1).keySet()));
+		assertEquals(Arrays.asList(2), new ArrayList<>(sut.query(Query.all(), 1, 1).keySet()));
+		assertEquals(0, sut.query(Query.prefix(0, "1"), 1, 2).size());
+	}
+	
+	@Test
+	public void testVersion() throws DuplicateKeyException, RecordNotFoundException {
+		long version = sut.getVersion();
+		long cookie = sut.lock(1);
+		sut.update(1, new String[] {"11"}, cookie);
+		assertTrue(sut.getVersion() > version);
+		version = sut.getVersion();
+		sut.delete(1, cookie);
+		assertTrue(sut.getVersion() > version);
+		sut.unlock(1, cookie);
+		version = sut.getVersion();
+		sut.create(new String[] {"12"});
+		assertTrue(sut.getVersion() > version);
+		version = sut.getVersion();
+		sut.find(new String[] {"1"});
+		assertEquals(version, sut.getVersion());
+	}
+
+	@Test
+	public void testUpdateIfVersion() throws RecordNotFoundException {
+		long version = sut.getRecordVersion(1);
+		assertTrue(sut.updateIfVersion(1, version, new String[] {"11"}));
+		verify(persistence).update(eq(1), eq(new String[] {"11"}));
+		// stale version
+		assertFalse(sut.updateIfVersion(1, version, new String[] {"12"}));
+		assertEquals("11", sut.read(1)[0]);
+		
+		// locked, fails without waiting
+		version = sut.getRecordVersion(1);
+		long cookie = sut.lock(1);
+		assertFalse(sut.updateIfVersion(1, version, new String[] {"12"}));
+		sut.delete(1, cookie);
+		sut.unlock(1, cookie);
+		try {
+			sut.updateIfVersion(1, version, new String[] {"12"});
+			fail("Should not update deleted record");
+		} catch(RecordNotFoundException e) {
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws DuplicateKeyException, RecordNotFoundException {
+		Snapshot snapshot = sut.openSnapshot();
+		assertEquals(sut.getVersion(), snapshot.getSequence());
+		long cookie = sut.lock(1);
+		sut.update(1, new String[] {"11"}, cookie);
+		sut.unlock(1, cookie);
+		cookie = sut.lock(2);
+		sut.delete(2, cookie);
+		sut.unlock(2, cookie);
+		Snapshot afterDelete = sut.openSnapshot();
+		// reuses deleted 2
+		assertEquals(2, sut.create(new String[] {"10"}));
+		
+		assertEquals("1", snapshot.read(1)[0]);
+		assertEquals("2", snapshot.read(2)[0]);
+		assertEquals(Arrays.asList(1, 2), new ArrayList<>(snapshot.query(Query.all()).keySet()));
+		// no longer in the index
+		assertEquals(Arrays.asList(1), new ArrayList<>(snapshot.query(Query.exact(0, "1")).keySet()));
+		try {
+			afterDelete.read(2);
+			fail("Deleted as of snapshot");
+		} catch(RecordNotFoundException e) {
+		}
+		assertEquals(Arrays.asList(1), new ArrayList<>(afterDelete.query(Query.all()).keySet()));
+		assertEquals("10", sut.read(2)[0]);
+		snapshot.close();
+		// old versions still seen by the later snapshot are kept
+		assertEquals("11", afterDelete.read(1)[0]);
+		assertEquals(0, afterDelete.query(Query.exact(0, "10")).size());
+		afterDelete.close();
+		
+		snapshot = sut.openSnapshot();
+		assertEquals("11", snapshot.read(1)[0]);
+		assertEquals(0, snapshot.query(Query.exact(0, "1")).size());
+		snapshot.close();
+	}
+
+	@Test
+	public void testSnapshotMatches() throws Exception {
+		Snapshot snapshot = sut.openSnapshot();
+		Iterator<Map.Entry<Integer, String[]>> matches = snapshot.matches(Query.exact(0, "1"));
+		long cookie = sut.lock(1);
+		sut.update(1, new String[] {"11"}, cookie);
+		sut.unlock(1, cookie);
+		// candidates were looked up when opened, data is as of the snapshot
+		assertTrue(matches.hasNext());
+		Map.Entry<Integer, String[]> match = matches.next();
+		assertEquals(1, (int)match.getKey());
+		assertEquals("1", match.getValue()[0]);
+		assertFalse(matches.hasNext());
+
+		List<Integer> all = new ArrayList<>();
+		for(Iterator<Map.Entry<Integer, String[]>> it = snapshot.matches(Query.all()); it.hasNext();)
+			all.add(it.next().getKey());
+		assertEquals(new ArrayList<>(snapshot.query(Query.all()).keySet()), all);
+		snapshot.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testSnapshotConcurrentUpdate() throws Exception {
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for(int i = 0; !stop.get(); ++i) {
+					try {
+						long cookie = sut.lock(1);
+						sut.update(1, new String[] {Integer.toString(i)}, cookie);
+						sut.unlock(1, cookie);
+					} catch (RecordNotFoundException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		};
+		writer.start();
+		try {
+			for(int i = 0; i < 1000; ++i) {
+				try(Snapshot snapshot = sut.openSnapshot()) {
+					String first = snapshot.read(1)[0];
+					Thread.yield();
+					assertEquals(first, snapshot.read(1)[0]);
+					assertEquals(first, snapshot.query(Query.all()).get(1)[0]);
+				}
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+	}
+
+	@Test
+	public void testQueryPage() throws DuplicateKeyException {
+		when(persistence.create(any(String[].class))).thenReturn(3);
+		sut.create(new String[] {"10"});
+		Comparator<String[]> descending = new Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				return b[0].compareTo(a[0]);
+			}
+		};
+		
+		assertEquals(Arrays.asList(2, 3, 1), new ArrayList<>(sut.query(Query.all(), descending, 0, 0).keySet()));
+		assertEquals(Arrays.asList(2, 3), new ArrayList<>(sut.query(Query.all(), descending, 0, 2).keySet()));
+		assertEquals(Arrays.asList(3), new ArrayList<>(sut.query(Query.all(), descending, 1, 1).keySet()));
+		assertEquals(0, sut.query(Query.all(), descending, 3, 1).size());
+		// recNo order
+		assertEquals(Arrays.asList(2, 3), new ArrayList<>(sut.query(Query.all(), null, 1, 0).keySet()));
+		assertEquals(Arrays.asList(2), new ArrayList<>(sut.query(Query.all(), null, 1, 1).keySet()));
+	}
+	
 	@Test
 	public void testUpdateMultiThreads() throws IOException, InterruptedException {
 		// prepare multiple threads trying to check on an existing value
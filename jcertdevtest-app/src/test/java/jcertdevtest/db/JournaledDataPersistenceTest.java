@@ -0,0 +1,187 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournaledDataPersistenceTest {
+
+	private File file;
+	private File journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("JournaledDataPersistenceTest", ".db");
+		Files.copy(new File("../db-1x1.db").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		journal = File.createTempFile("JournaledDataPersistenceTest", ".journal");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		journal.delete();
+		new File(journal.getPath() + ".1").delete();
+	}
+
+	private JournaledDataPersistence open() throws IOException {
+		// never checkpoint, so the journal keeps every change
+		return open(Long.MAX_VALUE);
+	}
+
+	private JournaledDataPersistence open(long checkpointBytes) throws IOException {
+		return new JournaledDataPersistence(new DataPersistenceFileAdapter(new DataFile(file.getPath())),
+				file.getPath(), journal.getPath(), checkpointBytes);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		JournaledDataPersistence sut = open();
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		data[6] = "12345678";
+		sut.update(2, data);
+		sut.delete(3);
+		String[] newData = records.get(1).getData().clone();
+		newData[0] = "New Hotel";
+		int recNo = sut.create(newData);
+		assertEquals(records.size() + 1, recNo);
+		assertTrue(journal.length() > 0);
+
+		Map<Integer, Record> reloaded = open().load();
+		assertEquals(records.size() + 1, reloaded.size());
+		assertArrayEquals(data, reloaded.get(2).getData());
+		assertTrue(reloaded.get(3).isDeleted());
+		assertArrayEquals(newData, reloaded.get(recNo).getData());
+		assertEquals(0, journal.length());
+
+		// replayed into the data file itself
+		Map<Integer, Record> fromFile = new DataFile(file.getPath()).load();
+		assertArrayEquals(data, fromFile.get(2).getData());
+		assertTrue(fromFile.get(3).isDeleted());
+		assertArrayEquals(newData, fromFile.get(recNo).getData());
+	}
+
+	@Test
+	public void testTornEntryIgnored() throws IOException {
+		JournaledDataPersistence sut = open();
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		data[6] = "12345678";
+		sut.update(2, data);
+		try(FileOutputStream out = new FileOutputStream(journal, true)) {
+			out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+		}
+
+		Map<Integer, Record> reloaded = open().load();
+		assertEquals(records.size(), reloaded.size());
+		assertArrayEquals(data, reloaded.get(2).getData());
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final JournaledDataPersistence sut = open();
+		final Map<Integer, Record> records = sut.load();
+		List<Thread> threads = new ArrayList<>();
+		for(int i = 1; i <= 8; ++i) {
+			final int recNo = i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					String[] data = records.get(recNo).getData().clone();
+					for(int j = 0; j < 20; ++j) {
+						data[6] = Integer.toString(j);
+						sut.update(recNo, data);
+					}
+				}
+			});
+		}
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+
+		Map<Integer, Record> reloaded = open().load();
+		for(int recNo = 1; recNo <= 8; ++recNo)
+			assertEquals("19", reloaded.get(recNo).getData()[6]);
+	}
+
+	@Test
+	public void testBulkLoadReplay() throws Exception {
+		JournaledDataPersistence sut = open();
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		data[6] = "12345678";
+		sut.update(2, data);
+		sut.delete(3);
+		String[] newData = records.get(1).getData().clone();
+		newData[0] = "New Hotel";
+		int recNo = sut.create(newData);
+
+		Data reloaded = new Data(open());
+		assertArrayEquals(data, reloaded.read(2));
+		assertArrayEquals(newData, reloaded.read(recNo));
+		try {
+			reloaded.read(3);
+			fail("Deleted record read");
+		} catch (RecordNotFoundException e) {
+		}
+		assertEquals(1, reloaded.find(new String[] {"New Hotel"}).length);
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		// switch journal file after every batch
+		JournaledDataPersistence sut = open(1);
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		for(int i = 0; i < 50; ++i) {
+			data[6] = Integer.toString(i);
+			sut.update(2, data);
+			String[] newData = records.get(1).getData().clone();
+			newData[0] = "Hotel " + i;
+			assertEquals(records.size() + 1 + i, sut.create(newData));
+		}
+		sut.close();
+		assertEquals(0, journal.length());
+		assertEquals(0, new File(journal.getPath() + ".1").length());
+
+		Map<Integer, Record> fromFile = new DataFile(file.getPath()).load();
+		assertEquals(records.size() + 50, fromFile.size());
+		assertEquals("49", fromFile.get(2).getData()[6]);
+		assertEquals("Hotel 49", fromFile.get(records.size() + 50).getData()[0]);
+	}
+
+	@Test
+	public void testReplayBothJournalFiles() throws IOException {
+		JournaledDataPersistence sut = open(1);
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		for(int i = 0; i < 50; ++i) {
+			data[6] = Integer.toString(i);
+			sut.update(2, data);
+		}
+
+		// whatever was checkpointed or not, the latest change wins
+		Map<Integer, Record> reloaded = open().load();
+		assertEquals("49", reloaded.get(2).getData()[6]);
+	}
+
+	@Test(expected = DataPersistenceException.class)
+	public void testUpdateTooLong() throws IOException {
+		JournaledDataPersistence sut = open();
+		String[] data = sut.load().get(1).getData().clone();
+		data[6] = "123456789";
+		sut.update(1, data);
+	}
+}
@@ -0,0 +1,99 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LockManagerTest {
+
+	private final LockManager sut = new LockManager(4);
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testLockUnlock() {
+		long cookie = sut.lock(1);
+		assertTrue(sut.isLockedBy(1, cookie));
+		assertFalse(sut.isLockedBy(1, cookie + 1));
+		// same stripe, different record
+		long other = sut.lock(5);
+		assertEquals(-1, sut.tryLock(1));
+		sut.unlock(1, cookie);
+		assertFalse(sut.isLockedBy(1, cookie));
+		assertTrue(sut.isLockedBy(5, other));
+		assertTrue(sut.tryLock(1) != -1);
+	}
+
+	@Test(expected = SecurityException.class)
+	public void testUnlockWrongCookie() {
+		long cookie = sut.lock(1);
+		sut.unlock(1, cookie + 1);
+	}
+
+	@Test(expected = SecurityException.class)
+	public void testUnlockNotLocked() {
+		sut.unlock(1, 0);
+	}
+
+	@Test
+	public void testCookiesUnique() {
+		Set<Long> cookies = new HashSet<>();
+		for(int recNo = 1; recNo <= 10000; ++recNo) {
+			long cookie = sut.lock(recNo);
+			assertTrue(cookie != -1);
+			assertTrue(cookies.add(cookie));
+		}
+	}
+
+	@Test
+	public void testLockWaitsForUnlock() throws Exception {
+		long cookie = sut.lock(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		Future<Long> waiting = executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				started.countDown();
+				return sut.lock(1);
+			}
+		});
+		started.await();
+		try {
+			waiting.get(100, TimeUnit.MILLISECONDS);
+			fail("Should wait for unlock");
+		} catch(TimeoutException e) {
+		}
+		sut.unlock(1, cookie);
+		long waitingCookie = waiting.get(5, TimeUnit.SECONDS);
+		assertTrue(sut.isLockedBy(1, waitingCookie));
+	}
+
+	@Test
+	public void testLockTimeout() throws Exception {
+		sut.lock(1);
+		long start = System.nanoTime();
+		try {
+			sut.lock(1, 50, TimeUnit.MILLISECONDS);
+			fail("Should time out");
+		} catch(LockTimeoutException e) {
+		}
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		// not locked
+		long cookie = sut.lock(2, 50, TimeUnit.MILLISECONDS);
+		assertTrue(sut.isLockedBy(2, cookie));
+	}
+}
@@ -0,0 +1,105 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedDataFileTest {
+
+	private File file;
+	private MappedDataFile sut;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("MappedDataFileTest", ".db");
+		Files.copy(new File("../db-1x1.db").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		sut = new MappedDataFile(file.getPath(), MappedDataFile.ForcePolicy.EVERY_WRITE, 0);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testLoadSameAsDataFile() throws IOException {
+		Map<Integer, Record> expected = new DataFile(file.getPath()).load();
+		Map<Integer, Record> records = sut.load();
+		assertEquals(expected.size(), records.size());
+		for(Map.Entry<Integer, Record> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue().getData(), records.get(entry.getKey()).getData());
+			assertEquals(entry.getValue().isDeleted(), records.get(entry.getKey()).isDeleted());
+		}
+	}
+
+	@Test
+	public void testWrites() throws IOException {
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(2).getData().clone();
+		data[6] = "12345678";
+		sut.update(2, data);
+		sut.delete(3);
+		String[] newData = records.get(1).getData().clone();
+		newData[0] = "New Hotel";
+		int recNo = sut.create(newData);
+		assertEquals(records.size() + 1, recNo);
+		sut.close();
+
+		Map<Integer, Record> reloaded = new DataFile(file.getPath()).load();
+		assertEquals(records.size() + 1, reloaded.size());
+		assertArrayEquals(data, reloaded.get(2).getData());
+		assertTrue(reloaded.get(3).isDeleted());
+		assertArrayEquals(newData, reloaded.get(recNo).getData());
+		assertFalse(reloaded.get(recNo).isDeleted());
+	}
+
+	@Test
+	public void testManyCreates() throws IOException {
+		Map<Integer, Record> records = sut.load();
+		String[] data = records.get(1).getData().clone();
+		int numCreates = 10000;
+		for(int i = 0; i < numCreates; ++i) {
+			data[0] = "Hotel " + i;
+			assertEquals(records.size() + 1 + i, sut.create(data));
+		}
+
+		// as if crashed, with unwritten records at end of file
+		File copy = File.createTempFile("MappedDataFileTest", ".db");
+		try {
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			MappedDataFile crashed = new MappedDataFile(copy.getPath());
+			assertEquals(records.size() + numCreates, crashed.load().size());
+			crashed.close();
+		} finally {
+			copy.delete();
+		}
+
+		long length = file.length();
+		sut.close();
+		assertTrue(file.length() < length);
+		Map<Integer, Record> reloaded = new DataFile(file.getPath()).load();
+		assertEquals(records.size() + numCreates, reloaded.size());
+		assertEquals("Hotel " + (numCreates - 1), reloaded.get(records.size() + numCreates).getData()[0]);
+	}
+
+	@Test(expected = DataPersistenceException.class)
+	public void testUpdateNotInFile() {
+		Map<Integer, Record> records = sut.load();
+		sut.update(records.size() + 1, records.get(1).getData());
+	}
+
+	@Test(expected = DataPersistenceException.class)
+	public void testUpdateTooLong() {
+		String[] data = sut.load().get(1).getData().clone();
+		data[6] = "123456789";
+		sut.update(1, data);
+	}
+}
@@ -0,0 +1,96 @@
+package jcertdevtest.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelRecordLoaderTest {
+
+	private File file;
+	private int originalSize;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ParallelRecordLoaderTest", ".db");
+		Files.copy(new File("../db-1x1.db").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		// enough records to be split into multiple tasks
+		DataFile dataFile = new DataFile(file.getPath());
+		Map<Integer, Record> records = dataFile.load();
+		originalSize = records.size();
+		for(int i = 0; i < 10000; ++i) {
+			String[] data = records.get(i % records.size() + 1).getData().clone();
+			data[0] = "Hotel " + i;
+			dataFile.create(data);
+		}
+		dataFile.delete(5000);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static class MapSink implements RecordSink {
+		final Map<Integer, Record> records = new ConcurrentHashMap<>();
+		int numRecords = -1;
+		int numFields = -1;
+		@Override
+		public void start(int numRecords, int numFields) {
+			assertEquals(-1, this.numRecords);
+			this.numRecords = numRecords;
+			this.numFields = numFields;
+		}
+		@Override
+		public void add(int recNo, Record record) {
+			assertNull(records.put(recNo, record));
+		}
+	}
+
+	private static void assertSameRecords(Map<Integer, Record> expected, MapSink sink) {
+		assertEquals(expected.size(), sink.numRecords);
+		assertEquals(7, sink.numFields);
+		assertEquals(expected.size(), sink.records.size());
+		for(Map.Entry<Integer, Record> entry : expected.entrySet()) {
+			Record record = sink.records.get(entry.getKey());
+			assertArrayEquals(entry.getValue().getData(), record.getData());
+			assertEquals(entry.getValue().isDeleted(), record.isDeleted());
+		}
+	}
+
+	@Test
+	public void testDataFileSameAsLoad() throws IOException {
+		Map<Integer, Record> expected = new DataFile(file.getPath()).load();
+		MapSink sink = new MapSink();
+		DataFile dataFile = new DataFile(file.getPath());
+		dataFile.load(sink);
+		assertSameRecords(expected, sink);
+		assertTrue(sink.records.get(5000).isDeleted());
+		assertEquals(expected.size() + 1, dataFile.create(expected.get(1).getData()));
+	}
+
+	@Test
+	public void testMappedSameAsLoad() throws IOException {
+		Map<Integer, Record> expected = new DataFile(file.getPath()).load();
+		MapSink sink = new MapSink();
+		new MappedDataFile(file.getPath()).load(sink);
+		assertSameRecords(expected, sink);
+	}
+
+	@Test
+	public void testDataFindAfterBulkLoad() throws IOException {
+		Data data = new Data(file.getPath());
+		assertArrayEquals(new int[] {originalSize + 1000 + 1},
+				data.find(new String[] {"Hotel 1000", null, null, null, null, null, null}));
+		// deleted
+		assertEquals(0, data.find(new String[] {"Hotel " + (5000 - originalSize - 1), null, null, null, null, null, null}).length);
+	}
+}
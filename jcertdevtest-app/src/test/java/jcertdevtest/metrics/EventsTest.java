@@ -0,0 +1,55 @@
+package jcertdevtest.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class EventsTest {
+
+	@Test
+	public void testRecorded() throws Exception {
+		// not recording, nothing to see
+		Events.recordLock(Events.beginRecordLock(), 1, true);
+
+		File file = File.createTempFile("EventsTest", ".jfr");
+		try {
+			try(Recording recording = new Recording()) {
+				recording.enable("jcertdevtest.RecordLock");
+				recording.enable("jcertdevtest.Search");
+				recording.start();
+				Object lockEvent = Events.beginRecordLock();
+				Thread.sleep(5);
+				Events.recordLock(lockEvent, 7, false);
+				Events.search(Events.beginSearch(), "criteria", 3);
+				// off by default
+				Events.recordUnlock(7);
+				recording.stop();
+				recording.dump(file.toPath());
+			}
+
+			// other tests may still be running in the background
+			RecordedEvent lock = null;
+			RecordedEvent search = null;
+			for(RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				String name = event.getEventType().getName();
+				assertFalse(name.equals("jcertdevtest.RecordUnlock"));
+				if(name.equals("jcertdevtest.RecordLock") && event.getInt("recNo") == 7)
+					lock = event;
+				else if(name.equals("jcertdevtest.Search") 
+						&& event.getClass("criteriaType").getName().equals(String.class.getName()))
+					search = event;
+			}
+			assertTrue(lock.getDuration().toMillis() >= 5);
+			assertFalse(lock.getBoolean("acquired"));
+			assertEquals(3, search.getInt("matches"));
+		} finally {
+			file.delete();
+		}
+	}
+}
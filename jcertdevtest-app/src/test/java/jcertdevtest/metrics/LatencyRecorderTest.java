@@ -0,0 +1,70 @@
+package jcertdevtest.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+	@Test
+	public void testBuckets() {
+		for(long value : new long[] {0, 1, 31, 32, 33, 100, 1000, 123456789, Long.MAX_VALUE}) {
+			int index = LatencyRecorder.indexOf(value);
+			long highest = LatencyRecorder.highestOf(index);
+			assertTrue(value + " above " + highest, value <= highest);
+			assertTrue(value + " within 1/16 of " + highest, highest - value <= value / 16);
+			if(index > 0)
+				assertTrue(LatencyRecorder.highestOf(index - 1) < value);
+		}
+		assertEquals(31, LatencyRecorder.indexOf(31));
+		assertEquals(32, LatencyRecorder.indexOf(33));
+		assertEquals(33, LatencyRecorder.indexOf(34));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyRecorder sut = new LatencyRecorder("test");
+		assertEquals(0, sut.getPercentileNanos(99));
+		for(int i = 1; i <= 1000; ++i)
+			sut.record(i * 1000L);
+		assertEquals(1000, sut.getCount());
+		assertEquals(500.5, sut.getMeanMicros(), 0.001);
+		assertEquals(500, sut.getP50Micros(), 500 / 16.0);
+		assertEquals(990, sut.getP99Micros(), 990 / 16.0);
+		assertEquals(1000, sut.getMaxMicros(), 1000 / 16.0);
+
+		sut.reset();
+		assertEquals(0, sut.getCount());
+		assertEquals(0, sut.getMaxMicros(), 0);
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		LatencyRecorder recorder = Metrics.latency("LatencyRecorderTest");
+		assertSame(recorder, Metrics.latency("LatencyRecorderTest"));
+		recorder.record(5000);
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+				Metrics.getObjectName("Latency", "LatencyRecorderTest"), "Count"));
+
+		Counter counter = Metrics.counter("LatencyRecorderTest");
+		counter.add(3);
+		counter.decrement();
+		assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+				Metrics.getObjectName("Counter", "LatencyRecorderTest"), "Value"));
+	}
+
+	@Test
+	public void testOpsPerSecondShared() throws InterruptedException {
+		LatencyRecorder sut = new LatencyRecorder("test");
+		for(int i = 0; i < 100; ++i)
+			sut.record(1000);
+		assertEquals(0, sut.getOpsPerSecond(), 0);
+		Thread.sleep(RateWindow.WINDOW_NANOS / 1000000 + 100);
+		double rate = sut.getOpsPerSecond();
+		assertTrue(rate > 0 && rate <= 100);
+		// a second reader sees the same window, not one cut short by the first
+		assertEquals(rate, sut.getOpsPerSecond(), 0);
+	}
+}
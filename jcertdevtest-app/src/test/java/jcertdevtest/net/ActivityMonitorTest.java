@@ -0,0 +1,69 @@
+package jcertdevtest.net;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActivityMonitorTest {
+
+	private TimerWheel timer;
+	private Session session;
+	private SessionEventListener listener;
+	private ActivityMonitor sut;
+
+	@Before
+	public void setUp() {
+		timer = new TimerWheel("test", 10, TimeUnit.MILLISECONDS, 64);
+		timer.start();
+		session = mock(Session.class);
+		listener = mock(SessionEventListener.class);
+		sut = new ActivityMonitor(timer, session, 100, 300);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		sut.stop();
+		timer.stop();
+	}
+
+	@Test
+	public void testHeartbeatWhenIdle() throws InterruptedException {
+		sut.start(listener);
+		for(int i = 0; i < 5; ++i) {
+			sut.onReceived();
+			Thread.sleep(50);
+		}
+		verify(session, atLeast(1)).send(NetworkSession.heartbeat);
+		verify(listener, never()).onError(any(Exception.class));
+	}
+
+	@Test
+	public void testNoHeartbeatWhenSending() throws InterruptedException {
+		sut.start(listener);
+		for(int i = 0; i < 10; ++i) {
+			sut.onReceived();
+			sut.onSent();
+			Thread.sleep(20);
+		}
+		verify(session, never()).send(any());
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		sut.start(listener);
+		verify(listener, timeout(2000)).onError(any(RemoteNoActivityException.class));
+	}
+
+	@Test
+	public void testStopped() throws InterruptedException {
+		sut.start(listener);
+		sut.stop();
+		Thread.sleep(400);
+		verifyZeroInteractions(session, listener);
+	}
+}
@@ -0,0 +1,247 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.SearchCriteriaAll;
+import jcertdevtest.SearchCriteriaExactAnd;
+import jcertdevtest.SearchCriteriaExactOr;
+import jcertdevtest.SortKey;
+
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+	private static Object roundTrip(Object message) throws IOException {
+		BinaryCodec.FrameBuffer out = new BinaryCodec.FrameBuffer();
+		BinaryCodec.encode(message, out);
+		return BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(out.toFrame())));
+	}
+
+	@Test
+	public void testSearchRequest() throws IOException {
+		SearchCriteriaExactOr criteria = new SearchCriteriaExactOr();
+		criteria.setName("Palace");
+		RemoteSearchRequest request = new RemoteSearchRequest();
+		request.setCorrId(Long.MAX_VALUE);
+		request.setCriteria(criteria);
+
+		RemoteSearchRequest decoded = (RemoteSearchRequest)roundTrip(request);
+		assertEquals(Long.MAX_VALUE, decoded.getCorrId());
+		assertTrue(decoded.getCriteria() instanceof SearchCriteriaExactOr);
+		assertEquals("Palace", ((SearchCriteriaExactOr)decoded.getCriteria()).getName());
+		assertNull(((SearchCriteriaExactOr)decoded.getCriteria()).getLocation());
+	}
+
+	@Test
+	public void testSearchRequestPage() throws IOException {
+		SearchCriteriaAll criteria = new SearchCriteriaAll();
+		criteria.setOffset(100);
+		criteria.setLimit(50);
+		criteria.setSort(SortKey.OCCUPANCY);
+		RemoteSearchRequest request = new RemoteSearchRequest();
+		request.setCriteria(criteria);
+
+		SearchCriteria decoded = ((RemoteSearchRequest)roundTrip(request)).getCriteria();
+		assertTrue(decoded instanceof SearchCriteriaAll);
+		assertEquals(100, decoded.getOffset());
+		assertEquals(50, decoded.getLimit());
+		assertEquals(SortKey.OCCUPANCY, decoded.getSort());
+		
+		SearchCriteriaExactAnd exact = new SearchCriteriaExactAnd();
+		exact.setName("Palace");
+		exact.setLocation("Smallville");
+		request.setCriteria(exact);
+		decoded = ((RemoteSearchRequest)roundTrip(request)).getCriteria();
+		assertEquals("Smallville", ((SearchCriteriaExactAnd)decoded).getLocation());
+		assertEquals(0, decoded.getLimit());
+		assertNull(decoded.getSort());
+	}
+
+	@Test
+	public void testBookingRequest() throws IOException {
+		Booking booking = new Booking();
+		booking.setRecNo(42);
+		booking.setCustomer("12345678");
+		RemoteBookingRequest request = new RemoteBookingRequest();
+		request.setCorrId(7);
+		request.setBooking(booking);
+
+		RemoteBookingRequest decoded = (RemoteBookingRequest)roundTrip(request);
+		assertEquals(7, decoded.getCorrId());
+		assertEquals(42, decoded.getBooking().getRecNo());
+		assertEquals("12345678", decoded.getBooking().getCustomer());
+	}
+
+	@Test
+	public void testSearchResponse() throws IOException {
+		Room room1 = new Room();
+		room1.setRecNo(1);
+		room1.setName("Palace");
+		room1.setLocation("Smallville");
+		room1.setOccupancy(4);
+		room1.setSmoking(true);
+		room1.setPrice("$150.00");
+		room1.setDate("2005/07/27");
+		room1.setCustomer("");
+		Room room2 = new Room();
+		room2.setRecNo(2);
+		room2.setName("Castle");
+		RemoteSearchResponse response = new RemoteSearchResponse();
+		response.setCorrId(3);
+		response.setSuccess(true);
+		response.setResult(new Room[] {room1, room2});
+
+		RemoteSearchResponse decoded = (RemoteSearchResponse)roundTrip(response);
+		assertEquals(3, decoded.getCorrId());
+		assertTrue(decoded.isSuccess());
+		assertNull(decoded.getMessage());
+		Room[] rooms = decoded.getResult();
+		assertEquals(2, rooms.length);
+		assertEquals(1, rooms[0].getRecNo());
+		assertEquals("Palace", rooms[0].getName());
+		assertEquals("Smallville", rooms[0].getLocation());
+		assertEquals(4, rooms[0].getOccupancy());
+		assertTrue(rooms[0].isSmoking());
+		assertEquals("$150.00", rooms[0].getPrice());
+		assertEquals("2005/07/27", rooms[0].getDate());
+		assertEquals("", rooms[0].getCustomer());
+		assertEquals("Castle", rooms[1].getName());
+		assertFalse(rooms[1].isSmoking());
+		assertNull(rooms[1].getLocation());
+		assertNull(rooms[1].getCustomer());
+	}
+
+	@Test
+	public void testFrameTooLong() throws IOException {
+		RemoteGetRoomsRequest request = new RemoteGetRoomsRequest();
+		request.setRecNos(new int[BinaryCodec.MAX_FRAME_LENGTH / 4]);
+		BinaryCodec.FrameBuffer out = new BinaryCodec.FrameBuffer();
+		try {
+			BinaryCodec.encode(request, out);
+			fail();
+		} catch (BinaryCodec.FrameTooLongException e) {
+			out.reset();
+		}
+		// nothing left of it
+		BinaryCodec.encode(NetworkSession.heartbeat, out);
+		assertEquals(5, out.toFrame().length);
+	}
+
+	@Test
+	public void testFailedResponse() throws IOException {
+		RemoteSearchResponse response = new RemoteSearchResponse();
+		response.setCorrId(3);
+		response.setMessage("Invalid search");
+
+		RemoteSearchResponse decoded = (RemoteSearchResponse)roundTrip(response);
+		assertFalse(decoded.isSuccess());
+		assertEquals("Invalid search", decoded.getMessage());
+		assertNull(decoded.getResult());
+	}
+
+	@Test
+	public void testBatchBooking() throws IOException {
+		Booking booking = new Booking();
+		booking.setRecNo(42);
+		booking.setCustomer("12345678");
+		RemoteBatchBookingRequest request = new RemoteBatchBookingRequest();
+		request.setCorrId(7);
+		request.setBookings(new Booking[] {booking, booking});
+
+		RemoteBatchBookingRequest decoded = (RemoteBatchBookingRequest)roundTrip(request);
+		assertEquals(7, decoded.getCorrId());
+		assertEquals(2, decoded.getBookings().length);
+		assertEquals(42, decoded.getBookings()[1].getRecNo());
+		assertEquals("12345678", decoded.getBookings()[1].getCustomer());
+
+		RemoteBatchBookingResponse response = new RemoteBatchBookingResponse();
+		response.setCorrId(7);
+		response.setSuccess(true);
+		response.setResults(new BookingResult[] {
+				new BookingResult(42, true, null), new BookingResult(42, false, "Room already booked")});
+
+		RemoteBatchBookingResponse decodedResponse = (RemoteBatchBookingResponse)roundTrip(response);
+		assertTrue(decodedResponse.isSuccess());
+		assertEquals(2, decodedResponse.getResults().length);
+		assertTrue(decodedResponse.getResults()[0].isSuccess());
+		assertNull(decodedResponse.getResults()[0].getMessage());
+		assertFalse(decodedResponse.getResults()[1].isSuccess());
+		assertEquals("Room already booked", decodedResponse.getResults()[1].getMessage());
+	}
+
+	@Test
+	public void testGetRooms() throws IOException {
+		RemoteGetRoomsRequest request = new RemoteGetRoomsRequest();
+		request.setCorrId(5);
+		request.setRecNos(new int[] {3, 1});
+
+		RemoteGetRoomsRequest decoded = (RemoteGetRoomsRequest)roundTrip(request);
+		assertEquals(5, decoded.getCorrId());
+		assertArrayEquals(new int[] {3, 1}, decoded.getRecNos());
+
+		Room room = new Room();
+		room.setRecNo(1);
+		room.setName("Palace");
+		RemoteGetRoomsResponse response = new RemoteGetRoomsResponse();
+		response.setCorrId(5);
+		response.setSuccess(true);
+		response.setResult(new Room[] {null, room});
+
+		Room[] rooms = ((RemoteGetRoomsResponse)roundTrip(response)).getResult();
+		assertEquals(2, rooms.length);
+		assertNull(rooms[0]);
+		assertEquals(1, rooms[1].getRecNo());
+		assertEquals("Palace", rooms[1].getName());
+	}
+
+	@Test
+	public void testStreamSearch() throws IOException {
+		RemoteStreamSearchRequest request = new RemoteStreamSearchRequest();
+		request.setCorrId(9);
+		request.setCriteria(new SearchCriteriaAll());
+		request.setChunkSize(100);
+		request.setWindow(4);
+		RemoteStreamSearchRequest decoded = (RemoteStreamSearchRequest)roundTrip(request);
+		assertEquals(9, decoded.getCorrId());
+		assertTrue(decoded.getCriteria() instanceof SearchCriteriaAll);
+		assertEquals(100, decoded.getChunkSize());
+		assertEquals(4, decoded.getWindow());
+
+		RemoteStreamCredit credit = new RemoteStreamCredit();
+		credit.setStreamId(9);
+		credit.setCredit(1);
+		RemoteStreamCredit decodedCredit = (RemoteStreamCredit)roundTrip(credit);
+		assertEquals(9, decodedCredit.getStreamId());
+		assertEquals(1, decodedCredit.getCredit());
+		assertFalse(decodedCredit.isCancel());
+
+		Room room = new Room();
+		room.setRecNo(1);
+		room.setName("Palace");
+		RemoteSearchChunk chunk = new RemoteSearchChunk();
+		chunk.setCorrId(9);
+		chunk.setSuccess(true);
+		chunk.setLast(true);
+		chunk.setResult(new Room[] {room});
+		RemoteSearchChunk decodedChunk = (RemoteSearchChunk)roundTrip(chunk);
+		assertEquals(9, decodedChunk.getCorrId());
+		assertTrue(decodedChunk.isLast());
+		assertEquals("Palace", decodedChunk.getResult()[0].getName());
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testTruncatedFrame() throws IOException {
+		// frame of length 9 with a search request opcode, too short for it
+		byte[] frame = {0, 0, 0, 9, 2, 0, 0, 0, 0, 0, 0, 0, 1};
+		BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(frame)));
+	}
+}
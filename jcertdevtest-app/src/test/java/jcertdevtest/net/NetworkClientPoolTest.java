@@ -0,0 +1,128 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingService;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.SearchCriteriaAll;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NetworkClientPoolTest {
+
+	private NetworkServer server;
+	private BookingService service;
+	private NetworkClientPool sut;
+
+	@Before
+	public void setUp() throws Exception {
+		service = mock(BookingService.class);
+		when(service.search(any(SearchCriteria.class))).thenReturn(new Room[] {new Room()});
+		server = new NetworkServer(service, 0, 1, 2);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if(sut != null)
+			sut.close();
+		server.stop();
+	}
+
+	private static RemoteSearchRequest search() {
+		RemoteSearchRequest request = new RemoteSearchRequest();
+		request.setCriteria(new SearchCriteriaAll());
+		return request;
+	}
+
+	@Test(timeout = 60000)
+	public void testPipelined() throws Exception {
+		sut = new NetworkClientPool("localhost", server.getLocalPort(), WireProtocol.BINARY, 3);
+		List<CompletableFuture<RemoteResponse>> results = new ArrayList<>();
+		for(int i = 0; i < 300; ++i)
+			results.add(sut.send(search()));
+		for(CompletableFuture<RemoteResponse> result : results)
+			assertTrue(result.get().isSuccess());
+	}
+
+	@Test(timeout = 60000)
+	public void testReconnect() throws Exception {
+		int port = server.getLocalPort();
+		sut = new NetworkClientPool("localhost", port, WireProtocol.BINARY, 2);
+		assertTrue(sut.send(search()).get().isSuccess());
+
+		server.stop();
+		try {
+			sut.send(search()).get();
+			fail();
+		} catch (ExecutionException e) {
+			// closed, or not connected
+		}
+
+		server = new NetworkServer(service, port, 1, 2);
+		server.start();
+		// reconnects in the background
+		while(true) {
+			try {
+				assertTrue(sut.send(search()).get().isSuccess());
+				break;
+			} catch (ExecutionException e) {
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testWriteTimeout() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(service).book(any(Booking.class));
+		sut = new NetworkClientPool("localhost", server.getLocalPort(), WireProtocol.BINARY, 1);
+		try {
+			// waits without limit by default
+			CompletableFuture<RemoteResponse> waiting = sut.send(book());
+			Thread.sleep(300);
+			assertFalse(waiting.isDone());
+
+			sut.setTimeouts(NetworkClient.DEFAULT_READ_TIMEOUT_MILLIS, 100);
+			try {
+				sut.send(book()).get();
+				fail();
+			} catch(ExecutionException e) {
+				assertTrue(e.getCause() instanceof OutcomeUnknownException);
+			}
+			release.countDown();
+			assertTrue(waiting.get().isSuccess());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	private static RemoteBookingRequest book() {
+		RemoteBookingRequest request = new RemoteBookingRequest();
+		Booking booking = new Booking();
+		booking.setRecNo(1);
+		booking.setCustomer("12345678");
+		request.setBooking(booking);
+		return request;
+	}
+}
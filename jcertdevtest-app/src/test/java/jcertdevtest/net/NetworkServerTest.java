@@ -0,0 +1,523 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
+import jcertdevtest.BookingService;
+import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.SearchCriteriaAll;
+import jcertdevtest.ServiceException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NetworkServerTest {
+
+	private NetworkServer sut;
+	private BookingService service;
+	private Room[] rooms;
+	/** Closed after each test */
+	private final List<RemoteAsyncBookingServiceClient> clients = 
+			Collections.synchronizedList(new ArrayList<RemoteAsyncBookingServiceClient>());
+
+	@Before
+	public void setUp() throws Exception {
+		service = mock(BookingService.class);
+		// large enough to need several writes
+		rooms = new Room[5000];
+		for(int i = 0; i < rooms.length; ++i) {
+			rooms[i] = new Room();
+			rooms[i].setRecNo(i + 1);
+			rooms[i].setName("Name " + i);
+			rooms[i].setLocation("Location " + i);
+		}
+		when(service.search(any(SearchCriteria.class))).thenReturn(rooms);
+		sut = new NetworkServer(service, 0, 2, 4);
+		sut.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		// before the server, not to reconnect
+		for(RemoteAsyncBookingServiceClient client : clients)
+			client.close();
+		sut.stop();
+	}
+
+	private RemoteAsyncBookingServiceClient connectAsync(WireProtocol protocol) throws Exception {
+		RemoteAsyncBookingServiceClient client = new RemoteAsyncBookingServiceClient("localhost", 
+				sut.getLocalPort(), protocol, 1);
+		clients.add(client);
+		return client;
+	}
+
+	private RemoteAsyncBookingServiceClient connectAsync() throws Exception {
+		return connectAsync(WireProtocol.BINARY);
+	}
+
+	private RemoteBookingServiceClient connect(WireProtocol protocol) throws Exception {
+		return new RemoteBookingServiceClient(connectAsync(protocol));
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+		for(int i = 0; i < 3; ++i) {
+			Room[] result = client.search(new SearchCriteriaAll());
+			assertEquals(rooms.length, result.length);
+			assertEquals("Name 4999", result[4999].getName());
+		}
+	}
+
+	@Test
+	public void testSearchSerialized() throws Exception {
+		RemoteBookingServiceClient client = connect(WireProtocol.SERIALIZED);
+		Room[] result = client.search(new SearchCriteriaAll());
+		assertEquals(rooms.length, result.length);
+		assertEquals("Name 4999", result[4999].getName());
+	}
+
+	private static class UnserializableRoom extends Room {
+		private static final long serialVersionUID = 1L;
+		@SuppressWarnings("unused")
+		private final Object notSerializable = new Object();
+	}
+
+	@Test
+	public void testResponseNotEncoded() throws Exception {
+		when(service.search(any(SearchCriteria.class))).thenReturn(new Room[] {new UnserializableRoom()});
+		RemoteBookingServiceClient client = connect(WireProtocol.SERIALIZED);
+		try {
+			client.search(new SearchCriteriaAll());
+			fail();
+		} catch (ServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Failed to send response"));
+		}
+		// still connected
+		when(service.search(any(SearchCriteria.class))).thenReturn(rooms);
+		assertEquals(rooms.length, client.search(new SearchCriteriaAll()).length);
+	}
+
+	@Test
+	public void testSearchResultTooLarge() throws Exception {
+		// every room padded to the longest name
+		Room[] large = Arrays.copyOf(rooms, 1200);
+		char[] name = new char[60000];
+		Arrays.fill(name, 'x');
+		large[0] = new Room();
+		large[0].setName(new String(name));
+		when(service.search(any(SearchCriteria.class))).thenReturn(large);
+		RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+		try {
+			client.search(new SearchCriteriaAll());
+			fail();
+		} catch (ServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("use openSearch"));
+		}
+		// still connected
+		when(service.search(any(SearchCriteria.class))).thenReturn(rooms);
+		assertEquals(rooms.length, client.search(new SearchCriteriaAll()).length);
+	}
+
+	@Test
+	public void testBookFailure() throws Exception {
+		doThrow(new ServiceException("Room already booked")).when(service).book(any(Booking.class));
+		RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+		try {
+			client.book(new Booking());
+			fail();
+		} catch (ServiceException e) {
+			assertTrue(e.getMessage().contains("Room already booked"));
+		}
+	}
+
+	@Test
+	public void testBatchBookAndGetRooms() throws Exception {
+		when(service.book(any(Booking[].class))).thenReturn(new BookingResult[] {
+				new BookingResult(1, true, null), new BookingResult(2, false, "Room not found")});
+		when(service.getRooms(any(int[].class))).thenReturn(new Room[] {rooms[1], null});
+		RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+
+		BookingResult[] results = client.book(new Booking[] {new Booking(), new Booking()});
+		assertEquals(2, results.length);
+		assertTrue(results[0].isSuccess());
+		assertEquals("Room not found", results[1].getMessage());
+
+		Room[] result = client.getRooms(new int[] {2, 9999});
+		assertEquals("Name 1", result[0].getName());
+		assertNull(result[1]);
+	}
+
+	/**
+	 * Cursor over the test rooms, counting chunks read.
+	 */
+	private final class TestCursor implements RoomCursor {
+		private final int chunkSize;
+		private final AtomicInteger read = new AtomicInteger();
+		private volatile boolean closed;
+		private int pos;
+
+		public TestCursor(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos <= rooms.length && !closed;
+		}
+
+		@Override
+		public Room[] next() {
+			Room[] chunk = Arrays.copyOfRange(rooms, pos, Math.min(pos + chunkSize, rooms.length));
+			pos += chunkSize;
+			read.incrementAndGet();
+			return chunk;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testStreamSearch() throws Exception {
+		TestCursor serverCursor = new TestCursor(300);
+		when(service.openSearch(any(SearchCriteria.class), eq(300))).thenReturn(serverCursor);
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		RoomCursor cursor = client.openSearch(new SearchCriteriaAll(), 300, 2);
+		// server stops at the window until chunks are read
+		while(serverCursor.read.get() < 2)
+			Thread.sleep(10);
+		Thread.sleep(100);
+		assertEquals(2, serverCursor.read.get());
+		int count = 0;
+		while(cursor.hasNext()) {
+			Room[] chunk = cursor.next();
+			if(count == 0)
+				assertEquals("Name 0", chunk[0].getName());
+			count += chunk.length;
+		}
+		assertEquals(rooms.length, count);
+		assertEquals(17, serverCursor.read.get());
+		client.close();
+	}
+
+	@Test(timeout = 60000)
+	public void testStreamSearchClosed() throws Exception {
+		TestCursor serverCursor = new TestCursor(100);
+		when(service.openSearch(any(SearchCriteria.class), eq(100))).thenReturn(serverCursor);
+		RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+		RoomCursor cursor = client.openSearch(new SearchCriteriaAll(), 100);
+		assertEquals(100, cursor.next().length);
+		cursor.close();
+		while(!serverCursor.closed)
+			Thread.sleep(10);
+		// connection still usable
+		assertEquals(rooms.length, client.search(new SearchCriteriaAll()).length);
+	}
+
+	@Test(timeout = 60000)
+	public void testStreamSearchIdle() throws Exception {
+		sut.setStreamIdleTimeout(200);
+		TestCursor serverCursor = new TestCursor(100);
+		when(service.openSearch(any(SearchCriteria.class), eq(100))).thenReturn(serverCursor);
+		RoomCursor cursor = connectAsync().openSearch(new SearchCriteriaAll(), 100, 1);
+		// never read, so never given more credit
+		while(!serverCursor.closed)
+			Thread.sleep(10);
+		assertEquals(1, serverCursor.read.get());
+		assertEquals(100, cursor.next().length);
+		try {
+			cursor.next();
+			fail();
+		} catch (ServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("idle"));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testStreamSearchTooMany() throws Exception {
+		when(service.openSearch(any(SearchCriteria.class), eq(100))).thenAnswer(new Answer<RoomCursor>() {
+			@Override
+			public RoomCursor answer(InvocationOnMock invocation) {
+				return new TestCursor(100);
+			}
+		});
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		List<RoomCursor> cursors = new ArrayList<>();
+		for(int i = 0; i < RemoteBookingServiceServerSessionHandler.MAX_STREAMS; ++i) {
+			cursors.add(client.openSearch(new SearchCriteriaAll(), 100, 1));
+			assertEquals(100, cursors.get(i).next().length);
+		}
+		RoomCursor tooMany = client.openSearch(new SearchCriteriaAll(), 100, 1);
+		try {
+			tooMany.next();
+			fail();
+		} catch (ServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("searches open"));
+		}
+		// one closed makes room for another
+		cursors.get(0).close();
+		Thread.sleep(200);
+		assertEquals(100, client.openSearch(new SearchCriteriaAll(), 100, 1).next().length);
+	}
+
+	@Test(timeout = 60000)
+	public void testConcurrentClients() throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(20);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for(int i = 0; i < 20; ++i) {
+				results.add(exec.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+						int found = 0;
+						for(int j = 0; j < 10; ++j) {
+							client.book(new Booking());
+							found += client.search(new SearchCriteriaAll()).length;
+						}
+						return found;
+					}
+				}));
+			}
+			for(Future<Integer> result : results)
+				assertEquals(10 * rooms.length, (int)result.get());
+			verify(service, times(200)).book(any(Booking.class));
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testPipelinedRequests() throws Exception {
+		// requests from several threads queue up on the one connection
+		final RemoteBookingServiceClient client = connect(WireProtocol.BINARY);
+		ExecutorService exec = Executors.newFixedThreadPool(10);
+		try {
+			List<Future<Room[]>> results = new ArrayList<>();
+			for(int i = 0; i < 50; ++i) {
+				results.add(exec.submit(new Callable<Room[]>() {
+					@Override
+					public Room[] call() throws Exception {
+						return client.search(new SearchCriteriaAll());
+					}
+				}));
+			}
+			for(Future<Room[]> result : results)
+				assertEquals(rooms.length, result.get().length);
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testAsyncPipelined() throws Exception {
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		List<CompletableFuture<Room[]>> results = new ArrayList<>();
+		for(int i = 0; i < 100; ++i)
+			results.add(client.search(new SearchCriteriaAll()));
+		for(CompletableFuture<Room[]> result : results)
+			assertEquals(rooms.length, result.get().length);
+	}
+
+	@Test(timeout = 60000)
+	public void testBlockedBookingDoesNotStallSearch() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(service).book(any(Booking.class));
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		CompletableFuture<Void> first = client.book(new Booking());
+		CompletableFuture<Void> second = client.book(new Booking());
+		// answered while both bookings wait, the second behind the first
+		assertEquals(rooms.length, client.search(new SearchCriteriaAll()).get().length);
+		assertFalse(first.isDone());
+		assertFalse(second.isDone());
+		release.countDown();
+		first.get();
+		second.get();
+		client.close();
+	}
+
+	@Test(timeout = 60000)
+	public void testServerBusy() throws Exception {
+		sut.stop();
+		sut = new NetworkServer(service, 0, 1, 1, 1);
+		sut.start();
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(service).book(any(Booking.class));
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		CompletableFuture<Void> booking = client.book(new Booking());
+		try {
+			client.search(new SearchCriteriaAll()).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains(RemoteBookingServiceServerSessionHandler.SERVER_BUSY));
+		}
+		release.countDown();
+		booking.get();
+		// admitted again once the booking finished, just after its response
+		Room[] result = null;
+		while(result == null) {
+			try {
+				result = client.search(new SearchCriteriaAll()).get();
+			} catch (ExecutionException e) {
+				Thread.sleep(10);
+			}
+		}
+		assertEquals(rooms.length, result.length);
+		client.close();
+	}
+
+	@Test(timeout = 60000)
+	public void testConnectionClosed() throws Exception {
+		// server never responds to a booking until stopped
+		final CountDownLatch booking = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				booking.countDown();
+				Thread.sleep(60000);
+				return null;
+			}
+		}).when(service).book(any(Booking.class));
+		RemoteAsyncBookingServiceClient client = connectAsync();
+		CompletableFuture<Void> result = client.book(new Booking());
+		booking.await();
+		sut.stop();
+		try {
+			result.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ServiceException);
+		}
+		// for tearDown
+		sut = new NetworkServer(service, 0, 1, 1);
+		sut.start();
+	}
+
+	@Test(timeout = 60000)
+	public void testMessageInPieces() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		RemoteSearchRequest request = new RemoteSearchRequest();
+		request.setCorrId(5);
+		request.setCriteria(new SearchCriteriaAll());
+		out.writeObject(request);
+		out.flush();
+		byte[] message = bytes.toByteArray();
+		try(Socket socket = new Socket("localhost", sut.getLocalPort())) {
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			// each piece a separate packet, with no thread waiting for the rest
+			for(int i = 0; i < message.length; i += 7) {
+				socket.getOutputStream().write(message, i, Math.min(7, message.length - i));
+				socket.getOutputStream().flush();
+				Thread.sleep(5);
+			}
+			Object response = in.readObject();
+			while(response instanceof RemoteHeartbeat)
+				response = in.readObject();
+			assertEquals(5, ((RemoteSearchResponse)response).getCorrId());
+			assertEquals(rooms.length, ((RemoteSearchResponse)response).getResult().length);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testMessageNestedTooDeep() throws Exception {
+		try(Socket socket = new Socket("localhost", sut.getLocalPort())) {
+			ObjectOutputStream header = new ObjectOutputStream(socket.getOutputStream());
+			header.flush();
+			socket.getOutputStream().write(SerializationScannerTest.nestedArrays(100000));
+			socket.getOutputStream().flush();
+			InputStream in = socket.getInputStream();
+			while(in.read() != -1)
+				;
+		}
+		// only that session closed
+		assertEquals(rooms.length, connect(WireProtocol.SERIALIZED).search(new SearchCriteriaAll()).length);
+	}
+
+	@Test(timeout = 60000)
+	public void testClientNotReading() throws Exception {
+		int requests = 2000;
+		try(Socket socket = new Socket("localhost", sut.getLocalPort())) {
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			for(int i = 1; i <= requests; ++i) {
+				RemoteSearchRequest request = new RemoteSearchRequest();
+				request.setCorrId(i);
+				request.setCriteria(new SearchCriteriaAll());
+				out.writeObject(request);
+			}
+			out.flush();
+			// far more than the server buffers for a session, so it gives up
+			Thread.sleep(2000);
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			int responses = 0;
+			try {
+				while(true) {
+					if(in.readObject() instanceof RemoteSearchResponse)
+						++responses;
+				}
+			} catch (IOException e) {
+				// closed
+			}
+			assertTrue(responses < requests);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testMessageTooLong() throws Exception {
+		try(Socket socket = new Socket("localhost", sut.getLocalPort())) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.write(BinaryCodec.MAGIC);
+			out.writeInt(NioSession.MAX_INBOUND_BYTES);
+			out.flush();
+			// closed, after at most the stream header and MAGIC
+			InputStream in = socket.getInputStream();
+			int read = 0;
+			while(in.read() != -1)
+				++read;
+			assertTrue(read <= 4 + BinaryCodec.MAGIC.length);
+		}
+	}
+}
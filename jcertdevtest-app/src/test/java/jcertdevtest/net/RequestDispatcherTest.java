@@ -0,0 +1,104 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestDispatcherTest {
+
+	private ExecutorService workers;
+	private RequestDispatcher sut;
+
+	@Before
+	public void setUp() {
+		workers = Executors.newFixedThreadPool(4);
+		sut = new RequestDispatcher(workers, 3);
+	}
+
+	@After
+	public void tearDown() {
+		workers.shutdownNow();
+	}
+
+	private static Runnable await(final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+
+	@Test(timeout = 10000)
+	public void testCapacity() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		RequestDispatcher.Sequence sequence = sut.newSequence();
+		assertTrue(sut.execute(await(release)));
+		assertTrue(sequence.execute(await(release)));
+		assertTrue(sequence.execute(await(release)));
+		assertFalse(sut.execute(await(release)));
+		assertFalse(sequence.execute(await(release)));
+
+		release.countDown();
+		while(sut.getAdmitted() > 0)
+			Thread.sleep(10);
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(sut.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		}));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void testSequenceOrder() throws Exception {
+		sut = new RequestDispatcher(workers, 1000);
+		final List<Integer> order = new CopyOnWriteArrayList<>();
+		final CountDownLatch done = new CountDownLatch(500);
+		RequestDispatcher.Sequence sequence = sut.newSequence();
+		for(int i = 0; i < 500; ++i) {
+			final int n = i;
+			assertTrue(sequence.execute(new Runnable() {
+				@Override
+				public void run() {
+					order.add(n);
+					done.countDown();
+				}
+			}));
+		}
+		done.await();
+		for(int i = 0; i < 500; ++i)
+			assertEquals(i, (int)order.get(i));
+	}
+
+	@Test(timeout = 10000)
+	public void testSequenceDoesNotBlockOthers() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		RequestDispatcher.Sequence sequence = sut.newSequence();
+		assertTrue(sequence.execute(await(release)));
+		assertTrue(sut.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		}));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+}
@@ -0,0 +1,163 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import jcertdevtest.Booking;
+import jcertdevtest.SearchCriteriaAll;
+import jcertdevtest.SearchCriteriaExactAnd;
+import jcertdevtest.SortKey;
+
+import org.junit.Test;
+
+public class SerializationScannerTest {
+
+	private static final int HEADER_LENGTH = 4;
+
+	private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	/** End of each message written */
+	private List<Integer> ends = new ArrayList<>();
+
+	private void write(ObjectOutputStream out, Object message) throws IOException {
+		out.writeObject(message);
+		out.flush();
+		ends.add(bytes.size());
+	}
+
+	/**
+	 * Every message is incomplete until its last byte, then complete.
+	 */
+	private void assertScanned() throws IOException {
+		byte[] stream = bytes.toByteArray();
+		SerializationScanner sut = new SerializationScanner();
+		int start = HEADER_LENGTH;
+		for(int end : ends) {
+			for(int limit = start; limit < end; ++limit) {
+				ByteBuffer in = ByteBuffer.wrap(stream, 0, limit);
+				in.position(start);
+				assertEquals(-1, sut.scan(in));
+			}
+			ByteBuffer in = ByteBuffer.wrap(stream);
+			in.position(start);
+			assertEquals(end, sut.scan(in));
+			start = end;
+		}
+	}
+
+	private static RemoteBookingRequest booking(int recNo) {
+		Booking booking = new Booking();
+		booking.setRecNo(recNo);
+		booking.setCustomer("12345678");
+		RemoteBookingRequest request = new RemoteBookingRequest();
+		request.setCorrId(recNo);
+		request.setBooking(booking);
+		return request;
+	}
+
+	@Test
+	public void testMessagesReferringToEarlierOnes() throws IOException {
+		// as the client, without reset, so later messages refer to the
+		// class descriptors of earlier ones
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		write(out, booking(1));
+		write(out, booking(2));
+		SearchCriteriaAll all = new SearchCriteriaAll();
+		all.setSort(SortKey.OCCUPANCY);
+		RemoteSearchRequest search = new RemoteSearchRequest();
+		search.setCriteria(all);
+		write(out, search);
+		SearchCriteriaExactAnd exact = new SearchCriteriaExactAnd();
+		exact.setName("Palace");
+		exact.setSort(SortKey.OCCUPANCY);
+		search = new RemoteSearchRequest();
+		search.setCriteria(exact);
+		write(out, search);
+		RemoteBatchBookingRequest batch = new RemoteBatchBookingRequest();
+		batch.setBookings(new Booking[] {booking(3).getBooking(), null, booking(4).getBooking()});
+		write(out, batch);
+		write(out, NetworkSession.heartbeat);
+		write(out, NetworkSession.heartbeat);
+		assertScanned();
+	}
+
+	@Test
+	public void testReset() throws IOException {
+		// as the server, reset before every message
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for(int i = 0; i < 3; ++i) {
+			out.reset();
+			write(out, booking(i));
+		}
+		assertScanned();
+	}
+
+	@Test
+	public void testOtherTypes() throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		HashMap<String, int[]> map = new HashMap<>();
+		map.put("a", new int[] {1, 2, 3});
+		map.put("b", null);
+		// written by its own writeObject, as block data and objects
+		write(out, map);
+		write(out, new String[][] {{"x", null}, {}});
+		write(out, Long.valueOf(7));
+		write(out, String.class);
+		write(out, SortKey.OCCUPANCY);
+		assertScanned();
+	}
+
+	/**
+	 * A message of arrays each holding the next one, after the stream header.
+	 */
+	static byte[] nestedArrays(int depth) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(ObjectStreamConstants.TC_ARRAY);
+		out.writeByte(ObjectStreamConstants.TC_CLASSDESC);
+		out.writeUTF("[Ljava.lang.Object;");
+		out.writeLong(1);
+		out.writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+		out.writeShort(0);
+		out.writeByte(ObjectStreamConstants.TC_ENDBLOCKDATA);
+		out.writeByte(ObjectStreamConstants.TC_NULL);
+		out.writeInt(1);
+		for(int i = 1; i < depth; ++i) {
+			out.writeByte(ObjectStreamConstants.TC_ARRAY);
+			out.writeByte(ObjectStreamConstants.TC_REFERENCE);
+			out.writeInt(ObjectStreamConstants.baseWireHandle);
+			out.writeInt(1);
+		}
+		out.writeByte(ObjectStreamConstants.TC_NULL);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testNested() throws IOException {
+		// and the null in the innermost one
+		byte[] message = nestedArrays(SerializationScanner.MAX_DEPTH - 1);
+		assertEquals(message.length, new SerializationScanner().scan(ByteBuffer.wrap(message)));
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testNestedTooDeep() throws IOException {
+		// would overflow the stack
+		new SerializationScanner().scan(ByteBuffer.wrap(nestedArrays(100000)));
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testCorrupted() throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(new byte[] {1, 2, 3});
+		new SerializationScanner().scan(in);
+	}
+}
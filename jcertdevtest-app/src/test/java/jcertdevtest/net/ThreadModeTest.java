@@ -0,0 +1,53 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import jcertdevtest.BookingService;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.SearchCriteriaAll;
+
+import org.junit.Test;
+
+public class ThreadModeTest {
+
+	@Test
+	public void testPlatform() throws Exception {
+		ExecutorService exec = ThreadMode.PLATFORM.newFixedPool(1);
+		try {
+			Future<Boolean> daemon = exec.submit(() -> Thread.currentThread().isDaemon());
+			assertFalse(daemon.get());
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testVirtualUnsupported() {
+		assumeTrue(!ThreadMode.isVirtualSupported());
+		ThreadMode.VIRTUAL.newCachedPool();
+	}
+
+	@Test(timeout = 60000)
+	public void testVirtualServerAndClient() throws Exception {
+		assumeTrue(ThreadMode.isVirtualSupported());
+		BookingService service = mock(BookingService.class);
+		when(service.search(any(SearchCriteria.class))).thenReturn(new Room[] {new Room()});
+		NetworkServer server = new NetworkServer(service, 0, 1, 1, 100, ThreadMode.VIRTUAL);
+		server.start();
+		try {
+			RemoteAsyncBookingServiceClient client = new RemoteAsyncBookingServiceClient("localhost", 
+					server.getLocalPort(), WireProtocol.BINARY, 1, ThreadMode.VIRTUAL);
+			assertEquals(1, client.search(new SearchCriteriaAll()).get().length);
+			client.close();
+		} finally {
+			server.stop();
+		}
+	}
+}
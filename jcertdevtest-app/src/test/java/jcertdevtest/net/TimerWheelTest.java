@@ -0,0 +1,80 @@
+package jcertdevtest.net;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	private TimerWheel sut;
+
+	@Before
+	public void setUp() {
+		// 10 buckets of 10ms, so longer delays take several rounds
+		sut = new TimerWheel("test", 10, TimeUnit.MILLISECONDS, 10);
+		sut.start();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		sut.stop();
+	}
+
+	@Test
+	public void testNotEarly() throws InterruptedException {
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		sut.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, 250, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+	}
+
+	@Test
+	public void testManyAndCancel() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch ran = new CountDownLatch(1000);
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+				ran.countDown();
+			}
+		};
+		TimerWheel.Timeout cancelled = sut.schedule(task, 50, TimeUnit.MILLISECONDS);
+		cancelled.cancel();
+		for(int i = 0; i < 1000; ++i)
+			sut.schedule(task, i % 300, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(1000, count.get());
+	}
+
+	@Test
+	public void testTaskError() throws InterruptedException {
+		sut.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new AssertionError("task failed");
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		final CountDownLatch ran = new CountDownLatch(1);
+		sut.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+}
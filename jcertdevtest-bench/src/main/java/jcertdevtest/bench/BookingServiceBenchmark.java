@@ -0,0 +1,117 @@
+package jcertdevtest.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingServiceImpl;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteriaAll;
+import jcertdevtest.SearchCriteriaExactAnd;
+import jcertdevtest.SearchCriteriaExactOr;
+import jcertdevtest.ServiceException;
+import jcertdevtest.db.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link BookingServiceImpl#search} for each search criteria
+ * type, and of {@link BookingServiceImpl#book}. Searches are repeated, so
+ * with the search cache they are a lookup after the first.
+ *
+ * Every book call books a different room, on a fresh copy of the data file
+ * per iteration, so none fails as already booked.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class BookingServiceBenchmark {
+
+	@Param({"10000", "100000"})
+	public int records;
+
+	/** 0 for no search cache */
+	@Param({"0", "100000"})
+	public int searchCacheRooms;
+
+	private BookingServiceImpl service;
+	private SearchCriteriaExactAnd and;
+	private SearchCriteriaExactOr or;
+	private final SearchCriteriaAll all = new SearchCriteriaAll();
+
+	@Setup
+	public void setUp() throws IOException {
+		service = new BookingServiceImpl(new Data(DataFileGenerator.getOrCreate(records).getPath()),
+				searchCacheRooms);
+		int recNo = records / 2;
+		and = new SearchCriteriaExactAnd();
+		and.setName(DataFileGenerator.name(recNo));
+		and.setLocation(DataFileGenerator.location(recNo));
+		// name matches one room, location 1/12 of all
+		or = new SearchCriteriaExactOr();
+		or.setName(DataFileGenerator.name(recNo));
+		or.setLocation(DataFileGenerator.location(recNo));
+	}
+
+	@Benchmark
+	public Room[] searchAnd() throws ServiceException {
+		return service.search(and);
+	}
+
+	@Benchmark
+	public Room[] searchOr() throws ServiceException {
+		return service.search(or);
+	}
+
+	@Benchmark
+	public Room[] searchAll() throws ServiceException {
+		return service.search(all);
+	}
+
+	@State(Scope.Benchmark)
+	public static class BookState {
+		/** More rooms than can be booked in one iteration */
+		private static final int ROOMS = 1000000;
+		private File file;
+		private BookingServiceImpl service;
+		private final AtomicInteger nextRecNo = new AtomicInteger();
+
+		@Setup(Level.Iteration)
+		public void setUp() throws IOException {
+			file = DataFileGenerator.createTempCopy(ROOMS);
+			service = new BookingServiceImpl(new Data(file.getPath()));
+			nextRecNo.set(1);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public void book(BookState state) throws ServiceException {
+		Booking booking = new Booking();
+		booking.setRecNo(state.nextRecNo.getAndIncrement());
+		booking.setCustomer("12345678");
+		state.service.book(booking);
+	}
+}
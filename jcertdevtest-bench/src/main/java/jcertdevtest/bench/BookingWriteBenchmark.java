@@ -0,0 +1,77 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.Room;
+import jcertdevtest.db.Data;
+import jcertdevtest.db.DataFactory;
+import jcertdevtest.db.RecordNotFoundException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the write path of a booking (lock, read, update, unlock) on
+ * random rooms from many threads, by persistence implementation.
+ *
+ * To see scaling with number of cores, run with increasing threads, e.g.
+ *     java -jar target/benchmarks.jar BookingWriteBenchmark -t 1
+ *     java -jar target/benchmarks.jar BookingWriteBenchmark -t 4
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class BookingWriteBenchmark {
+
+	@Param({"file", "mapped", "striped"})
+	public String persistence;
+
+	@Param({"100000"})
+	public int records;
+
+	private Data data;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+		private final String customer = Long.toString(Thread.currentThread().getId() % 100000000);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		Properties config = new Properties();
+		config.setProperty(DataFactory.PERSISTENCE, persistence);
+		data = DataFactory.open(DataFileGenerator.createTempCopy(records).getPath(), config);
+	}
+
+	@Benchmark
+	public void book(ThreadState state) throws RecordNotFoundException {
+		int recNo = 1 + state.random.nextInt(records);
+		long cookie = data.lock(recNo);
+		try {
+			String[] room = data.read(recNo).clone();
+			room[Room.FieldNums.CUSTOMER] = state.customer;
+			data.update(recNo, room, cookie);
+		} finally {
+			data.unlock(recNo, cookie);
+		}
+	}
+}
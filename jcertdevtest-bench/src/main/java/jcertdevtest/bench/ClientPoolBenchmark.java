@@ -0,0 +1,76 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.BookingServiceImpl;
+import jcertdevtest.Room;
+import jcertdevtest.SearchCriteriaExactAnd;
+import jcertdevtest.ServiceException;
+import jcertdevtest.db.Data;
+import jcertdevtest.net.NetworkServer;
+import jcertdevtest.net.RemoteBookingServiceClient;
+import jcertdevtest.net.WireProtocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Many caller threads sharing one {@link RemoteBookingServiceClient}, by 
+ * the number of connections it pools, against a {@link NetworkServer} on
+ * loopback.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ClientPoolBenchmark {
+
+	@Param({"1000"})
+	public int records;
+
+	@Param({"1", "4"})
+	public int connections;
+
+	private NetworkServer server;
+	private RemoteBookingServiceClient client;
+	private SearchCriteriaExactAnd one;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new NetworkServer(new BookingServiceImpl(
+				new Data(DataFileGenerator.getOrCreate(records).getPath())), 0);
+		server.start();
+		client = new RemoteBookingServiceClient("localhost", server.getLocalPort(), 
+				WireProtocol.BINARY, connections);
+		one = new SearchCriteriaExactAnd();
+		one.setName(DataFileGenerator.name(1));
+		one.setLocation(DataFileGenerator.location(1));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		client.close();
+		server.stop();
+	}
+
+	@Benchmark
+	public Room[] searchOne() throws ServiceException {
+		return client.search(one);
+	}
+}
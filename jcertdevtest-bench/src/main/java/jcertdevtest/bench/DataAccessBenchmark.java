@@ -0,0 +1,94 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.db.Data;
+import jcertdevtest.db.DataFile;
+import jcertdevtest.db.DataPersistenceFileAdapter;
+import jcertdevtest.db.RecordNotFoundException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the per record calls of {@link Data} on random records.
+ * lockContended has all threads locking the same few records, holding the
+ * lock for a read like a booking does.
+ * Run with the GC profiler to see the allocation per call, e.g.
+ *     java -jar target/benchmarks.jar DataAccessBenchmark -prof gc
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class DataAccessBenchmark {
+
+	@Param({"100000"})
+	public int records;
+
+	/** Records locked by lockContended */
+	private static final int HOT_RECORDS = 4;
+
+	private Data data;
+	private String[] criteria;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		String filePath = DataFileGenerator.getOrCreate(records).getPath();
+		// file not written by any benchmark here
+		data = new Data(new DataPersistenceFileAdapter(new DataFile(filePath)));
+		int recNo = records / 2;
+		criteria = new String[] {DataFileGenerator.name(recNo),
+				DataFileGenerator.location(recNo), null, null, null, null, null};
+	}
+
+	@Benchmark
+	public String[] read(ThreadState state) throws RecordNotFoundException {
+		return data.read(1 + state.random.nextInt(records));
+	}
+
+	@Benchmark
+	public long lockUnlock(ThreadState state) throws RecordNotFoundException {
+		int recNo = 1 + state.random.nextInt(records);
+		long cookie = data.lock(recNo);
+		data.unlock(recNo, cookie);
+		return cookie;
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String[] lockContended(ThreadState state) throws RecordNotFoundException {
+		int recNo = 1 + state.random.nextInt(HOT_RECORDS);
+		long cookie = data.lock(recNo);
+		try {
+			return data.read(recNo);
+		} finally {
+			data.unlock(recNo, cookie);
+		}
+	}
+
+	@Benchmark
+	public int[] findIndexed() {
+		return data.find(criteria);
+	}
+}
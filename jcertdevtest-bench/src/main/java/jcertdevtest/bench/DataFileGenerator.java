@@ -0,0 +1,114 @@
+package jcertdevtest.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthesizes data files with the same schema as the provided db-1x1.db,
+ * with any number of records.
+ *
+ * Names are one of the hotel names from db-1x1.db followed by a sequence
+ * number, so there are many distinct names sharing a few common prefixes.
+ * Locations are one of the locations from db-1x1.db.
+ *
+ */
+public class DataFileGenerator {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int MAGIC_COOKIE = 257;
+	private static final String[] FIELD_NAMES =
+			{"name", "location", "size", "smoking", "rate", "date", "owner"};
+	private static final int[] FIELD_LENGTHS = {64, 64, 4, 1, 8, 10, 8};
+
+	public static final String[] NAMES = {"Palace", "Castle", "Excelsior",
+		"Bed & Breakfast & Business", "Grandview", "Dew Drop Inn",
+		"Pandemonium", "Elephant Inn", "Splendide"};
+	public static final String[] LOCATIONS = {"Smallville", "Whoville",
+		"Metropolis", "Pleasantville", "Digitopolis", "Atlantis", "EmeraldCity",
+		"Bali Hai", "Xanadu", "Paravel", "Hobbiton", "Lendmarch"};
+
+	/**
+	 * Name of the given record, recNo starting from 1.
+	 */
+	public static String name(int recNo) {
+		return NAMES[(recNo - 1) % NAMES.length] + " " + ((recNo - 1) / NAMES.length);
+	}
+
+	public static String location(int recNo) {
+		return LOCATIONS[(recNo - 1) % LOCATIONS.length];
+	}
+
+	/**
+	 * Generated file is cached in the temp dir by number of records, so
+	 * repeated benchmark runs do not pay for generating again.
+	 */
+	public static File getOrCreate(int numRecords) throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"),
+				"jcertdevtest-bench-" + numRecords + ".db");
+		if(!file.exists()) {
+			File tmp = new File(file.getPath() + ".tmp");
+			generate(tmp, numRecords);
+			if(!tmp.renameTo(file))
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+		}
+		return file;
+	}
+
+	/**
+	 * Creates a new file that can be modified by the caller, deleted on exit.
+	 */
+	public static File createTempCopy(int numRecords) throws IOException {
+		File file = File.createTempFile("jcertdevtest-bench-", ".db");
+		file.deleteOnExit();
+		Files.copy(getOrCreate(numRecords).toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+
+	public static void generate(File file, int numRecords) throws IOException {
+		Random rand = new Random(numRecords);
+		try(DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			int recordLength = 0;
+			for(int fieldLength : FIELD_LENGTHS)
+				recordLength += fieldLength;
+			out.writeInt(MAGIC_COOKIE);
+			out.writeInt(recordLength);
+			out.writeShort(FIELD_NAMES.length);
+			for(int fieldNum = 0; fieldNum < FIELD_NAMES.length; ++fieldNum) {
+				out.writeShort(FIELD_NAMES[fieldNum].length());
+				out.write(FIELD_NAMES[fieldNum].getBytes(ASCII));
+				out.writeShort(FIELD_LENGTHS[fieldNum]);
+			}
+
+			byte[] record = new byte[recordLength + 1];
+			for(int recNo = 1; recNo <= numRecords; ++recNo) {
+				Arrays.fill(record, (byte)' ');
+				record[0] = 0;
+				int pos = 1;
+				pos = put(record, pos, FIELD_LENGTHS[0], name(recNo));
+				pos = put(record, pos, FIELD_LENGTHS[1], location(recNo));
+				pos = put(record, pos, FIELD_LENGTHS[2], Integer.toString(2 + 2 * rand.nextInt(3)));
+				pos = put(record, pos, FIELD_LENGTHS[3], rand.nextBoolean() ? "Y" : "N");
+				pos = put(record, pos, FIELD_LENGTHS[4], "$" + (90 + 10 * rand.nextInt(17)) + ".00");
+				pos = put(record, pos, FIELD_LENGTHS[5], String.format("%04d/%02d/%02d",
+						2003 + rand.nextInt(3), 1 + rand.nextInt(12), 1 + rand.nextInt(28)));
+				put(record, pos, FIELD_LENGTHS[6], "");
+				out.write(record);
+			}
+		}
+	}
+
+	private static int put(byte[] record, int pos, int length, String value) {
+		byte[] bytes = value.getBytes(ASCII);
+		System.arraycopy(bytes, 0, record, pos, Math.min(bytes.length, length));
+		return pos + length;
+	}
+}
@@ -0,0 +1,84 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.db.Data;
+import jcertdevtest.db.DataFile;
+import jcertdevtest.db.DataPersistenceFileAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link Data#find} by number of records, with and without the
+ * field indexes.
+ *
+ * Run with e.g.
+ *     java -jar target/benchmarks.jar DataFindBenchmark
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class DataFindBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int records;
+
+	@Param({"true", "false"})
+	public boolean indexed;
+
+	private Data data;
+	private String[] exactName;
+	private String[] namePrefix;
+	private String[] nameAndLocation;
+	private String[] location;
+
+	@Setup
+	public void setUp() throws IOException {
+		String filePath = DataFileGenerator.getOrCreate(records).getPath();
+		data = new Data(new DataPersistenceFileAdapter(new DataFile(filePath)),
+				indexed ? null : new int[0]);
+
+		int recNo = records / 2;
+		exactName = new String[] {DataFileGenerator.name(recNo), null, null, null, null, null, null};
+		// "Palace 1" matches ~1/10 of all the Palace records
+		namePrefix = new String[] {DataFileGenerator.NAMES[0] + " 1", null, null, null, null, null, null};
+		nameAndLocation = new String[] {DataFileGenerator.name(recNo),
+				DataFileGenerator.location(recNo), null, null, null, null, null};
+		location = new String[] {null, DataFileGenerator.location(recNo), null, null, null, null, null};
+	}
+
+	@Benchmark
+	public int[] findExactName() {
+		return data.find(exactName);
+	}
+
+	@Benchmark
+	public int[] findNamePrefix() {
+		return data.find(namePrefix);
+	}
+
+	@Benchmark
+	public int[] findNameAndLocation() {
+		return data.find(nameAndLocation);
+	}
+
+	@Benchmark
+	public int[] findLocation() {
+		return data.find(location);
+	}
+}
@@ -0,0 +1,68 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.db.Data;
+import jcertdevtest.db.DataFactory;
+import jcertdevtest.db.DataFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup cost of loading a data file: {@link DataFile#load()} into a map
+ * record by record, and opening {@link Data}, which loads in parallel
+ * straight into its record store and builds the field indexes.
+ *
+ * The file is in the OS cache after the first iteration, so this is the
+ * CPU bound part of the load.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class DataLoadBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int records;
+
+	private String filePath;
+
+	@Setup
+	public void setUp() throws IOException {
+		filePath = DataFileGenerator.getOrCreate(records).getPath();
+	}
+
+	@Benchmark
+	public Map<Integer, ?> dataFileLoad() throws IOException {
+		return new DataFile(filePath).load();
+	}
+
+	@Benchmark
+	public Data openData() throws IOException {
+		return new Data(filePath);
+	}
+
+	@Benchmark
+	public Data openDataCompactNoIndex() throws IOException {
+		Properties config = new Properties();
+		config.setProperty(DataFactory.STORE, "compact");
+		config.setProperty(DataFactory.INDEXED_FIELDS, "");
+		return DataFactory.open(filePath, config);
+	}
+}
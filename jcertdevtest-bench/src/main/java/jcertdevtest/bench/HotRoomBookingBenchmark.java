@@ -0,0 +1,114 @@
+package jcertdevtest.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.Room;
+import jcertdevtest.db.Data;
+import jcertdevtest.db.RecordNotFoundException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of booking attempts on a few hot rooms from many threads, as
+ * in a flash sale, with the lock path (lock, read, check, update, unlock)
+ * against the optimistic one (version, read, check, update if version).
+ *
+ * Most attempts find the room booked. One in freeEvery instead frees it
+ * again through the same path, so there are always some writes to lose to.
+ *
+ * Run with as many threads as there are clients, e.g.
+ *     java -jar target/benchmarks.jar HotRoomBookingBenchmark -t 8
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class HotRoomBookingBenchmark {
+
+	@Param({"1", "4"})
+	public int hotRooms;
+
+	@Param({"100"})
+	public int freeEvery;
+
+	private File file;
+	private Data data;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+		private final String customer = Long.toString(Thread.currentThread().getId() % 100000000);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		file = DataFileGenerator.createTempCopy(1000);
+		data = new Data(file.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * @return customer to set, null if the attempt fails as already booked
+	 */
+	private String nextCustomer(ThreadState state, String[] room) {
+		if(state.random.nextInt(freeEvery) == 0)
+			return "";
+		String current = room[Room.FieldNums.CUSTOMER];
+		return current == null || current.trim().isEmpty() ? state.customer : null;
+	}
+
+	@Benchmark
+	public boolean lock(ThreadState state) throws RecordNotFoundException {
+		int recNo = 1 + state.random.nextInt(hotRooms);
+		long cookie = data.lock(recNo);
+		try {
+			String[] room = data.read(recNo).clone();
+			String customer = nextCustomer(state, room);
+			if(customer == null)
+				return false;
+			room[Room.FieldNums.CUSTOMER] = customer;
+			data.update(recNo, room, cookie);
+			return true;
+		} finally {
+			data.unlock(recNo, cookie);
+		}
+	}
+
+	@Benchmark
+	public boolean optimistic(ThreadState state) throws RecordNotFoundException {
+		int recNo = 1 + state.random.nextInt(hotRooms);
+		while(true) {
+			long version = data.getRecordVersion(recNo);
+			String[] room = data.read(recNo).clone();
+			String customer = nextCustomer(state, room);
+			if(customer == null)
+				return false;
+			room[Room.FieldNums.CUSTOMER] = customer;
+			if(data.updateIfVersion(recNo, version, room))
+				return true;
+		}
+	}
+}
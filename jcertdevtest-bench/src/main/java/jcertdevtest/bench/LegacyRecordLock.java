@@ -1,9 +1,14 @@
-package jcertdevtest.db;
+package jcertdevtest.bench;
 
 import java.security.SecureRandom;
 import java.util.concurrent.locks.ReentrantLock;
 
-class RecordLock {
+/**
+ * The per record lock Data used before {@link jcertdevtest.db.LockManager},
+ * kept only as the baseline for {@link LockBenchmark}.
+ *
+ */
+class LegacyRecordLock {
 	private final ReentrantLock inner = new ReentrantLock();
 	private volatile long cookie;
 	private final SecureRandom rand = new SecureRandom();
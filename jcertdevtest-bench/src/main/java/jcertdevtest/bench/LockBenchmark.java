@@ -0,0 +1,90 @@
+package jcertdevtest.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.db.LockManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Record locking with {@link LockManager} against the previous
+ * {@link LegacyRecordLock} per record.
+ *
+ * lockUnlock is lock, check cookie and unlock of random records from many
+ * threads. createLocks is the load time cost of the lock state for all
+ * records, which for LockManager is only the table itself.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LockBenchmark {
+
+	@Param({"legacy", "manager"})
+	public String impl;
+
+	@Param({"100000"})
+	public int records;
+
+	private LegacyRecordLock[] legacyLocks;
+	private LockManager manager;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		createLocks();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public Object createLocks() {
+		if(impl.equals("legacy")) {
+			legacyLocks = new LegacyRecordLock[records];
+			for(int i = 0; i < records; ++i)
+				legacyLocks[i] = new LegacyRecordLock();
+			return legacyLocks;
+		}
+		manager = new LockManager();
+		return manager;
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean lockUnlock(ThreadState state) {
+		int recNo = 1 + state.random.nextInt(records);
+		if(impl.equals("legacy")) {
+			LegacyRecordLock lock = legacyLocks[recNo - 1];
+			long cookie = lock.lock();
+			boolean locked = lock.checkCookie(cookie);
+			lock.unlock(cookie);
+			return locked;
+		}
+		long cookie = manager.lock(recNo);
+		boolean locked = manager.isLockedBy(recNo, cookie);
+		manager.unlock(recNo, cookie);
+		return locked;
+	}
+}
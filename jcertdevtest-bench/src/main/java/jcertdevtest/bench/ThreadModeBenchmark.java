@@ -0,0 +1,137 @@
+package jcertdevtest.bench;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.Booking;
+import jcertdevtest.BookingResult;
+import jcertdevtest.BookingService;
+import jcertdevtest.BookingServiceImpl;
+import jcertdevtest.Room;
+import jcertdevtest.RoomCursor;
+import jcertdevtest.SearchCriteria;
+import jcertdevtest.ServiceException;
+import jcertdevtest.db.Data;
+import jcertdevtest.net.NetworkServer;
+import jcertdevtest.net.RemoteAsyncBookingServiceClient;
+import jcertdevtest.net.ThreadMode;
+import jcertdevtest.net.WireProtocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link NetworkServer} request throughput by {@link ThreadMode}, when
+ * every request blocks for a while, as on a contended record lock or a
+ * slow disk. Many requests are kept outstanding, as from many clients, so
+ * platform workers are all blocked while virtual threads are only limited
+ * by the request queue.
+ *
+ * VIRTUAL needs the benchmark to run on Java 21 or later, on older JVMs
+ * its setup fails and only PLATFORM is measured.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModeBenchmark {
+	private static final int OUTSTANDING = 1000;
+
+	@Param({"PLATFORM", "VIRTUAL"})
+	public ThreadMode threadMode;
+
+	/** Time each request blocks */
+	@Param({"1"})
+	public int blockMillis;
+
+	private NetworkServer server;
+	private RemoteAsyncBookingServiceClient client;
+	private final int[] recNos = {1};
+
+	@Setup
+	public void setUp() throws IOException {
+		BookingService service = new BlockingBookingService(
+				new BookingServiceImpl(new Data(DataFileGenerator.getOrCreate(1000).getPath())),
+				blockMillis);
+		server = new NetworkServer(service, 0, Runtime.getRuntime().availableProcessors(),
+				4 * Runtime.getRuntime().availableProcessors(), 2 * OUTSTANDING, threadMode);
+		server.start();
+		client = new RemoteAsyncBookingServiceClient("localhost", server.getLocalPort(),
+				WireProtocol.BINARY, 4);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		client.close();
+		server.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OUTSTANDING)
+	public void getRooms() throws InterruptedException, ExecutionException {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Room[]>[] results = new CompletableFuture[OUTSTANDING];
+		for(int i = 0; i < OUTSTANDING; ++i)
+			results[i] = client.getRooms(recNos);
+		CompletableFuture.allOf(results).get();
+	}
+
+	/**
+	 * Blocks before each call, for getRooms.
+	 */
+	private static final class BlockingBookingService implements BookingService {
+		private final BookingService service;
+		private final int blockMillis;
+
+		BlockingBookingService(BookingService service, int blockMillis) {
+			this.service = service;
+			this.blockMillis = blockMillis;
+		}
+
+		@Override
+		public Room[] getRooms(int[] recNos) throws ServiceException {
+			try {
+				Thread.sleep(blockMillis);
+			} catch (InterruptedException e) {
+				throw new ServiceException("Interrupted", e);
+			}
+			return service.getRooms(recNos);
+		}
+
+		@Override
+		public Room[] search(SearchCriteria criteria) throws ServiceException {
+			return service.search(criteria);
+		}
+
+		@Override
+		public RoomCursor openSearch(SearchCriteria criteria, int chunkSize) throws ServiceException {
+			return service.openSearch(criteria, chunkSize);
+		}
+
+		@Override
+		public void book(Booking booking) throws ServiceException {
+			service.book(booking);
+		}
+
+		@Override
+		public BookingResult[] book(Booking[] bookings) throws ServiceException {
+			return service.book(bookings);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package jcertdevtest.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import jcertdevtest.Booking;
+import jcertdevtest.Room;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding then decoding a message, as each {@link WireProtocol} does on
+ * the wire: serialization with a long lived stream reset per message as
+ * {@link NioSession} does, binary with {@link BinaryCodec}.
+ * 
+ * Besides messages/s, the bytes counter is the rate of bytes encoded, so
+ * bytes per message is bytes / score. bookingRequest is a small request,
+ * searchResponse a result of the given number of rooms.
+ * 
+ * In the jcertdevtest.net package to reach the codec.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireProtocolBenchmark {
+
+	@Param({"SERIALIZED", "BINARY"})
+	public WireProtocol protocol;
+
+	@Param({"1", "100"})
+	public int rooms;
+
+	private RemoteBookingRequest bookingRequest;
+	private RemoteSearchResponse searchResponse;
+
+	private final BinaryCodec.FrameBuffer frameOut = new BinaryCodec.FrameBuffer();
+	private final ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+	private ObjectOutputStream objectOut;
+	private final FeedInputStream feed = new FeedInputStream();
+	private ObjectInputStream objectIn;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Input of whatever was last encoded.
+	 */
+	private static final class FeedInputStream extends InputStream {
+		private byte[] bytes = new byte[0];
+		private int pos;
+
+		void feed(byte[] bytes) {
+			this.bytes = bytes;
+			this.pos = 0;
+		}
+
+		@Override
+		public int read() {
+			return pos < bytes.length ? bytes[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(pos >= bytes.length)
+				return -1;
+			int n = Math.min(len, bytes.length - pos);
+			System.arraycopy(bytes, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		Booking booking = new Booking();
+		booking.setRecNo(12345);
+		booking.setCustomer("12345678");
+		bookingRequest = new RemoteBookingRequest();
+		bookingRequest.setCorrId(42);
+		bookingRequest.setBooking(booking);
+
+		Room[] result = new Room[rooms];
+		for(int i = 0; i < rooms; ++i) {
+			Room room = new Room();
+			room.setRecNo(i + 1);
+			room.setName("Hotel " + i);
+			room.setLocation("Location " + i);
+			room.setOccupancy(4);
+			room.setSmoking(i % 2 == 0);
+			room.setPrice("$150.00");
+			room.setDate("2005/07/27");
+			room.setCustomer("");
+			result[i] = room;
+		}
+		searchResponse = new RemoteSearchResponse();
+		searchResponse.setCorrId(43);
+		searchResponse.setSuccess(true);
+		searchResponse.setResult(result);
+
+		objectOut = new ObjectOutputStream(outBytes);
+		objectOut.flush();
+		feed.feed(outBytes.toByteArray());
+		outBytes.reset();
+		objectIn = new ObjectInputStream(feed);
+	}
+
+	private Object roundTrip(Object message, Counters counters) throws IOException, ClassNotFoundException {
+		byte[] bytes;
+		if(protocol == WireProtocol.BINARY) {
+			BinaryCodec.encode(message, frameOut);
+			bytes = frameOut.toFrame();
+			counters.bytes += bytes.length;
+			return BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+		}
+		objectOut.reset();
+		objectOut.writeObject(message);
+		objectOut.flush();
+		bytes = outBytes.toByteArray();
+		outBytes.reset();
+		counters.bytes += bytes.length;
+		feed.feed(bytes);
+		return objectIn.readObject();
+	}
+
+	@Benchmark
+	public Object bookingRequest(Counters counters) throws IOException, ClassNotFoundException {
+		return roundTrip(bookingRequest, counters);
+	}
+
+	@Benchmark
+	public Object searchResponse(Counters counters) throws IOException, ClassNotFoundException {
+		return roundTrip(searchResponse, counters);
+	}
+}
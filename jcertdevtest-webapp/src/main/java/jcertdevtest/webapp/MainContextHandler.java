@@ -1,6 +1,8 @@
 package jcertdevtest.webapp;
 
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Properties;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
@@ -9,21 +11,30 @@ import javax.servlet.ServletContextListener;
 import jcertdevtest.BookingService;
 import jcertdevtest.BookingServiceImpl;
 import jcertdevtest.db.Data;
-import jcertdevtest.db.DataFile;
-import jcertdevtest.db.DataPersistenceFileAdapter;
+import jcertdevtest.db.DataFactory;
 
 public class MainContextHandler implements ServletContextListener {
 
+	private Data data;
+
 	@Override
 	public void contextInitialized(ServletContextEvent sce) {
 		ServletContext context = sce.getServletContext();
 		String dbFilePath = context.getInitParameter("filePath");
+		// other context params are passed on as config, see DataFactory
+		Properties config = new Properties();
+		Enumeration<?> names = context.getInitParameterNames();
+		while(names.hasMoreElements()) {
+			String name = (String)names.nextElement();
+			config.setProperty(name, context.getInitParameter(name));
+		}
 		BookingService service;
 		try {
+			data = DataFactory.open(dbFilePath, config);
 			service = new BookingServiceImpl(
-										new Data(
-											new DataPersistenceFileAdapter(
-												new DataFile(dbFilePath))));
+										data,
+										Integer.parseInt(config.getProperty("searchCache", 
+												Integer.toString(BookingServiceImpl.DEFAULT_SEARCH_CACHE_ROOMS))));
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to initialise BookingService", e);
 		}
@@ -33,5 +44,7 @@ public class MainContextHandler implements ServletContextListener {
 
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
+		if(data != null)
+			data.close();
 	}
 }
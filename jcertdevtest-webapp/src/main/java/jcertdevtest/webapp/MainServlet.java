@@ -1,7 +1,10 @@
 package jcertdevtest.webapp;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,9 +22,12 @@ import jcertdevtest.SearchCriteriaExact;
 import jcertdevtest.SearchCriteriaExactAnd;
 import jcertdevtest.SearchCriteriaExactOr;
 import jcertdevtest.ServiceException;
+import jcertdevtest.SortKey;
 
 /**
- * Handle the main default page allowing search.
+ * Handle the main default page allowing search. Results are shown a page
+ * at a time, selected and sorted by the service. One room more than the
+ * page is asked for, to tell whether there is a next page.
  * 
  * @author Ken Goh
  *
@@ -31,6 +37,7 @@ public class MainServlet extends HttpServlet {
 
 	private static final Logger log = Logger.getLogger(MainServlet.class.getName());
 	
+	static final int PAGE_SIZE = 50;
 	private BookingService service;
 
     public void init() {
@@ -43,20 +50,24 @@ public class MainServlet extends HttpServlet {
 			if(criteria != null) {
 				try {
 					Room[] rooms = service.search(criteria);
-					List<DisplayRecord> records = new ArrayList<>(rooms.length);
-					for(Room room : rooms) {
-						records.add(new DisplayRecord(room));
+					List<DisplayRecord> records = new ArrayList<>(PAGE_SIZE);
+					for(int i = 0; i < Math.min(rooms.length, PAGE_SIZE); ++i) {
+						records.add(new DisplayRecord(rooms[i]));
 					}
 					if(records.isEmpty()) {
 						request.setAttribute("notice", "No match found");						
 					} else {
 						request.setAttribute("colHeaders", DisplayRecord.getHeaders());
 						request.setAttribute("rooms", records);
+						if(rooms.length > PAGE_SIZE)
+							request.setAttribute("nextPage", getPageUrl(request, getPage(request) + 1));
+						if(getPage(request) > 0)
+							request.setAttribute("prevPage", getPageUrl(request, getPage(request) - 1));
 					}
 				} catch (ServiceException e) {
 					log.log(Level.SEVERE, "Error calling BookingService.search", e);
 					request.setAttribute("notice", "Error displaying data");
-				}				
+				}
 			}
 		}
 		request.getRequestDispatcher("/index.jsp").forward(request, response);
@@ -91,6 +102,46 @@ public class MainServlet extends HttpServlet {
 					((SearchCriteriaExact)criteria).setLocation(location);
 			}
 		}
+		String sort = request.getParameter("sort");
+		if(sort != null && sort.length() > 0) {
+			try {
+				criteria.setSort(SortKey.valueOf(sort));
+			} catch (IllegalArgumentException e) {
+				request.setAttribute("notice", "Unknown sort " + sort);
+				return null;
+			}
+		}
+		criteria.setOffset(getPage(request) * PAGE_SIZE);
+		criteria.setLimit(PAGE_SIZE + 1);
 		return criteria;
 	}
+
+	/**
+	 * @return from 0
+	 */
+	private static int getPage(HttpServletRequest request) {
+		try {
+			return Math.max(Integer.parseInt(request.getParameter("page")), 0);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Same search with another page.
+	 */
+	private static String getPageUrl(HttpServletRequest request, int page) throws UnsupportedEncodingException {
+		StringBuilder url = new StringBuilder("Main?page=").append(page);
+		Enumeration<?> names = request.getParameterNames();
+		while(names.hasMoreElements()) {
+			String name = (String)names.nextElement();
+			if("page".equals(name))
+				continue;
+			for(String value : request.getParameterValues(name)) {
+				url.append('&').append(URLEncoder.encode(name, "UTF-8"))
+					.append('=').append(URLEncoder.encode(value, "UTF-8"));
+			}
+		}
+		return url.toString();
+	}
 }
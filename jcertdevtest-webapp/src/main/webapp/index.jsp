@@ -24,6 +24,15 @@
 				<input type="radio" name="concat" value="AND" checked/>AND
 				<input type="radio" name="concat" value="OR"/>OR
 			</div>
+			<div>
+				<div class="fieldLabel">Sort by:</div>
+				<select name="sort">
+					<option value="">-</option>
+					<option value="PRICE" ${param.sort == 'PRICE' ? 'selected' : ''}>Price</option>
+					<option value="DATE" ${param.sort == 'DATE' ? 'selected' : ''}>Date</option>
+					<option value="OCCUPANCY" ${param.sort == 'OCCUPANCY' ? 'selected' : ''}>Occupancy</option>
+				</select>
+			</div>
 			<input type="submit" name="exact" value="Search"/>
 		</div>
 		<div id="searchAll">
@@ -65,6 +74,10 @@
 			</tbody>
 		</table>
 		</form>
+		<div id="pages">
+			<c:if test="${not empty prevPage}"><a href="<c:out value="${prevPage}"/>">Previous</a></c:if>
+			<c:if test="${not empty nextPage}"><a href="<c:out value="${nextPage}"/>">Next</a></c:if>
+		</div>
 	</c:if>
 	</div>
 	